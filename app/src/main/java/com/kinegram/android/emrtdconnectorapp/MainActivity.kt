@@ -11,8 +11,8 @@ import android.widget.Toast
 import androidx.activity.result.contract.ActivityResultContracts
 import androidx.appcompat.app.AppCompatActivity
 import androidx.core.content.edit
+import com.kinegram.android.emrtdconnector.EmrtdConnector
 import com.kinegram.android.emrtdconnector.EmrtdConnectorActivity
-import com.kinegram.android.emrtdconnector.EmrtdPassport
 import java.util.UUID
 
 class MainActivity : AppCompatActivity() {
@@ -22,10 +22,10 @@ class MainActivity : AppCompatActivity() {
         if (result.resultCode != RESULT_OK) {
             return@registerForActivityResult
         }
-        val passportData = result.data?.getParcelableExtra<EmrtdPassport>(
-            EmrtdConnectorActivity.RETURN_DATA
+        val handle = result.data?.getStringExtra(
+            EmrtdConnectorActivity.RETURN_DATA_HANDLE
         )
-        if (passportData == null) {
+        if (handle == null) {
             val error = result.data?.getStringExtra(
                 EmrtdConnectorActivity.RETURN_ERROR
             ) ?: "Unknown error"
@@ -36,7 +36,7 @@ class MainActivity : AppCompatActivity() {
             ).show()
         } else {
             startActivity(Intent(this, ResultActivity::class.java).apply {
-                putExtra(ResultActivity.RESULT_KEY, passportData)
+                putExtra(ResultActivity.RESULT_HANDLE_KEY, handle)
             })
         }
     }
@@ -52,6 +52,9 @@ class MainActivity : AppCompatActivity() {
         super.onCreate(savedInstanceState)
         setContentView(R.layout.activity_main)
 
+        // Prepare the crypto while the user enters the access key
+        EmrtdConnector.warmUp()
+
         prefs = getPreferences(MODE_PRIVATE)
 
         returnResultCheckbox = findViewById(R.id.return_result_only)
@@ -156,6 +159,8 @@ class MainActivity : AppCompatActivity() {
             EmrtdConnectorActivity.VALIDATION_URI,
             "wss://docval.kurzdigital.com/ws2/validate"
         )
+        // Only a handle is passed back, the result itself stays in a file
+        putExtra(EmrtdConnectorActivity.RETURN_HANDLE, true)
     }
 
     private fun getUUIDString() = UUID.randomUUID().toString()
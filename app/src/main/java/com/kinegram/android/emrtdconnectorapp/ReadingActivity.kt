@@ -21,7 +21,12 @@ import com.kinegram.android.emrtdconnector.ConnectionOptions
 import com.kinegram.android.emrtdconnector.EmrtdConnector
 import com.kinegram.android.emrtdconnector.EmrtdConnectorActivity
 import com.kinegram.android.emrtdconnector.EmrtdPassport
+import com.kinegram.android.emrtdconnector.EmrtdResultHandle
+import com.kinegram.android.emrtdconnector.NfcLinkProfiles
 import com.kinegram.android.emrtdconnector.StatusListener
+import org.json.JSONException
+import java.io.IOException
+import kotlin.concurrent.thread
 
 class ReadingActivity : AppCompatActivity() {
     private lateinit var statusTextView: TextView
@@ -132,6 +137,7 @@ class ReadingActivity : AppCompatActivity() {
         val options = ConnectionOptions.Builder()
             .setValidationId(validationId)
             .setChipAccessKey(chipAccessKey)
+            .setNfcLinkProfiles(NfcLinkProfiles.getInstance(this))
             .build()
 
         emrtdConnector.connect(isoDep, options)
@@ -168,11 +174,29 @@ class ReadingActivity : AppCompatActivity() {
             return
         }
         showResultButton.setOnClickListener {
-            val intent = Intent(this, ResultActivity::class.java).apply {
-                putExtra(ResultActivity.RESULT_KEY, emrtdPassport)
+            showResultButton.isEnabled = false
+            val passport = requireNotNull(emrtdPassport)
+            // Writing the handle encrypts the result into a file, not on the main thread
+            thread {
+                val handle = try {
+                    EmrtdResultHandle.write(applicationContext, passport)
+                } catch (e: IOException) {
+                    null
+                } catch (e: JSONException) {
+                    null
+                }
+                runOnUiThread {
+                    if (handle == null) {
+                        showResultButton.isEnabled = true
+                        Toast.makeText(this, R.string.result_unavailable, Toast.LENGTH_LONG).show()
+                    } else {
+                        startActivity(Intent(this, ResultActivity::class.java).apply {
+                            putExtra(ResultActivity.RESULT_HANDLE_KEY, handle)
+                        })
+                        finish()
+                    }
+                }
             }
-            startActivity(intent)
-            finish()
         }
         showResultButton.visibility = View.VISIBLE
     }
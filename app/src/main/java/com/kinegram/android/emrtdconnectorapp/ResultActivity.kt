@@ -4,21 +4,50 @@ import android.graphics.drawable.BitmapDrawable
 import android.os.Bundle
 import android.text.TextUtils
 import android.widget.TextView
+import android.widget.Toast
 import androidx.appcompat.app.AppCompatActivity
 import com.kinegram.android.emrtdconnector.EmrtdPassport
+import com.kinegram.android.emrtdconnector.EmrtdResultHandle
+import org.json.JSONException
+import java.io.IOException
 import java.text.SimpleDateFormat
 import java.util.Calendar
 import java.util.Date
 import java.util.Locale
+import kotlin.concurrent.thread
 
 class ResultActivity : AppCompatActivity() {
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         setContentView(R.layout.activity_result)
-        val resultTextview = findViewById<TextView>(R.id.result_textview)
-        val emrtd = intent.getParcelableExtra<EmrtdPassport>(RESULT_KEY)
-        requireNotNull(emrtd)
+        val handle = intent.getStringExtra(RESULT_HANDLE_KEY)
+        // Reading the handle decrypts a file, not on the main thread
+        thread {
+            val emrtd = try {
+                handle?.let { EmrtdResultHandle.read(applicationContext, it) }
+            } catch (e: IOException) {
+                // The handle has expired or was deleted, e.g. if the app was restored long
+                // after its process was killed
+                null
+            } catch (e: JSONException) {
+                null
+            }
+            runOnUiThread {
+                if (isDestroyed) {
+                    return@runOnUiThread
+                }
+                if (emrtd == null) {
+                    Toast.makeText(this, R.string.result_unavailable, Toast.LENGTH_LONG).show()
+                    finish()
+                } else {
+                    show(emrtd)
+                }
+            }
+        }
+    }
 
+    private fun show(emrtd: EmrtdPassport) {
+        val resultTextview = findViewById<TextView>(R.id.result_textview)
         val passiveAuthenticationDescriptionResId = if (emrtd.passiveAuthentication) {
             R.string.passive_authentication_success
         } else {
@@ -54,8 +83,17 @@ class ResultActivity : AppCompatActivity() {
         }
     }
 
+    override fun onDestroy() {
+        super.onDestroy()
+        if (isFinishing) {
+            intent.getStringExtra(RESULT_HANDLE_KEY)?.let {
+                thread { EmrtdResultHandle.release(applicationContext, it) }
+            }
+        }
+    }
+
     companion object {
-        const val RESULT_KEY = "RESULT"
+        const val RESULT_HANDLE_KEY = "RESULT_HANDLE"
 
         private val yyMMddFormat = SimpleDateFormat("yyMMdd", Locale.US).apply {
             val twoDigitStartDate = Calendar.getInstance().apply {
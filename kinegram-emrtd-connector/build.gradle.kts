@@ -46,6 +46,9 @@ android {
 }
 
 dependencies {
+    // The wire protocol is a plain Java module, published as its own artifact
+    implementation(project(":kinegram-emrtd-protocol"))
+
     implementation("org.java-websocket:Java-WebSocket:1.6.0")
 
     implementation("androidx.appcompat:appcompat:1.7.1") {
@@ -76,6 +79,11 @@ dependencies {
     }
 
     implementation("com.kinegram.emrtd:emrtd-sdk-java:4.0.2")
+
+    // EmrtdSessionHost extends ViewModel, so it is part of the public API
+    api("androidx.lifecycle:lifecycle-viewmodel:2.9.4")
+
+    testImplementation("junit:junit:4.13.2")
 }
 
 buildscript {
@@ -177,6 +185,8 @@ tasks.register<Zip>("generateDistributionZip") {
         "publishReleasePublicationToLocalRepository",
         PublishToMavenRepository::class.java
     )
+    // The protocol module publishes into the same repository
+    dependsOn(":kinegram-emrtd-protocol:publishReleasePublicationToLocalRepository")
     from(publishTask.map { it.repository.url })
     into("")
     exclude("**/maven-metadata*.*") // Sonatype does not want these files in ZIP file
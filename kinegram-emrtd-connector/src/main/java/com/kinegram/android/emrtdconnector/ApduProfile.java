@@ -0,0 +1,166 @@
+package com.kinegram.android.emrtdconnector;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A snapshot of the APDU latencies of a session, grouped by instruction (INS) and path.
+ * <p>
+ * The time of every APDU is split into the time on the radio (the transceive call, including the
+ * processing on the chip) and the overhead before it was sent: for local APDUs the time the
+ * device spent since the previous response, e.g. for secure messaging and parsing; for relayed
+ * APDUs the time since the previous response was sent to the server, i.e. the network round trip
+ * including the processing on the server. Slow chips show in the radio time, slow phones in the
+ * local overhead and slow networks in the relayed overhead.
+ *
+ * @see EmrtdSession#getApduProfile()
+ */
+public class ApduProfile {
+    /**
+     * Upper bounds (inclusive) of the latency buckets in milliseconds. The last bucket holds
+     * everything above the last bound.
+     */
+    public static final long[] BUCKET_BOUNDS_MS = {
+            1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    /**
+     * Where an APDU came from.
+     */
+    public enum Path {
+        /**
+         * Sent by the reader on this device.
+         */
+        LOCAL,
+        /**
+         * Sent by the server and relayed to the chip.
+         */
+        RELAYED
+    }
+
+    /**
+     * The APDUs with the same instruction on the same path.
+     */
+    public static class Entry {
+        public final Path path;
+        public final int ins;
+        public final long count;
+        /**
+         * Number of APDUs per bucket of radio time, see {@link #BUCKET_BOUNDS_MS}.
+         */
+        public final long[] radioBuckets;
+        public final long radioTimeMillis;
+        public final long maxRadioTimeMillis;
+        public final long overheadTimeMillis;
+        public final long commandBytes;
+        public final long responseBytes;
+
+        public Entry(
+                Path path,
+                int ins,
+                long count,
+                long[] radioBuckets,
+                long radioTimeMillis,
+                long maxRadioTimeMillis,
+                long overheadTimeMillis,
+                long commandBytes,
+                long responseBytes
+        ) {
+            this.path = path;
+            this.ins = ins;
+            this.count = count;
+            this.radioBuckets = radioBuckets;
+            this.radioTimeMillis = radioTimeMillis;
+            this.maxRadioTimeMillis = maxRadioTimeMillis;
+            this.overheadTimeMillis = overheadTimeMillis;
+            this.commandBytes = commandBytes;
+            this.responseBytes = responseBytes;
+        }
+
+        /**
+         * Estimates a percentile of the radio time from the buckets.
+         *
+         * @param percentile E.g. 0.95.
+         * @return The upper bound of the bucket that contains the percentile, or
+         * {@link #maxRadioTimeMillis} for the last bucket.
+         */
+        public long getRadioTimePercentileMillis(double percentile) {
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < radioBuckets.length; i++) {
+                seen += radioBuckets[i];
+                if (seen >= rank && seen > 0) {
+                    return i < BUCKET_BOUNDS_MS.length ? BUCKET_BOUNDS_MS[i] : maxRadioTimeMillis;
+                }
+            }
+            return maxRadioTimeMillis;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%s INS=%02X count=%d radio=%dms (max %dms) overhead=%dms bytes=%d/%d",
+                    path, ins, count, radioTimeMillis, maxRadioTimeMillis, overheadTimeMillis,
+                    commandBytes, responseBytes);
+        }
+    }
+
+    private final List<Entry> entries;
+
+    public ApduProfile(@NonNull List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return One entry per instruction and path that occurred, sorted by path and instruction.
+     */
+    @NonNull
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @param path The path.
+     * @return The total radio time of all APDUs on the path in milliseconds.
+     */
+    public long getRadioTimeMillis(Path path) {
+        long total = 0;
+        for (Entry entry : entries) {
+            if (entry.path == path) {
+                total += entry.radioTimeMillis;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @param path The path.
+     * @return The total overhead of all APDUs on the path in milliseconds.
+     */
+    public long getOverheadTimeMillis(Path path) {
+        long total = 0;
+        for (Entry entry : entries) {
+            if (entry.path == path) {
+                total += entry.overheadTimeMillis;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @param path The path.
+     * @return The number of APDUs on the path.
+     */
+    public long getCount(Path path) {
+        long total = 0;
+        for (Entry entry : entries) {
+            if (entry.path == path) {
+                total += entry.count;
+            }
+        }
+        return total;
+    }
+}
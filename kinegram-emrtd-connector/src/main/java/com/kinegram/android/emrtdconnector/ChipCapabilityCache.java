@@ -0,0 +1,223 @@
+package com.kinegram.android.emrtdconnector;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Map;
+
+/**
+ * Remembers the capabilities of chips by their document family, so later reads of the same
+ * family can skip probing.
+ * <p>
+ * A family is identified by the answer to select (the historical bytes of NFC-A chips, the
+ * higher layer response of NFC-B chips), which depends on the chip and its operating system,
+ * not on the holder. Only a hash of it is stored, together with the issuing state and the
+ * document code of the last read. If a later read of the same answer to select shows another
+ * issuing state or document code, the entry is replaced instead of merged.
+ * <p>
+ * Stored per family:
+ * <ul>
+ *     <li>whether extended length APDUs worked, so a family on which they failed is read with
+ *     short APDUs right away,</li>
+ *     <li>the largest block size of the secure messaging session, used when a data group is
+ *     read again,</li>
+ *     <li>whether chip authentication was performed and whether the chip supports active
+ *     authentication, which decides if early chip access can start before the server sent the
+ *     challenge.</li>
+ * </ul>
+ * The cache is opt-in, see {@link ConnectionOptions.Builder#setChipCapabilityCache}.
+ */
+public class ChipCapabilityCache {
+    private static final String TAG = "ChipCapabilityCache";
+    private static final String PREFERENCES =
+            "com.kinegram.android.emrtdconnector.chip_capabilities";
+    private static final int MAX_FAMILIES = 64;
+
+    private static ChipCapabilityCache instance;
+
+    private final SharedPreferences preferences;
+
+    private ChipCapabilityCache(Context context) {
+        this.preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @param context Any context, the application context is used.
+     * @return The cache of this app.
+     */
+    @NonNull
+    public static synchronized ChipCapabilityCache getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new ChipCapabilityCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the capabilities that were recorded for a family.
+     *
+     * @param answerToSelect The answer to select of the chip.
+     * @return The capabilities, or {@code null} if the family was not read before.
+     */
+    @Nullable
+    public synchronized Capabilities get(@Nullable byte[] answerToSelect) {
+        if (answerToSelect == null) {
+            return null;
+        }
+        String json = preferences.getString(familyKey(answerToSelect), null);
+        if (json == null) {
+            return null;
+        }
+        try {
+            return Capabilities.fromJson(new JSONObject(json));
+        } catch (JSONException e) {
+            Log.w(TAG, "Invalid entry", e);
+            return null;
+        }
+    }
+
+    /**
+     * Records the capabilities observed during a read.
+     *
+     * @param answerToSelect The answer to select of the chip.
+     * @param capabilities   The capabilities.
+     */
+    public synchronized void record(
+            @Nullable byte[] answerToSelect, @NonNull Capabilities capabilities) {
+        if (answerToSelect == null) {
+            return;
+        }
+        try {
+            SharedPreferences.Editor editor = preferences.edit()
+                    .putString(familyKey(answerToSelect), capabilities.toJson().toString());
+            evictOldest(editor);
+            editor.apply();
+        } catch (JSONException e) {
+            Log.w(TAG, "Failed to record capabilities", e);
+        }
+    }
+
+    /**
+     * Forgets all families.
+     */
+    public synchronized void clear() {
+        preferences.edit().clear().apply();
+    }
+
+    private void evictOldest(SharedPreferences.Editor editor) throws JSONException {
+        Map<String, ?> entries = preferences.getAll();
+        if (entries.size() < MAX_FAMILIES) {
+            return;
+        }
+        String oldestKey = null;
+        long oldest = Long.MAX_VALUE;
+        for (Map.Entry<String, ?> entry : entries.entrySet()) {
+            long updated = new JSONObject((String) entry.getValue()).optLong("updated");
+            if (updated < oldest) {
+                oldest = updated;
+                oldestKey = entry.getKey();
+            }
+        }
+        editor.remove(oldestKey);
+    }
+
+    private static String familyKey(byte[] answerToSelect) {
+        byte[] hash;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update("emrtd-family".getBytes(StandardCharsets.UTF_8));
+            hash = digest.digest(answerToSelect);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 16; i++) {
+            sb.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(hash[i] & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The capabilities of a document family.
+     */
+    public static final class Capabilities {
+        /**
+         * {@code null} if extended length APDUs were not tried.
+         */
+        @Nullable
+        public final Boolean extendedLength;
+        /**
+         * 0 if unknown.
+         */
+        public final int maxBlockSize;
+        public final boolean chipAuthentication;
+        public final boolean activeAuthentication;
+        @Nullable
+        public final String issuingState;
+        @Nullable
+        public final String documentCode;
+        public final long updatedMillis;
+
+        public Capabilities(
+                @Nullable Boolean extendedLength,
+                int maxBlockSize,
+                boolean chipAuthentication,
+                boolean activeAuthentication,
+                @Nullable String issuingState,
+                @Nullable String documentCode,
+                long updatedMillis
+        ) {
+            this.extendedLength = extendedLength;
+            this.maxBlockSize = maxBlockSize;
+            this.chipAuthentication = chipAuthentication;
+            this.activeAuthentication = activeAuthentication;
+            this.issuingState = issuingState;
+            this.documentCode = documentCode;
+            this.updatedMillis = updatedMillis;
+        }
+
+        /**
+         * @return Whether a read with these capabilities is from the same family as this one.
+         */
+        public boolean isSameFamily(@Nullable String issuingState, @Nullable String documentCode) {
+            return (this.issuingState == null || this.issuingState.equals(issuingState))
+                    && (this.documentCode == null || this.documentCode.equals(documentCode));
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            if (extendedLength != null) {
+                json.put("extendedLength", extendedLength);
+            }
+            json.put("maxBlockSize", maxBlockSize);
+            json.put("chipAuthentication", chipAuthentication);
+            json.put("activeAuthentication", activeAuthentication);
+            json.putOpt("issuingState", issuingState);
+            json.putOpt("documentCode", documentCode);
+            json.put("updated", updatedMillis);
+            return json;
+        }
+
+        static Capabilities fromJson(JSONObject json) {
+            return new Capabilities(
+                    json.has("extendedLength") ? json.optBoolean("extendedLength") : null,
+                    json.optInt("maxBlockSize"),
+                    json.optBoolean("chipAuthentication"),
+                    json.optBoolean("activeAuthentication"),
+                    json.optString("issuingState", null),
+                    json.optString("documentCode", null),
+                    json.optLong("updated"));
+        }
+    }
+}
@@ -1,21 +1,62 @@
 package com.kinegram.android.emrtdconnector;
 
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Options to configure the eMRTD read.
  */
 public class ConnectionOptions {
+    /**
+     * Default for {@link #getConnectTimeoutMillis()}.
+     */
+    public static final long DEFAULT_CONNECT_TIMEOUT_MS = 10_000;
+
+    /**
+     * Default for {@link #getFileMemoryBudget()}.
+     */
+    public static final long DEFAULT_FILE_MEMORY_BUDGET = 4 * 1024 * 1024;
+
     private final String validationId;
     private final boolean enableDiagnostics;
     private final ChipAccessKey chipAccessKey;
     private final Map<String, String> httpHeaders;
+    private final int maxReconnectAttempts;
+    private final List<String> endpoints;
+    private final long connectTimeoutMillis;
+    private final boolean earlyChipAccess;
+    private final boolean partialResult;
+    private final long fileMemoryBudget;
+    private final File fileStoreDirectory;
+    private final NfcLinkProfile nfcLinkProfile;
+    private final NfcLinkProfiles nfcLinkProfiles;
+    private final ChipCapabilityCache chipCapabilityCache;
 
     private ConnectionOptions(Builder builder) {
         this.validationId = builder.validationId;
         this.enableDiagnostics = builder.enableDiagnostics;
         this.chipAccessKey = builder.chipAccessKey;
+        this.maxReconnectAttempts = builder.maxReconnectAttempts;
+        this.endpoints = builder.endpoints;
+        this.connectTimeoutMillis = builder.connectTimeoutMillis;
+        this.earlyChipAccess = builder.earlyChipAccess;
+        this.partialResult = builder.partialResult;
+        this.fileMemoryBudget = builder.fileMemoryBudget;
+        this.fileStoreDirectory = builder.fileStoreDirectory;
+        this.nfcLinkProfiles = builder.nfcLinkProfiles;
+        this.chipCapabilityCache = builder.chipCapabilityCache;
+        if (builder.nfcLinkProfile != null) {
+            this.nfcLinkProfile = builder.nfcLinkProfile;
+        } else if (builder.nfcLinkProfiles != null) {
+            this.nfcLinkProfile = builder.nfcLinkProfiles.getActiveProfile();
+        } else {
+            this.nfcLinkProfile = NfcLinkProfile.DEFAULT;
+        }
         if (builder.httpHeaders == null) {
             this.httpHeaders = new HashMap<>();
         } else {
@@ -64,6 +105,99 @@ public class ConnectionOptions {
         return this.httpHeaders;
     }
 
+    /**
+     * Gets how often the connection to the DocVal server is re-established if it drops during
+     * the session.
+     *
+     * @return The maximum number of consecutive reconnect attempts, {@code 0} if disabled.
+     */
+    public int getMaxReconnectAttempts() {
+        return maxReconnectAttempts;
+    }
+
+    /**
+     * Gets the WebSocket URLs of the DocVal endpoints, in order of preference.
+     *
+     * @return The endpoints, empty if the URL of the {@link EmrtdConnector} is used.
+     */
+    public List<String> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Gets how long connecting to the DocVal server may take before the session fails.
+     *
+     * @return The timeout in milliseconds.
+     */
+    public long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * Returns {@code true} if the chip is accessed while the connection to the DocVal server is
+     * still being established.
+     *
+     * @return Whether early chip access is enabled.
+     */
+    public boolean isEarlyChipAccessEnabled() {
+        return earlyChipAccess;
+    }
+
+    /**
+     * Returns {@code true} if the server may send the result in parts.
+     *
+     * @return Whether partial results are enabled.
+     * @see EmrtdPassportListener#handlePartial(EmrtdPassport)
+     */
+    public boolean isPartialResultEnabled() {
+        return partialResult;
+    }
+
+    /**
+     * Gets how many bytes of read files are kept in memory during the session.
+     *
+     * @return The memory budget in bytes.
+     */
+    public long getFileMemoryBudget() {
+        return fileMemoryBudget;
+    }
+
+    /**
+     * Gets the directory for files that exceed the memory budget.
+     *
+     * @return The directory, {@code null} for the cache directory of the app.
+     */
+    public File getFileStoreDirectory() {
+        return fileStoreDirectory;
+    }
+
+    /**
+     * Gets the parameters of the NFC link to the chip.
+     *
+     * @return The profile.
+     */
+    public NfcLinkProfile getNfcLinkProfile() {
+        return nfcLinkProfile;
+    }
+
+    /**
+     * Gets the profiles in which the outcome of the session is recorded.
+     *
+     * @return The profiles, or {@code null} if the outcome is not recorded.
+     */
+    public NfcLinkProfiles getNfcLinkProfiles() {
+        return nfcLinkProfiles;
+    }
+
+    /**
+     * Gets the cache of chip capabilities per document family.
+     *
+     * @return The cache, or {@code null} if capabilities are not cached.
+     */
+    public ChipCapabilityCache getChipCapabilityCache() {
+        return chipCapabilityCache;
+    }
+
     /**
      * A builder to create connection options for the {@link EmrtdConnector}.
      */
@@ -72,6 +206,16 @@ public class ConnectionOptions {
         private boolean enableDiagnostics;
         private ChipAccessKey chipAccessKey;
         private Map<String, String> httpHeaders;
+        private int maxReconnectAttempts;
+        private List<String> endpoints = Collections.emptyList();
+        private long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MS;
+        private boolean earlyChipAccess;
+        private boolean partialResult;
+        private long fileMemoryBudget = DEFAULT_FILE_MEMORY_BUDGET;
+        private File fileStoreDirectory;
+        private NfcLinkProfile nfcLinkProfile;
+        private NfcLinkProfiles nfcLinkProfiles;
+        private ChipCapabilityCache chipCapabilityCache;
 
         public Builder() {
         }
@@ -164,6 +308,192 @@ public class ConnectionOptions {
             return this;
         }
 
+        /**
+         * Enables automatic reconnects if the connection to the DocVal server drops during the
+         * session, e.g. during a handover from Wi-Fi to mobile data.
+         * <p>
+         * The connection is re-established with a jittered, exponential backoff and the server
+         * session with the same validation id is resumed. Files the server did not receive are
+         * sent again and the read continues where it was, without starting over on the chip.
+         * <p>
+         * Requires a DocVal server that supports session resumption. Disabled by default.
+         *
+         * @param maxReconnectAttempts The maximum number of consecutive reconnect attempts.
+         *                             {@code 0} disables reconnects.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setMaxReconnectAttempts(int maxReconnectAttempts) {
+            if (maxReconnectAttempts < 0) {
+                throw new IllegalArgumentException(
+                        "maxReconnectAttempts must not be negative");
+            }
+            this.maxReconnectAttempts = maxReconnectAttempts;
+            return this;
+        }
+
+        /**
+         * Sets the WebSocket URLs of several DocVal endpoints (e.g. regional ingresses), in order
+         * of preference. They replace the URL passed to the {@link EmrtdConnector}.
+         * <p>
+         * Connection attempts to the endpoints and their IPv6 and IPv4 addresses are started
+         * staggered and the first one that connects is used, so a slow endpoint or a broken
+         * route does not delay the session. The fastest endpoint is remembered for a few minutes
+         * and tried first by later sessions.
+         *
+         * @param endpoints The WebSocket URLs.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setEndpoints(List<String> endpoints) {
+            for (String endpoint : endpoints) {
+                // Throws IllegalArgumentException for invalid URLs
+                URI.create(endpoint);
+            }
+            this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+            return this;
+        }
+
+        /**
+         * Sets how long connecting to the DocVal server may take. If no connection is
+         * established in time, the session is closed with
+         * {@link ClosedListener#COMMUNICATION_FAILED}.
+         * <p>
+         * Defaults to {@link #DEFAULT_CONNECT_TIMEOUT_MS}.
+         *
+         * @param connectTimeoutMillis The timeout in milliseconds.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setConnectTimeout(long connectTimeoutMillis) {
+            if (connectTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("connectTimeoutMillis must be positive");
+            }
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Enable or disable early chip access.
+         * <p>
+         * When enabled, access control (PACE or BAC) and reading the files starts as soon as
+         * the {@link android.nfc.tech.IsoDep} is passed to {@code connect()}, while the
+         * connection to the DocVal server is still being established. The read files are only
+         * sent once the server accepted the session. Chip authentication waits for the server.
+         * On slow networks this hides the connection setup behind the work on the chip.
+         * <p>
+         * Active authentication needs the challenge the server sends when it accepts the
+         * session, before the read starts. The read therefore only starts early for documents
+         * that the {@link #setChipCapabilityCache chip capability cache} knows to have no active
+         * authentication. All other documents are read after the server accepted the session,
+         * as without early chip access. If a family in the cache turns out to support active
+         * authentication, the session fails and the next read waits for the server.
+         * <p>
+         * Disabled by default.
+         *
+         * @param earlyChipAccess {@code true} to access the chip right away.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setEarlyChipAccess(boolean earlyChipAccess) {
+            this.earlyChipAccess = earlyChipAccess;
+            return this;
+        }
+
+        /**
+         * Enable or disable partial results.
+         * <p>
+         * When enabled, the server first sends a result without the large fields (face photo,
+         * signature photos, {@code filesBinary}, ...), which is passed to
+         * {@link EmrtdPassportListener#handlePartial(EmrtdPassport)}. The large fields follow
+         * as they are ready, and the complete result is passed to
+         * {@link EmrtdPassportListener#handle(EmrtdPassport, Exception)} as before. The UI can
+         * continue with the MRZ and the verification results while the images are still being
+         * transferred. Servers that do not support it send the complete result at once.
+         * <p>
+         * Only has an effect if a result is requested. Disabled by default.
+         *
+         * @param partialResult {@code true} to receive partial results.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setPartialResult(boolean partialResult) {
+            this.partialResult = partialResult;
+            return this;
+        }
+
+        /**
+         * Sets how many bytes of read files (data groups, SOD) are kept in memory during the
+         * session.
+         * <p>
+         * Files that do not fit are written to a temporary file, encrypted with a key that is
+         * only kept in memory, and deleted when the session is closed. Useful on devices with
+         * little memory when reading documents with large biometric data groups.
+         * <p>
+         * Defaults to {@link #DEFAULT_FILE_MEMORY_BUDGET}.
+         *
+         * @param fileMemoryBudget The memory budget in bytes.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setFileMemoryBudget(long fileMemoryBudget) {
+            if (fileMemoryBudget < 0) {
+                throw new IllegalArgumentException("fileMemoryBudget must not be negative");
+            }
+            this.fileMemoryBudget = fileMemoryBudget;
+            return this;
+        }
+
+        /**
+         * Sets the directory for files that exceed the memory budget. Should be private to the
+         * app, e.g. {@link android.content.Context#getCacheDir()}.
+         * <p>
+         * Defaults to the cache directory of the app.
+         *
+         * @param fileStoreDirectory The directory.
+         * @return This instance of the builder for easier chaining.
+         * @see #setFileMemoryBudget(long)
+         */
+        public Builder setFileStoreDirectory(File fileStoreDirectory) {
+            this.fileStoreDirectory = fileStoreDirectory;
+            return this;
+        }
+
+        /**
+         * Sets the parameters of the NFC link to the chip, e.g. the APDU timeout.
+         * <p>
+         * Defaults to the active profile of the {@link NfcLinkProfiles} if they are set, and to
+         * {@link NfcLinkProfile#DEFAULT} otherwise.
+         *
+         * @param nfcLinkProfile The profile.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setNfcLinkProfile(NfcLinkProfile nfcLinkProfile) {
+            this.nfcLinkProfile = nfcLinkProfile;
+            return this;
+        }
+
+        /**
+         * Sets the profiles of this device. The session uses their active profile, unless a
+         * profile is set with {@link #setNfcLinkProfile(NfcLinkProfile)}, and records whether
+         * the connection to the chip was lost, so the profile is refined for the next session.
+         * <p>
+         * The reader mode should be enabled with the same profile.
+         *
+         * @param nfcLinkProfiles The profiles, e.g. {@link NfcLinkProfiles#getInstance}.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setNfcLinkProfiles(NfcLinkProfiles nfcLinkProfiles) {
+            this.nfcLinkProfiles = nfcLinkProfiles;
+            return this;
+        }
+
+        /**
+         * Sets a cache in which the capabilities of the chip are stored by document family, so
+         * later reads of the same family skip what did not work before. Disabled by default.
+         *
+         * @param chipCapabilityCache The cache, e.g. {@link ChipCapabilityCache#getInstance}.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setChipCapabilityCache(ChipCapabilityCache chipCapabilityCache) {
+            this.chipCapabilityCache = chipCapabilityCache;
+            return this;
+        }
+
         /**
          * Build the connection options.
          *
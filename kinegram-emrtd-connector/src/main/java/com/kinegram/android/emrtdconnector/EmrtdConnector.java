@@ -4,15 +4,23 @@ import android.nfc.tech.IsoDep;
 import android.os.Handler;
 import android.os.Looper;
 
-import com.kinegram.android.emrtdconnector.internal.protocol.WebsocketSessionCoordinator;
-import com.kinegram.android.emrtdconnector.internal.protocol.exception.NfcException;
-import com.kinegram.android.emrtdconnector.internal.protocol.exception.WebsocketClientException;
+import com.kinegram.android.emrtdconnector.internal.AndroidBase64Codec;
+import com.kinegram.android.emrtdconnector.internal.CryptoWarmUp;
+import com.kinegram.android.emrtdconnector.internal.SessionExecutors;
+import com.kinegram.android.emrtdconnector.internal.protocol.message.Base64Codec;
 import com.kinegram.emrtd.EmrtdReader;
 
 import org.java_websocket.client.WebSocketClient;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 import io.opentelemetry.api.trace.Tracer;
 import io.opentelemetry.api.trace.TracerProvider;
@@ -22,6 +30,11 @@ import io.opentelemetry.api.trace.TracerProvider;
  * <p>
  * Will connect to the NFC Chip using an {@link IsoDep android.nfc.tech.IsoDep}.
  * Will connect to the Document Validation Server using a {@link WebSocketClient org.java_websocket.client.WebSocketClient}.
+ * <p>
+ * Every call to {@code connect} starts a new {@link EmrtdSession} and cancels the sessions that
+ * are still running. With {@link #setConcurrentSessions(boolean)}, sessions on different NFC tags
+ * run concurrently. They share the callback executor and the internal threads of this connector.
+ * Those are idle threads that end when no session needs them.
  */
 public class EmrtdConnector {
     private static final String RET_QUERY = "return_result=true";
@@ -30,17 +43,27 @@ public class EmrtdConnector {
     // provide their own tracer.
     private static Tracer tracer = getTracer(TracerProvider.noop());
 
-    private final Handler handler = new Handler(Looper.getMainLooper());
+    static {
+        // java.util.Base64 is only available from API level 26. Installed once here, before any
+        // session can encode or decode a message.
+        Base64Codec.setInstance(new AndroidBase64Codec());
+    }
+
     private final String clientId;
     private final URI webSocketUri;
+    private final URI webSocketUriWithResult;
     private final ClosedListener closedListener;
     private final StatusListener statusListener;
     private final EmrtdPassportListener emrtdPassportListener;
 
-    private WebsocketSessionCoordinator sessionCoordinator;
-    private Exception nfcException;
-    private Exception webSocketClientException;
-    private Exception exception;
+    private final List<EmrtdSession> sessions = new CopyOnWriteArrayList<>();
+    private final SessionExecutors sessionExecutors = new SessionExecutors();
+    private volatile Executor callbackExecutor = new Handler(Looper.getMainLooper())::post;
+    private volatile EmrtdSession lastSession;
+    private volatile LocalResultListener localResultListener;
+    private volatile ProgressListener progressListener;
+    private volatile EmrtdResultCache resultCache;
+    private volatile boolean concurrentSessions;
 
     /**
      * Sets a OpenTelemetry tracer provider that is used to provide traces. If none is set, a no-op
@@ -68,30 +91,133 @@ public class EmrtdConnector {
     }
 
     /**
-     * Get the exception that occurred during the {@link WebSocketClient} operations.
+     * Loads and initializes the crypto providers, algorithms and classes used to read the chip
+     * (PACE, secure messaging, chip authentication) on a background thread. Without it, the
+     * first session of the process does that between the tap and the first APDU.
+     * <p>
+     * Call it early, e.g. when the app starts or the scan screen is opened. Only the first call
+     * does the work, later calls return the same future. Sessions work without it.
+     *
+     * @return A future that completes with the duration of the warm-up in milliseconds.
+     */
+    public static CompletableFuture<Long> warmUp() {
+        return CryptoWarmUp.start();
+    }
+
+    /**
+     * Sets the executor on which the {@link ClosedListener}, {@link StatusListener} and
+     * {@link EmrtdPassportListener} are invoked. By default, all listeners are invoked on the
+     * main thread.
+     * <p>
+     * Headless apps can pass a background executor (or {@code Runnable::run} to receive the
+     * callbacks directly on the internal threads) so results don't queue up behind rendering.
+     * <p>
+     * Status updates are coalesced: if the executor falls behind, intermediate status values are
+     * dropped and only the latest one is delivered. The result and the close event are always
+     * delivered.
+     * <p>
+     * Takes effect for sessions started after this call.
+     *
+     * @param callbackExecutor The executor to invoke the listeners on.
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        requireNonNull("`callbackExecutor` is null", callbackExecutor);
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Sets whether sessions on different NFC tags may run at the same time, e.g. to read several
+     * documents with external readers.
+     * <p>
+     * By default, starting a session cancels all sessions that are still running, so a document
+     * that is tapped again (which often shows up with a new {@link IsoDep} and a random UID)
+     * never leaves the previous session behind. When enabled, only a session on the same tag is
+     * cancelled.
+     *
+     * @param concurrentSessions {@code true} to let sessions on different tags run concurrently.
+     */
+    public void setConcurrentSessions(boolean concurrentSessions) {
+        this.concurrentSessions = concurrentSessions;
+    }
+
+    /**
+     * Sets a listener for the data read from the chip on this device. It is invoked right after
+     * the chip was read, before the server sent its result, and also if no result is requested.
+     * <p>
+     * The data is <b>not verified</b>, see {@link LocalEmrtdResult}. It is invoked on the
+     * callback executor.
+     * <p>
+     * Takes effect for sessions started after this call.
+     *
+     * @param localResultListener The listener, or {@code null} to remove it.
+     */
+    public void setLocalResultListener(LocalResultListener localResultListener) {
+        this.localResultListener = localResultListener;
+    }
+
+    /**
+     * Sets a listener for the estimated progress of the sessions, e.g. to show a progress bar and
+     * the remaining time while the document must be held still. It is invoked on the callback
+     * executor; if the executor falls behind, intermediate updates are dropped.
+     * <p>
+     * Takes effect for sessions started after this call.
+     *
+     * @param progressListener The listener, or {@code null} to remove it.
+     * @see ReadProgress
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Sets a cache in which the result of every session is stored by its validation id, so it
+     * can be fetched again with {@link EmrtdResultCache#get(String)} without reading the
+     * document.
+     * <p>
+     * Takes effect for sessions started after this call.
+     *
+     * @param resultCache The cache, or {@code null} to not store results.
+     */
+    public void setResultCache(EmrtdResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Get the exception that occurred during the {@link WebSocketClient} operations of the most
+     * recently started session.
+     *
+     * @see EmrtdSession#getWebSocketClientException()
      **/
     public Exception getWebSocketClientException() {
-        return webSocketClientException;
+        EmrtdSession session = lastSession;
+        return session == null ? null : session.getWebSocketClientException();
     }
 
     /**
      * Gets the exception that occurred during {@link IsoDep#connect() IsoDep#connect()} or
-     * {@link IsoDep#transceive(byte[]) IsoDep#transceive(byte[])}.
+     * {@link IsoDep#transceive(byte[]) IsoDep#transceive(byte[])} of the most recently started
+     * session.
      *
      * <p>Value may be queried if close reason is
      * {@link ClosedListener#NFC_CHIP_COMMUNICATION_FAILED}. In all other cases this value will be
      * {@code null}.
+     *
+     * @see EmrtdSession#getNfcException()
      */
     public Exception getNfcException() {
-        return nfcException;
+        EmrtdSession session = lastSession;
+        return session == null ? null : session.getNfcException();
     }
 
     /**
-     * Gets any other exception that occurred during the session and not fit the
-     * {@link #getNfcException()} and {@link #getWebSocketClientException()}.
+     * Gets any other exception that occurred during the most recently started session and not
+     * fit the {@link #getNfcException()} and {@link #getWebSocketClientException()}.
+     *
+     * @see EmrtdSession#getException()
      */
     public Exception getException() {
-        return exception;
+        EmrtdSession session = lastSession;
+        return session == null ? null : session.getException();
     }
 
     /**
@@ -117,17 +243,9 @@ public class EmrtdConnector {
         String msg = "`clientId`, `websocketUrl` or `closedListener` is null";
         requireNonNull(msg, clientId, webSocketUrl, closedListener);
 
-        URI webSocketUri;
-        if (emrtdPassportListener != null
-                && !webSocketUrl.toLowerCase().contains(RET_QUERY)) {
-            webSocketUri = new URI(webSocketUrl +
-                    (webSocketUrl.contains("?") ? "&" : "?") +
-                    RET_QUERY);
-        } else {
-            webSocketUri = new URI(webSocketUrl);
-        }
         this.clientId = clientId;
-        this.webSocketUri = webSocketUri;
+        this.webSocketUri = new URI(webSocketUrl);
+        this.webSocketUriWithResult = new URI(withResultQuery(webSocketUrl));
         this.closedListener = closedListener;
         this.statusListener = statusListener;
         this.emrtdPassportListener = emrtdPassportListener;
@@ -234,60 +352,197 @@ public class EmrtdConnector {
      *     emrtdConnector.connect(isoDep, options);
      * }</pre>
      *
+     * <p>
+     * Sessions that are still running are cancelled, see
+     * {@link #setConcurrentSessions(boolean)}.
+     *
      * @param isoDep  {@link IsoDep} of an ICAO-9303 NFC Tag.
      * @param options Options for this read. Can be constructed with the
      *                {@link ConnectionOptions.Builder}.
+     * @see #connectSession(IsoDep, ConnectionOptions)
      */
     public void connect(IsoDep isoDep, ConnectionOptions options) {
+        connectSession(isoDep, options);
+    }
+
+    /**
+     * Starts the session like {@link #connect(IsoDep, ConnectionOptions)} and returns it.
+     *
+     * @param isoDep  {@link IsoDep} of an ICAO-9303 NFC Tag.
+     * @param options Options for this read. Can be constructed with the
+     *                {@link ConnectionOptions.Builder}.
+     * @return The started session.
+     */
+    public EmrtdSession connectSession(IsoDep isoDep, ConnectionOptions options) {
+        return connect(isoDep, options, closedListener, statusListener, emrtdPassportListener);
+    }
+
+    /**
+     * Starts a session with its own listeners.
+     * <p>
+     * Behaves like {@link #connect(IsoDep, ConnectionOptions)}, but the given listeners are used
+     * for this session instead of the ones passed to the constructor. Together with
+     * {@link #setConcurrentSessions(boolean)}, use this to read several documents concurrently,
+     * e.g. with one external reader per listener set.
+     *
+     * @param isoDep                {@link IsoDep} of an ICAO-9303 NFC Tag.
+     * @param options               Options for this read. Can be constructed with the
+     *                              {@link ConnectionOptions.Builder}.
+     * @param closedListener        will be called when the WebSocket connection is closed.
+     * @param statusListener        will be called on status updates. Can be null.
+     * @param emrtdPassportListener will be called when the Server returns the result. Can be
+     *                              null.
+     * @return The started session.
+     */
+    public EmrtdSession connect(
+            IsoDep isoDep,
+            ConnectionOptions options,
+            ClosedListener closedListener,
+            StatusListener statusListener,
+            EmrtdPassportListener emrtdPassportListener
+    ) {
         String validationId = options.getValidationId();
         ChipAccessKey chipAccessKey = options.getChipAccessKey();
 
-        String msg = "`isoDep`, `validationId` or `chipAccessKey` is null";
-        requireNonNull(msg, isoDep, validationId, chipAccessKey);
-        cancel();
+        String msg = "`isoDep`, `validationId`, `chipAccessKey` or `closedListener` is null";
+        requireNonNull(msg, isoDep, validationId, chipAccessKey, closedListener);
 
-        sessionCoordinator = new WebsocketSessionCoordinator(
+        return startSession(
+                isoDep,
+                options,
+                emrtdPassportListener != null,
+                closedListener,
+                statusListener,
+                emrtdPassportListener);
+    }
+
+    private static String withResultQuery(String webSocketUrl) {
+        if (webSocketUrl.toLowerCase().contains(RET_QUERY)) {
+            return webSocketUrl;
+        }
+        return webSocketUrl + (webSocketUrl.contains("?") ? "&" : "?") + RET_QUERY;
+    }
+
+    private List<URI> getEndpoints(ConnectionOptions options, boolean returnResult) {
+        if (options.getEndpoints().isEmpty()) {
+            return Collections.singletonList(returnResult ? webSocketUriWithResult : webSocketUri);
+        }
+        List<URI> endpoints = new ArrayList<>();
+        for (String url : options.getEndpoints()) {
+            endpoints.add(URI.create(returnResult ? withResultQuery(url) : url));
+        }
+        return endpoints;
+    }
+
+    private EmrtdSession startSession(
+            IsoDep isoDep,
+            ConnectionOptions options,
+            boolean returnResult,
+            ClosedListener closedListener,
+            StatusListener statusListener,
+            EmrtdPassportListener emrtdPassportListener
+    ) {
+        for (EmrtdSession session : sessions) {
+            if (session.getState() == EmrtdSession.State.CLOSED) {
+                sessions.remove(session);
+            } else if (!concurrentSessions || isSameTag(session.getIsoDep(), isoDep)) {
+                session.cancel();
+                sessions.remove(session);
+            }
+        }
+
+        EmrtdSession session = new EmrtdSession(
                 isoDep,
                 options,
                 clientId,
-                webSocketUri,
-                status -> handler.post(() -> statusListener.handle(status)),
-                (int code, String reason, boolean remote) ->
-                        handler.post(() -> closedListener.handle(code, reason, remote)),
-                emrtdPassportListener == null ? null : (passport) ->
-                        handler.post(() -> emrtdPassportListener.handle(passport, null)),
-                e -> {
-                    if (e instanceof NfcException) {
-                        this.nfcException = (Exception) e.getCause();
-                    } else if (e instanceof WebsocketClientException) {
-                        this.webSocketClientException = (Exception) e.getCause();
-                    } else {
-                        this.exception = e;
-                    }
-                    if (emrtdPassportListener != null) {
-                        handler.post(() -> emrtdPassportListener.handle(null, e));
-                    }
-                });
-        sessionCoordinator.start();
+                getEndpoints(options, returnResult),
+                sessionExecutors,
+                callbackExecutor,
+                returnResult,
+                closedListener,
+                statusListener,
+                emrtdPassportListener,
+                localResultListener,
+                progressListener);
+        EmrtdResultCache resultCache = this.resultCache;
+        if (resultCache != null) {
+            String validationId = options.getValidationId();
+            session.getResult().thenAccept(passport -> resultCache.put(validationId, passport));
+        }
+        sessions.add(session);
+        lastSession = session;
+        session.start();
+        return session;
+    }
+
+    /**
+     * Starts a session whose outcome is consumed through its future and event publisher instead
+     * of listeners.
+     * <p>
+     * Example usage:
+     * <pre>{@code
+     *     EmrtdSession session = emrtdConnector.connectAsync(isoDep, options);
+     *     session.getResult()
+     *             .thenCombine(fetchCustomerRecord(), this::match)
+     *             .thenAcceptAsync(this::show, uiExecutor);
+     * }</pre>
+     * The server is always asked to return the result. The listeners passed to the constructor
+     * are not invoked for this session.
+     *
+     * @param isoDep  {@link IsoDep} of an ICAO-9303 NFC Tag.
+     * @param options Options for this read. Can be constructed with the
+     *                {@link ConnectionOptions.Builder}.
+     * @return The started session.
+     * @see EmrtdSession#getResult()
+     * @see EmrtdSession#getEvents()
+     */
+    public EmrtdSession connectAsync(IsoDep isoDep, ConnectionOptions options) {
+        String validationId = options.getValidationId();
+        ChipAccessKey chipAccessKey = options.getChipAccessKey();
+
+        String msg = "`isoDep`, `validationId` or `chipAccessKey` is null";
+        requireNonNull(msg, isoDep, validationId, chipAccessKey);
+
+        return startSession(isoDep, options, true,
+                (code, reason, remote) -> {
+                }, null, null);
     }
 
     /**
-     * Cancels this session as soon as possible.
+     * Cancels all sessions of this connector as soon as possible.
      * <p>
      * The ClosedListener will be called once the WebSocket Session is closed.
      * The Close Reason will be "CANCELLED_BY_USER".
+     *
+     * @see EmrtdSession#cancel()
      */
     public void cancel() {
-        if (sessionCoordinator != null) {
-            sessionCoordinator.cancel();
+        for (EmrtdSession session : sessions) {
+            session.cancel();
         }
+        sessions.clear();
     }
 
     /**
-     * @return true if session is open
+     * @return true if any session of this connector is open
      */
     public boolean isOpen() {
-        return sessionCoordinator != null && sessionCoordinator.isOpen();
+        for (EmrtdSession session : sessions) {
+            if (session.isOpen()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSameTag(IsoDep a, IsoDep b) {
+        if (a == b) {
+            return true;
+        }
+        if (a.getTag() == null || b.getTag() == null) {
+            return false;
+        }
+        return Arrays.equals(a.getTag().getId(), b.getTag().getId());
     }
 
     private static void requireNonNull(String msg, Object... objects) {
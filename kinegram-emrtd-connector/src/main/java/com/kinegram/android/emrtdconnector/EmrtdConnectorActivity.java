@@ -11,11 +11,13 @@ import android.widget.Button;
 import android.widget.TextView;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.ViewModelProvider;
 
 import com.google.android.material.progressindicator.CircularProgressIndicator;
 
 import org.json.JSONException;
 
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.Arrays;
 
@@ -27,7 +29,16 @@ public class EmrtdConnectorActivity extends AppCompatActivity {
     public final static String DOCUMENT_NUMBER = "DOCUMENT_NUMBER";
     public final static String DATE_OF_BIRTH = "DATE_OF_BIRTH";
     public final static String DATE_OF_EXPIRY = "DATE_OF_EXPIRY";
+    /**
+     * If {@code true}, the result is returned as {@link #RETURN_DATA_HANDLE} instead of
+     * {@link #RETURN_DATA}.
+     */
+    public final static String RETURN_HANDLE = "RETURN_HANDLE";
     public final static String RETURN_DATA = "DATA";
+    /**
+     * Handle of the result, to be read with {@link EmrtdResultHandle#read}.
+     */
+    public final static String RETURN_DATA_HANDLE = "DATA_HANDLE";
     public final static String RETURN_ERROR = "ERROR";
 
     private final static String TECH_ISO_DEP = "android.nfc.tech.IsoDep";
@@ -45,29 +56,30 @@ public class EmrtdConnectorActivity extends AppCompatActivity {
             return;
         }
 
-        String json;
+        if (this.returnHandle) {
+            returnHandle(emrtdPassport);
+            return;
+        }
+        Intent intent = new Intent();
         try {
-            json = emrtdPassport.toJSON().toString();
+            intent.putExtra(RETURN_DATA, emrtdPassport.toJSON().toString());
         } catch (JSONException e) {
             returnError(e.getLocalizedMessage());
             return;
         }
-
-        Intent intent = new Intent();
-        intent.putExtra(RETURN_DATA, json);
         setResult(Activity.RESULT_OK, intent);
         finish();
     };
 
-    private EmrtdConnector emrtdConnector;
+    private EmrtdSessionHost sessionHost;
     private NfcAdapter nfcAdapter;
-    private boolean nfcChipConnected;
 
     private String validationId;
     private String can;
     private String documentNumber;
     private String dateOfBirth;
     private String dateOfExpiry;
+    private boolean returnHandle;
 
     private TextView statusTextView;
     private CircularProgressIndicator progressIndicator;
@@ -101,22 +113,33 @@ public class EmrtdConnectorActivity extends AppCompatActivity {
         documentNumber = intent.getStringExtra(DOCUMENT_NUMBER);
         dateOfBirth = intent.getStringExtra(DATE_OF_BIRTH);
         dateOfExpiry = intent.getStringExtra(DATE_OF_EXPIRY);
+        returnHandle = intent.getBooleanExtra(RETURN_HANDLE, false);
 
         Button cancelButton = findViewById(R.id.cancel_button);
         cancelButton.setOnClickListener(v -> finish());
 
         nfcAdapter = NfcAdapter.getDefaultAdapter(this);
 
+        // The session keeps running if the activity is recreated, e.g. after a rotation
+        sessionHost = new ViewModelProvider(this).get(EmrtdSessionHost.class);
         try {
-            emrtdConnector = new EmrtdConnector(
-                    clientId,
-                    validationUri,
-                    closedListener,
-                    statusListener,
-                    passportListener);
+            sessionHost.getConnector(clientId, validationUri);
         } catch (URISyntaxException e) {
             statusTextView.setText(e.getLocalizedMessage());
+            return;
+        }
+        if (sessionHost.isSessionRunning()) {
+            progressIndicator.setVisibility(View.VISIBLE);
+        }
+        sessionHost.attach(closedListener, statusListener, passportListener);
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (sessionHost != null) {
+            sessionHost.detach();
         }
+        super.onDestroy();
     }
 
     @Override
@@ -127,19 +150,16 @@ public class EmrtdConnectorActivity extends AppCompatActivity {
             return;
         }
 
+        NfcLinkProfile linkProfile = NfcLinkProfiles.getInstance(this).getActiveProfile();
         Bundle options = new Bundle();
-        options.putInt(NfcAdapter.EXTRA_READER_PRESENCE_CHECK_DELAY, 50);
+        options.putInt(NfcAdapter.EXTRA_READER_PRESENCE_CHECK_DELAY,
+                linkProfile.getPresenceCheckDelayMillis());
         nfcAdapter.enableReaderMode(
                 this,
                 tag -> {
                     runOnUiThread(() -> handleTag(tag));
                 },
-                NfcAdapter.FLAG_READER_NFC_A |
-                        NfcAdapter.FLAG_READER_NFC_B |
-                        NfcAdapter.FLAG_READER_NFC_F |
-                        NfcAdapter.FLAG_READER_NFC_V |
-                        NfcAdapter.FLAG_READER_SKIP_NDEF_CHECK |
-                        NfcAdapter.FLAG_READER_NO_PLATFORM_SOUNDS,
+                linkProfile.getReaderFlags(),
                 options
         );
     }
@@ -158,13 +178,16 @@ public class EmrtdConnectorActivity extends AppCompatActivity {
             return;
         }
 
-        if (nfcChipConnected) {
+        if (sessionHost.getConnector() == null) {
+            return;
+        }
+
+        if (sessionHost.getSession() != null) {
             statusTextView.setText(getString(R.string.already_connected));
             return;
         }
 
         IsoDep isoDep = IsoDep.get(tag);
-        nfcChipConnected = true;
 
         ChipAccessKey chipAccessKey;
         if (can != null && !can.isEmpty()) {
@@ -177,16 +200,40 @@ public class EmrtdConnectorActivity extends AppCompatActivity {
         ConnectionOptions options = new ConnectionOptions.Builder()
                 .setChipAccessKey(chipAccessKey)
                 .setValidationId(validationId)
+                .setNfcLinkProfiles(NfcLinkProfiles.getInstance(this))
+                .setChipCapabilityCache(ChipCapabilityCache.getInstance(this))
                 .build();
 
         progressIndicator.setVisibility(View.VISIBLE);
         try {
-            emrtdConnector.connect(isoDep, options);
+            sessionHost.connect(isoDep, options);
         } catch (Exception e) {
             returnError(e.getLocalizedMessage());
         }
     }
 
+    /**
+     * Writes the result on a background thread, the Keystore and the file system are too slow
+     * for the main thread.
+     */
+    private void returnHandle(EmrtdPassport emrtdPassport) {
+        new Thread(() -> {
+            String handle;
+            try {
+                handle = EmrtdResultHandle.write(getApplicationContext(), emrtdPassport);
+            } catch (JSONException | IOException e) {
+                runOnUiThread(() -> returnError(e.getLocalizedMessage()));
+                return;
+            }
+            runOnUiThread(() -> {
+                Intent intent = new Intent();
+                intent.putExtra(RETURN_DATA_HANDLE, handle);
+                setResult(Activity.RESULT_OK, intent);
+                finish();
+            });
+        }, "EmrtdResultHandle").start();
+    }
+
     private void returnError(String message) {
         Intent intent = new Intent();
         intent.putExtra(RETURN_ERROR, message);
@@ -11,4 +11,18 @@ public interface EmrtdPassportListener {
      * @param exception     non null if an Exception occurred while parsing server message
      */
     void handle(EmrtdPassport emrtdPassport, Exception exception);
+
+    /**
+     * Called with the parts of the result as they arrive, if partial results are enabled with
+     * {@link ConnectionOptions.Builder#setPartialResult(boolean)}.
+     * <p>
+     * The first call contains the MRZ, the SOD info and the results of the passive, active and
+     * chip authentication. Every further call adds large fields like the face photo. Fields that
+     * did not arrive yet are {@code null}. The complete result is always passed to
+     * {@link #handle(EmrtdPassport, Exception)} at the end.
+     *
+     * @param partialPassport The result received so far.
+     */
+    default void handlePartial(EmrtdPassport partialPassport) {
+    }
 }
@@ -0,0 +1,497 @@
+package com.kinegram.android.emrtdconnector;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kinegram.android.emrtdconnector.internal.KeystoreKeys;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Keeps the results of completed sessions on the device, so a result can be shown again without
+ * reading the document, e.g. after the activity was recreated or the process was killed.
+ * <p>
+ * Results are stored by their validation id, encrypted with a key of the Android Keystore that
+ * cannot be exported from the device. The least recently used results are removed when the
+ * cache exceeds its limits, and results older than the time to live are not returned anymore.
+ * The most recently used results are also kept in memory; they are released when the system
+ * asks the app to trim its memory.
+ * <p>
+ * The cache is opt-in. Pass it to {@link EmrtdConnector#setResultCache(EmrtdResultCache)} to
+ * store the result of every session, and fetch it with {@link #get(String)}:
+ * <pre>{@code
+ *     EmrtdResultCache cache = new EmrtdResultCache.Builder(context).build();
+ *     emrtdConnector.setResultCache(cache);
+ *     ...
+ *     EmrtdPassport passport = cache.get(validationId);
+ *     if (passport == null) {
+ *         // Not read yet, or expired: read the document
+ *     }
+ * }</pre>
+ * Create only one cache per directory.
+ */
+public class EmrtdResultCache implements ComponentCallbacks2 {
+    private static final String TAG = "EmrtdResultCache";
+    private static final String KEY_ALIAS = "com.kinegram.android.emrtdconnector.result_cache";
+    private static final String SUFFIX = ".bin";
+
+    /**
+     * Default for {@link Builder#setMaxEntries(int)}.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+
+    /**
+     * Default for {@link Builder#setMaxBytes(long)}.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Default for {@link Builder#setTimeToLive(long)}.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE_MS = 60 * 60 * 1000;
+
+    /**
+     * Default for {@link Builder#setMemoryEntries(int)}.
+     */
+    public static final int DEFAULT_MEMORY_ENTRIES = 2;
+
+    private final Context context;
+    private final File directory;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long timeToLiveMillis;
+    private final int memoryEntries;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "emrtd-result-cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Access order, so the first entry is the least recently used one
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+
+    private EmrtdResultCache(Builder builder) {
+        this.context = builder.context;
+        this.directory = builder.directory != null
+                ? builder.directory
+                : new File(context.getNoBackupFilesDir(), "emrtd-result-cache");
+        this.maxEntries = builder.maxEntries;
+        this.maxBytes = builder.maxBytes;
+        this.timeToLiveMillis = builder.timeToLiveMillis;
+        this.memoryEntries = builder.memoryEntries;
+        context.registerComponentCallbacks(this);
+    }
+
+    /**
+     * Gets a stored result. Reads and decrypts the result if it is not in memory, so it should
+     * not be called on the main thread.
+     *
+     * @param validationId The validation id of the session.
+     * @return The result, or {@code null} if there is none or it expired.
+     */
+    @Nullable
+    public synchronized EmrtdPassport get(@NonNull String validationId) {
+        String name = fileName(validationId);
+        long now = System.currentTimeMillis();
+        Entry entry = memory.get(name);
+        if (entry != null && isExpired(entry.createdMillis, now)) {
+            remove(validationId);
+            return null;
+        }
+        File file = new File(directory, name);
+        if (entry == null) {
+            try {
+                entry = read(file, validationId);
+            } catch (IOException | GeneralSecurityException | JSONException e) {
+                Log.w(TAG, "Failed to read cached result", e);
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                return null;
+            }
+            if (entry == null) {
+                return null;
+            }
+            if (isExpired(entry.createdMillis, now)) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                return null;
+            }
+            remember(name, entry);
+        }
+        // The modification time orders the files for the eviction
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(now);
+        return entry.passport;
+    }
+
+    /**
+     * Stores a result, replacing any result with the same validation id. The result is written
+     * on a background thread.
+     *
+     * @param validationId  The validation id of the session.
+     * @param emrtdPassport The result.
+     */
+    public synchronized void put(@NonNull String validationId, @NonNull EmrtdPassport emrtdPassport) {
+        String name = fileName(validationId);
+        Entry entry = new Entry(emrtdPassport, System.currentTimeMillis());
+        remember(name, entry);
+        writer.execute(() -> {
+            try {
+                write(new File(directory, name), validationId, entry);
+            } catch (IOException | GeneralSecurityException | JSONException e) {
+                Log.w(TAG, "Failed to store result", e);
+            }
+        });
+    }
+
+    /**
+     * Removes a stored result.
+     *
+     * @param validationId The validation id of the session.
+     */
+    public synchronized void remove(@NonNull String validationId) {
+        String name = fileName(validationId);
+        memory.remove(name);
+        writer.execute(() -> {
+            //noinspection ResultOfMethodCallIgnored
+            new File(directory, name).delete();
+        });
+    }
+
+    /**
+     * Removes all stored results.
+     */
+    public synchronized void clear() {
+        memory.clear();
+        writer.execute(() -> {
+            for (File file : listFiles()) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        });
+    }
+
+    /**
+     * Releases the results kept in memory, stored results stay available.
+     */
+    public synchronized void evictMemory() {
+        memory.clear();
+    }
+
+    /**
+     * Stops listening for memory events. The stored results are kept.
+     */
+    public void close() {
+        context.unregisterComponentCallbacks(this);
+        writer.shutdown();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            evictMemory();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (this) {
+                trimMemory(memory.size() / 2);
+            }
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        evictMemory();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    private boolean isExpired(long createdMillis, long now) {
+        return now - createdMillis > timeToLiveMillis || createdMillis > now;
+    }
+
+    private void remember(String name, Entry entry) {
+        memory.put(name, entry);
+        trimMemory(memoryEntries);
+    }
+
+    private void trimMemory(int size) {
+        Iterator<Map.Entry<String, Entry>> iterator = memory.entrySet().iterator();
+        while (memory.size() > size && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    // File format: created time (8 bytes), IV length (1 byte), IV, encrypted JSON of the result.
+    // The validation id and the created time are authenticated, so files cannot be exchanged.
+
+    private Entry read(File file, String validationId)
+            throws IOException, GeneralSecurityException, JSONException {
+        if (!file.isFile()) {
+            return null;
+        }
+        byte[] encrypted;
+        long createdMillis;
+        byte[] iv;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            createdMillis = in.readLong();
+            iv = new byte[in.readUnsignedByte()];
+            in.readFully(iv);
+            encrypted = new byte[(int) file.length() - 9 - iv.length];
+            in.readFully(encrypted);
+        }
+        Cipher cipher = Cipher.getInstance(KeystoreKeys.TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, KeystoreKeys.getOrCreate(KEY_ALIAS),
+                new GCMParameterSpec(KeystoreKeys.TAG_LENGTH_BITS, iv));
+        cipher.updateAAD(associatedData(validationId, createdMillis));
+        String json = new String(cipher.doFinal(encrypted), StandardCharsets.UTF_8);
+        return new Entry(new EmrtdPassport(new JSONObject(json)), createdMillis);
+    }
+
+    private void write(File file, String validationId, Entry entry)
+            throws IOException, GeneralSecurityException, JSONException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        byte[] json = entry.passport.toJSON().toString().getBytes(StandardCharsets.UTF_8);
+        Cipher cipher = Cipher.getInstance(KeystoreKeys.TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, KeystoreKeys.getOrCreate(KEY_ALIAS));
+        cipher.updateAAD(associatedData(validationId, entry.createdMillis));
+        byte[] encrypted = cipher.doFinal(json);
+        byte[] iv = cipher.getIV();
+
+        File temporary = new File(directory, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temporary))) {
+            out.writeLong(entry.createdMillis);
+            out.writeByte(iv.length);
+            out.write(iv);
+            out.write(encrypted);
+        }
+        if (!temporary.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+            throw new IOException("Cannot write " + file);
+        }
+        evictFiles(file);
+    }
+
+    /**
+     * Deletes expired files, then the least recently used ones until the cache is within its
+     * limits.
+     */
+    private void evictFiles(File keep) {
+        long now = System.currentTimeMillis();
+        List<File> files = new ArrayList<>();
+        for (File file : listFiles()) {
+            if (!file.equals(keep) && now - file.lastModified() > timeToLiveMillis) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            } else {
+                files.add(file);
+            }
+        }
+        File[] byAge = files.toArray(new File[0]);
+        Arrays.sort(byAge, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        long bytes = 0;
+        for (File file : byAge) {
+            bytes += file.length();
+        }
+        int count = byAge.length;
+        for (File file : byAge) {
+            if (count <= maxEntries && bytes <= maxBytes) {
+                break;
+            }
+            if (file.equals(keep)) {
+                continue;
+            }
+            bytes -= file.length();
+            count--;
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            synchronized (this) {
+                memory.remove(file.getName());
+            }
+        }
+    }
+
+    private List<File> listFiles() {
+        List<File> result = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(SUFFIX)) {
+                    result.add(file);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static byte[] associatedData(String validationId, long createdMillis) {
+        byte[] id = validationId.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(8 + id.length).putLong(createdMillis).put(id).array();
+    }
+
+    /**
+     * The validation id is not stored in plain text, the name of the file is its hash.
+     */
+    private static String fileName(String validationId) {
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256")
+                    .digest(validationId.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder sb = new StringBuilder(hash.length * 2 + SUFFIX.length());
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.append(SUFFIX).toString();
+    }
+
+    private static class Entry {
+        final EmrtdPassport passport;
+        final long createdMillis;
+
+        Entry(EmrtdPassport passport, long createdMillis) {
+            this.passport = passport;
+            this.createdMillis = createdMillis;
+        }
+    }
+
+    public static class Builder {
+        private final Context context;
+        private File directory;
+        private int maxEntries = DEFAULT_MAX_ENTRIES;
+        private long maxBytes = DEFAULT_MAX_BYTES;
+        private long timeToLiveMillis = DEFAULT_TIME_TO_LIVE_MS;
+        private int memoryEntries = DEFAULT_MEMORY_ENTRIES;
+
+        /**
+         * @param context Any context, the application context is used.
+         */
+        public Builder(@NonNull Context context) {
+            this.context = context.getApplicationContext();
+        }
+
+        /**
+         * Sets the directory for the stored results. Must be private to the app.
+         * <p>
+         * Defaults to a directory in {@link Context#getNoBackupFilesDir()}, so the results are
+         * not included in backups, where they could not be decrypted anyway.
+         *
+         * @param directory The directory.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setDirectory(File directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of stored results.
+         * <p>
+         * Defaults to {@link #DEFAULT_MAX_ENTRIES}.
+         *
+         * @param maxEntries The maximum number of results.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setMaxEntries(int maxEntries) {
+            if (maxEntries <= 0) {
+                throw new IllegalArgumentException("maxEntries must be positive");
+            }
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of all stored results. The most recent result is always kept,
+         * even if it alone exceeds the limit.
+         * <p>
+         * Defaults to {@link #DEFAULT_MAX_BYTES}.
+         *
+         * @param maxBytes The maximum size in bytes.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setMaxBytes(long maxBytes) {
+            if (maxBytes <= 0) {
+                throw new IllegalArgumentException("maxBytes must be positive");
+            }
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Sets how long a result is returned after it was stored.
+         * <p>
+         * Defaults to {@link #DEFAULT_TIME_TO_LIVE_MS}.
+         *
+         * @param timeToLiveMillis The time to live in milliseconds.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setTimeToLive(long timeToLiveMillis) {
+            if (timeToLiveMillis <= 0) {
+                throw new IllegalArgumentException("timeToLiveMillis must be positive");
+            }
+            this.timeToLiveMillis = timeToLiveMillis;
+            return this;
+        }
+
+        /**
+         * Sets how many of the most recently used results are kept in memory, 0 to always read
+         * them from the disk.
+         * <p>
+         * Defaults to {@link #DEFAULT_MEMORY_ENTRIES}.
+         *
+         * @param memoryEntries The number of results.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setMemoryEntries(int memoryEntries) {
+            if (memoryEntries < 0) {
+                throw new IllegalArgumentException("memoryEntries must not be negative");
+            }
+            this.memoryEntries = memoryEntries;
+            return this;
+        }
+
+        /**
+         * Build the result cache. It registers itself for memory events of the app.
+         *
+         * @return The result cache.
+         */
+        public EmrtdResultCache build() {
+            return new EmrtdResultCache(this);
+        }
+    }
+}
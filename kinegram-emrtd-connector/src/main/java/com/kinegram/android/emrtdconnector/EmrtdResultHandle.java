@@ -0,0 +1,168 @@
+package com.kinegram.android.emrtdconnector;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.kinegram.android.emrtdconnector.internal.KeystoreKeys;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Hands an {@link EmrtdPassport} over to another component of the app without putting it into
+ * an {@link android.content.Intent}.
+ * <p>
+ * A result with photos and raw files can be several hundred kilobytes. As an Intent extra it is
+ * copied through the Binder for every hop, and can exceed the limit of the transaction buffer.
+ * Instead, the result is written once to a private file of the app and only its handle, a short
+ * string, is passed on. The file is encrypted with a key of the Android Keystore, like the
+ * files of {@link EmrtdResultCache}, and is excluded from backups.
+ * <p>
+ * A handle stays valid until it is {@link #release(Context, String) released}, so the receiving
+ * activity can read it again after it was recreated. Handles that were never released are
+ * deleted by {@link #write(Context, EmrtdPassport)} after an hour. The receiving side must
+ * therefore expect a handle to be gone, e.g. when the app is restored long after its process
+ * was killed.
+ * <p>
+ * All methods access the file system and the Keystore; call them from a background thread.
+ */
+public class EmrtdResultHandle {
+    private static final String DIRECTORY = "emrtd-results";
+    private static final String SUFFIX = ".bin";
+    private static final String KEY_ALIAS = "com.kinegram.android.emrtdconnector.result_handle";
+    private static final long MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private EmrtdResultHandle() {
+    }
+
+    /**
+     * Writes the result to a private file.
+     *
+     * @return The handle to pass on.
+     */
+    @NonNull
+    @WorkerThread
+    public static String write(@NonNull Context context, @NonNull EmrtdPassport emrtdPassport)
+            throws IOException, JSONException {
+        File directory = directory(context);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        deleteExpired(directory);
+        String handle = UUID.randomUUID().toString();
+        byte[] json = emrtdPassport.toJSON().toString().getBytes(StandardCharsets.UTF_8);
+        byte[] encrypted;
+        byte[] iv;
+        try {
+            Cipher cipher = Cipher.getInstance(KeystoreKeys.TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, KeystoreKeys.getOrCreate(KEY_ALIAS));
+            cipher.updateAAD(handle.getBytes(StandardCharsets.UTF_8));
+            encrypted = cipher.doFinal(json);
+            iv = cipher.getIV();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to encrypt result", e);
+        }
+        File file = file(context, handle);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeByte(iv.length);
+            out.write(iv);
+            out.write(encrypted);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            throw e;
+        }
+        return handle;
+    }
+
+    /**
+     * Reads a result written by {@link #write(Context, EmrtdPassport)}.
+     *
+     * @throws FileNotFoundException If there is no result for the handle, e.g. it was released
+     *                               or has expired.
+     * @throws IOException           If the result cannot be decrypted.
+     */
+    @NonNull
+    @WorkerThread
+    public static EmrtdPassport read(@NonNull Context context, @NonNull String handle)
+            throws IOException, JSONException {
+        File file = file(context, handle);
+        byte[] iv;
+        byte[] encrypted;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            iv = new byte[in.readUnsignedByte()];
+            in.readFully(iv);
+            encrypted = new byte[(int) file.length() - 1 - iv.length];
+            in.readFully(encrypted);
+        }
+        byte[] json;
+        try {
+            Cipher cipher = Cipher.getInstance(KeystoreKeys.TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, KeystoreKeys.getOrCreate(KEY_ALIAS),
+                    new GCMParameterSpec(KeystoreKeys.TAG_LENGTH_BITS, iv));
+            cipher.updateAAD(handle.getBytes(StandardCharsets.UTF_8));
+            json = cipher.doFinal(encrypted);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to decrypt result", e);
+        }
+        return new EmrtdPassport(new JSONObject(new String(json, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Deletes the result. Does nothing if it was deleted already.
+     */
+    @WorkerThread
+    public static void release(@NonNull Context context, @NonNull String handle) {
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            file(context, handle).delete();
+        } catch (IOException ignored) {
+            // Not a handle, so there is nothing to delete
+        }
+    }
+
+    private static File directory(Context context) {
+        return new File(context.getNoBackupFilesDir(), DIRECTORY);
+    }
+
+    private static File file(Context context, String handle) throws IOException {
+        // Handles may come from an Intent, so they must not point outside the directory
+        try {
+            UUID.fromString(handle);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid handle: " + handle, e);
+        }
+        return new File(directory(context), handle + SUFFIX);
+    }
+
+    private static void deleteExpired(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long oldest = System.currentTimeMillis() - MAX_AGE_MILLIS;
+        for (File file : files) {
+            if (file.lastModified() < oldest) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.kinegram.android.emrtdconnector;
+
+import android.nfc.tech.IsoDep;
+
+import com.kinegram.android.emrtdconnector.internal.CallbackDispatcher;
+import com.kinegram.android.emrtdconnector.internal.SessionExecutors;
+import com.kinegram.android.emrtdconnector.internal.protocol.WebsocketSessionCoordinator;
+import com.kinegram.android.emrtdconnector.internal.protocol.exception.NfcException;
+import com.kinegram.android.emrtdconnector.internal.protocol.exception.WebsocketClientException;
+
+import org.java_websocket.client.WebSocketClient;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A single eMRTD read, started with {@link EmrtdConnector#connect(IsoDep, ConnectionOptions)}.
+ * <p>
+ * Every session has its own state, exceptions and listeners, so one {@link EmrtdConnector} can
+ * read several documents on different {@link IsoDep}s at the same time.
+ * <p>
+ * Besides the listeners, the outcome of a session is available as a {@link CompletableFuture}
+ * ({@link #getResult()}) and its events through a {@link SessionEventPublisher}
+ * ({@link #getEvents()}). Neither of them involves the main thread.
+ */
+public class EmrtdSession {
+    /**
+     * The state of a session.
+     */
+    public enum State {
+        /**
+         * Connecting to the DocVal server and waiting for it to accept the session.
+         */
+        CONNECTING,
+        /**
+         * Reading the chip.
+         */
+        READING,
+        /**
+         * The chip was read completely, waiting for the server to finish.
+         */
+        FINISHED,
+        /**
+         * The session is closed.
+         */
+        CLOSED
+    }
+
+    private final IsoDep isoDep;
+    private final ClosedListener closedListener;
+    private final StatusListener statusListener;
+    private final EmrtdPassportListener emrtdPassportListener;
+    private final WebsocketSessionCoordinator sessionCoordinator;
+    private final CompletableFuture<EmrtdPassport> result = new CompletableFuture<>();
+    private final SessionEventPublisher events = new SessionEventPublisher();
+
+    private volatile Exception nfcException;
+    private volatile Exception webSocketClientException;
+    private volatile Exception exception;
+
+    EmrtdSession(
+            IsoDep isoDep,
+            ConnectionOptions options,
+            String clientId,
+            List<URI> endpoints,
+            SessionExecutors executors,
+            Executor callbackExecutor,
+            boolean returnResult,
+            ClosedListener closedListener,
+            StatusListener statusListener,
+            EmrtdPassportListener emrtdPassportListener,
+            LocalResultListener localResultListener,
+            ProgressListener progressListener
+    ) {
+        this.isoDep = isoDep;
+        this.closedListener = closedListener;
+        this.statusListener = statusListener;
+        this.emrtdPassportListener = emrtdPassportListener;
+
+        CallbackDispatcher dispatcher = new CallbackDispatcher(callbackExecutor);
+        sessionCoordinator = new WebsocketSessionCoordinator(
+                isoDep,
+                options,
+                clientId,
+                endpoints,
+                executors,
+                status -> {
+                    events.publishStatus(status);
+                    if (statusListener != null) {
+                        dispatcher.dispatchStatus(statusListener::handle, status);
+                    }
+                },
+                (int code, String reason, boolean remote) -> {
+                    result.completeExceptionally(new SessionClosedException(code, reason, remote));
+                    events.publishClosed(code, reason, remote);
+                    dispatcher.dispatchTerminal(() -> closedListener.handle(code, reason, remote));
+                },
+                !returnResult ? null : (passport) -> {
+                    result.complete(passport);
+                    if (emrtdPassportListener != null) {
+                        dispatcher.dispatchTerminal(
+                                () -> emrtdPassportListener.handle(passport, null));
+                    }
+                },
+                emrtdPassportListener == null ? null : (passport) -> dispatcher.dispatchEvent(
+                        () -> emrtdPassportListener.handlePartial(passport)),
+                localResultListener == null ? null : (localResult) -> dispatcher.dispatchEvent(
+                        () -> localResultListener.handle(localResult)),
+                progress -> {
+                    events.publishProgress(progress);
+                    if (progressListener != null) {
+                        dispatcher.dispatchProgress(progressListener::handle, progress);
+                    }
+                },
+                e -> {
+                    result.completeExceptionally(e);
+                    if (e instanceof NfcException) {
+                        this.nfcException = (Exception) e.getCause();
+                    } else if (e instanceof WebsocketClientException) {
+                        this.webSocketClientException = (Exception) e.getCause();
+                    } else {
+                        this.exception = e;
+                    }
+                    if (emrtdPassportListener != null) {
+                        dispatcher.dispatchTerminal(() -> emrtdPassportListener.handle(null, e));
+                    }
+                });
+    }
+
+    void start() {
+        sessionCoordinator.start();
+    }
+
+    /**
+     * Gets the result of this session.
+     * <p>
+     * The future completes with the {@link EmrtdPassport} sent by the server, or exceptionally
+     * with the exception that ended the session. If the session was closed without a result (for
+     * example because it was cancelled, or because no result was requested), it completes
+     * exceptionally with a {@link SessionClosedException}.
+     * <p>
+     * The future is completed on an internal thread. Use the {@code *Async} methods of
+     * {@link CompletableFuture} to continue on an executor of your choice. Cancelling the future
+     * does not cancel the session, use {@link #cancel()} for that.
+     *
+     * @return The future result.
+     */
+    public CompletableFuture<EmrtdPassport> getResult() {
+        return result;
+    }
+
+    /**
+     * Gets the publisher for the status, progress and close events of this session.
+     *
+     * @return The event publisher.
+     */
+    public SessionEventPublisher getEvents() {
+        return events;
+    }
+
+    /**
+     * Cancels this session as soon as possible.
+     * <p>
+     * The ClosedListener will be called once the WebSocket Session is closed.
+     * The Close Reason will be "CANCELLED_BY_USER".
+     */
+    public void cancel() {
+        sessionCoordinator.cancel();
+    }
+
+    /**
+     * @return true if the WebSocket connection of this session is open
+     */
+    public boolean isOpen() {
+        return sessionCoordinator.isOpen();
+    }
+
+    /**
+     * Gets the current state of this session.
+     *
+     * @return The state.
+     */
+    public State getState() {
+        switch (sessionCoordinator.getState()) {
+            case INIT:
+            case WAITING_FOR_ACCEPT:
+                return State.CONNECTING;
+            case READING_CHIP:
+            case WAITING_FOR_CA_HANDBACK:
+                return State.READING;
+            case FINISHED:
+                return State.FINISHED;
+            default:
+                return State.CLOSED;
+        }
+    }
+
+    /**
+     * Gets the smoothed round trip time to the DocVal server, measured with WebSocket pings.
+     *
+     * @return The round trip time in milliseconds, or -1 if it was not measured yet.
+     */
+    public long getRoundTripTimeMillis() {
+        return sessionCoordinator.getRttEstimator().getSmoothedRttMillis();
+    }
+
+    /**
+     * Gets the estimated progress of this session.
+     *
+     * @return The latest progress, or {@code null} if it was not estimated yet.
+     */
+    public ReadProgress getProgress() {
+        return sessionCoordinator.getProgressEngine().getProgress();
+    }
+
+    /**
+     * Gets the latencies of the APDUs exchanged with the chip so far, both those of the reader on
+     * this device and those relayed from the server.
+     *
+     * @return A snapshot of the latencies.
+     */
+    public ApduProfile getApduProfile() {
+        return sessionCoordinator.getApduProfiler().snapshot();
+    }
+
+    /**
+     * Gets the {@link IsoDep} this session reads.
+     *
+     * @return The IsoDep.
+     */
+    public IsoDep getIsoDep() {
+        return isoDep;
+    }
+
+    /**
+     * Get the exception that occurred during the {@link WebSocketClient} operations.
+     **/
+    public Exception getWebSocketClientException() {
+        return webSocketClientException;
+    }
+
+    /**
+     * Gets the exception that occurred during {@link IsoDep#connect() IsoDep#connect()} or
+     * {@link IsoDep#transceive(byte[]) IsoDep#transceive(byte[])}.
+     *
+     * <p>Value may be queried if close reason is
+     * {@link ClosedListener#NFC_CHIP_COMMUNICATION_FAILED}. In all other cases this value will be
+     * {@code null}.
+     */
+    public Exception getNfcException() {
+        return nfcException;
+    }
+
+    /**
+     * Gets any other exception that occurred during the session and not fit the
+     * {@link #getNfcException()} and {@link #getWebSocketClientException()}.
+     */
+    public Exception getException() {
+        return exception;
+    }
+
+    /**
+     * @return The listener that is called when this session is closed.
+     */
+    public ClosedListener getClosedListener() {
+        return closedListener;
+    }
+
+    /**
+     * @return The listener for status updates of this session. May be {@code null}.
+     */
+    public StatusListener getStatusListener() {
+        return statusListener;
+    }
+
+    /**
+     * @return The listener for the result of this session. May be {@code null}.
+     */
+    public EmrtdPassportListener getEmrtdPassportListener() {
+        return emrtdPassportListener;
+    }
+}
@@ -0,0 +1,205 @@
+package com.kinegram.android.emrtdconnector;
+
+import android.nfc.tech.IsoDep;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.ViewModel;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps an {@link EmrtdConnector} and its session alive while the activity is recreated, e.g.
+ * when the device is rotated during the read.
+ * <p>
+ * Without it, a configuration change destroys the activity together with its connector, which
+ * closes the WebSocket connection and the document has to be read again. The host is a
+ * {@link ViewModel}, so it outlives the activity until the activity is finished. Every new
+ * instance of the activity attaches its listeners; events that occur while no activity is
+ * attached are delivered when the next one attaches.
+ * <p>
+ * Example usage:
+ * <pre>{@code
+ *     protected void onCreate(Bundle savedInstanceState) {
+ *         super.onCreate(savedInstanceState);
+ *         host = new ViewModelProvider(this).get(EmrtdSessionHost.class);
+ *         host.attach(closedListener, statusListener, emrtdPassportListener);
+ *         emrtdConnector = host.getConnector(clientId, webSocketUrl);
+ *     }
+ *
+ *     protected void onDestroy() {
+ *         host.detach();
+ *         super.onDestroy();
+ *     }
+ * }</pre>
+ * The running session is cancelled when the activity finishes. The connector must keep invoking
+ * its listeners on the main thread, which is the default.
+ */
+public class EmrtdSessionHost extends ViewModel {
+    private final List<Runnable> pendingEvents = new ArrayList<>();
+
+    private EmrtdConnector connector;
+    private EmrtdSession session;
+    private boolean attached;
+    private String pendingStatus;
+    private ClosedListener closedListener;
+    private StatusListener statusListener;
+    private EmrtdPassportListener emrtdPassportListener;
+
+    /**
+     * Gets the connector of this host. It is created by the first call, later calls return the
+     * same connector, regardless of their arguments.
+     *
+     * @param clientId     Client Id
+     * @param webSocketUrl Url of the WebSocket endpoint
+     * @return The connector.
+     * @throws URISyntaxException If the WebSocketUrl is an invalid string.
+     */
+    @MainThread
+    @NonNull
+    public EmrtdConnector getConnector(String clientId, String webSocketUrl)
+            throws URISyntaxException {
+        if (connector == null) {
+            connector = new EmrtdConnector(
+                    clientId,
+                    webSocketUrl,
+                    (code, reason, remote) ->
+                            deliver(() -> closedListener.handle(code, reason, remote)),
+                    this::deliverStatus,
+                    new EmrtdPassportListener() {
+                        @Override
+                        public void handle(EmrtdPassport emrtdPassport, Exception exception) {
+                            deliver(() -> {
+                                if (emrtdPassportListener != null) {
+                                    emrtdPassportListener.handle(emrtdPassport, exception);
+                                }
+                            });
+                        }
+
+                        @Override
+                        public void handlePartial(EmrtdPassport emrtdPassport) {
+                            deliver(() -> {
+                                if (emrtdPassportListener != null) {
+                                    emrtdPassportListener.handlePartial(emrtdPassport);
+                                }
+                            });
+                        }
+                    });
+        }
+        return connector;
+    }
+
+    /**
+     * @return The connector, or {@code null} if it was not created yet.
+     */
+    @MainThread
+    @Nullable
+    public EmrtdConnector getConnector() {
+        return connector;
+    }
+
+    /**
+     * Starts a session on the connector of this host.
+     *
+     * @see EmrtdConnector#connectSession(IsoDep, ConnectionOptions)
+     */
+    @MainThread
+    public EmrtdSession connect(IsoDep isoDep, ConnectionOptions options) {
+        if (connector == null) {
+            throw new IllegalStateException("getConnector must be called first");
+        }
+        session = connector.connectSession(isoDep, options);
+        return session;
+    }
+
+    /**
+     * @return The most recently started session, or {@code null} if none was started yet.
+     */
+    @MainThread
+    @Nullable
+    public EmrtdSession getSession() {
+        return session;
+    }
+
+    /**
+     * @return true if a session was started and is not closed yet
+     */
+    @MainThread
+    public boolean isSessionRunning() {
+        return session != null && session.getState() != EmrtdSession.State.CLOSED;
+    }
+
+    /**
+     * Attaches the listeners of a new activity, and delivers the events that occurred since the
+     * previous activity was detached.
+     *
+     * @param closedListener        will be called when the WebSocket connection is closed.
+     * @param statusListener        will be called on status updates. Can be null.
+     * @param emrtdPassportListener will be called when the Server returns the result. Can be
+     *                              null.
+     */
+    @MainThread
+    public void attach(
+            @NonNull ClosedListener closedListener,
+            @Nullable StatusListener statusListener,
+            @Nullable EmrtdPassportListener emrtdPassportListener
+    ) {
+        this.closedListener = closedListener;
+        this.statusListener = statusListener;
+        this.emrtdPassportListener = emrtdPassportListener;
+        attached = true;
+
+        // Only the latest status is of interest
+        String status = pendingStatus;
+        pendingStatus = null;
+        if (status != null && statusListener != null) {
+            statusListener.handle(status);
+        }
+        List<Runnable> events = new ArrayList<>(pendingEvents);
+        pendingEvents.clear();
+        for (Runnable event : events) {
+            event.run();
+        }
+    }
+
+    /**
+     * Detaches the listeners, e.g. because the activity is destroyed. Events are kept until
+     * listeners are attached again.
+     */
+    @MainThread
+    public void detach() {
+        attached = false;
+        closedListener = null;
+        statusListener = null;
+        emrtdPassportListener = null;
+    }
+
+    private void deliverStatus(String status) {
+        if (attached) {
+            if (statusListener != null) {
+                statusListener.handle(status);
+            }
+        } else {
+            pendingStatus = status;
+        }
+    }
+
+    private void deliver(Runnable event) {
+        if (attached) {
+            event.run();
+        } else {
+            pendingEvents.add(event);
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        if (connector != null) {
+            connector.cancel();
+        }
+        pendingEvents.clear();
+    }
+}
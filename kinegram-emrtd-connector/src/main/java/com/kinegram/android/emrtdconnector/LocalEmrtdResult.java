@@ -0,0 +1,143 @@
+package com.kinegram.android.emrtdconnector;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.jmrtd.lds.icao.DG1File;
+import org.jmrtd.lds.icao.DG2File;
+import org.jmrtd.lds.icao.MRZInfo;
+import org.jmrtd.lds.iso19794.FaceImageInfo;
+import org.jmrtd.lds.iso19794.FaceInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The MRZ and face image as read from the chip on this device, available right after the chip
+ * was read and before the Document Validation Server sent its result.
+ * <p>
+ * <b>This data is not verified.</b> At most, the data groups were checked against the hashes in
+ * the SOD, see {@link #hashVerified}. Whether the SOD was signed by the issuing state, and whether
+ * the chip is genuine, is only known from the {@link EmrtdPassport} sent by the server. Use it to
+ * continue the UI early, but never to make decisions.
+ *
+ * @see EmrtdConnector#setLocalResultListener(LocalResultListener)
+ */
+public class LocalEmrtdResult {
+    @NonNull
+    public final String documentCode;
+    @NonNull
+    public final String issuingState;
+    @NonNull
+    public final String primaryIdentifier;
+    @NonNull
+    public final String[] secondaryIdentifier;
+    @NonNull
+    public final String nationality;
+    @NonNull
+    public final String documentNumber;
+    /**
+     * Date of birth as in the MRZ (YYMMDD).
+     */
+    @NonNull
+    public final String dateOfBirth;
+    /**
+     * Date of expiry as in the MRZ (YYMMDD).
+     */
+    @NonNull
+    public final String dateOfExpiry;
+    @NonNull
+    public final String gender;
+    @Nullable
+    public final String optionalData1;
+    @Nullable
+    public final String optionalData2;
+
+    /**
+     * The encoded face image from DG2 (usually JPEG or JPEG 2000), {@code null} if the chip has
+     * no DG2 or it was not read.
+     */
+    @Nullable
+    public final byte[] faceImage;
+
+    /**
+     * The MIME type of {@link #faceImage}, e.g. "image/jpeg" or "image/jp2".
+     */
+    @Nullable
+    public final String faceImageMimeType;
+
+    /**
+     * {@code true} if DG1 and DG2 (if present) match the hashes in the SOD. {@code false} if a
+     * data group did not match, even after reading it again, or if the hashes could not be
+     * checked, e.g. because the SOD could not be parsed. The server will not accept the document
+     * in the first case.
+     */
+    public final boolean hashVerified;
+
+    /**
+     * Parses the data groups as read from the chip.
+     *
+     * @param dg1          The raw DG1.
+     * @param dg2          The raw DG2, or {@code null}.
+     * @param hashVerified Whether the data groups match the hashes in the SOD.
+     * @throws IOException If a data group cannot be parsed.
+     */
+    public LocalEmrtdResult(@NonNull byte[] dg1, @Nullable byte[] dg2, boolean hashVerified)
+            throws IOException {
+        this.hashVerified = hashVerified;
+        MRZInfo mrzInfo = new DG1File(new ByteArrayInputStream(dg1)).getMRZInfo();
+        documentCode = mrzInfo.getDocumentCode();
+        issuingState = mrzInfo.getIssuingState();
+        primaryIdentifier = mrzInfo.getPrimaryIdentifier();
+        secondaryIdentifier = mrzInfo.getSecondaryIdentifierComponents();
+        nationality = mrzInfo.getNationality();
+        documentNumber = mrzInfo.getDocumentNumber();
+        dateOfBirth = mrzInfo.getDateOfBirth();
+        dateOfExpiry = mrzInfo.getDateOfExpiry();
+        gender = mrzInfo.getGender() != null ? mrzInfo.getGender().name() : "UNSPECIFIED";
+        optionalData1 = mrzInfo.getOptionalData1();
+        optionalData2 = mrzInfo.getOptionalData2();
+
+        FaceImageInfo faceImageInfo = dg2 != null ? firstFaceImage(dg2) : null;
+        if (faceImageInfo != null) {
+            faceImage = new byte[faceImageInfo.getImageLength()];
+            new DataInputStream(faceImageInfo.getImageInputStream()).readFully(faceImage);
+            faceImageMimeType = faceImageInfo.getMimeType();
+        } else {
+            faceImage = null;
+            faceImageMimeType = null;
+        }
+    }
+
+    private static FaceImageInfo firstFaceImage(byte[] dg2) throws IOException {
+        DG2File dg2File = new DG2File(new ByteArrayInputStream(dg2));
+        for (FaceInfo faceInfo : dg2File.getFaceInfos()) {
+            for (FaceImageInfo faceImageInfo : faceInfo.getFaceImageInfos()) {
+                return faceImageInfo;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "LocalEmrtdResult{" +
+                "\n\tdocumentCode='" + documentCode + '\'' +
+                ",\n\tissuingState='" + issuingState + '\'' +
+                ",\n\tprimaryIdentifier='" + primaryIdentifier + '\'' +
+                ",\n\tsecondaryIdentifier=" + Arrays.toString(secondaryIdentifier) +
+                ",\n\tnationality='" + nationality + '\'' +
+                ",\n\tdocumentNumber='" + documentNumber + '\'' +
+                ",\n\tdateOfBirth='" + dateOfBirth + '\'' +
+                ",\n\tdateOfExpiry='" + dateOfExpiry + '\'' +
+                ",\n\tgender='" + gender + '\'' +
+                ",\n\toptionalData1='" + optionalData1 + '\'' +
+                ",\n\toptionalData2='" + optionalData2 + '\'' +
+                ",\n\tfaceImage=" + (faceImage != null ? faceImage.length + " bytes" : null) +
+                ",\n\tfaceImageMimeType='" + faceImageMimeType + '\'' +
+                ",\n\thashVerified=" + hashVerified +
+                "\n}";
+    }
+}
@@ -0,0 +1,15 @@
+package com.kinegram.android.emrtdconnector;
+
+/**
+ * Interface to listen for the {@link LocalEmrtdResult}, the unverified data read from the chip
+ * on this device.
+ */
+public interface LocalResultListener {
+    /**
+     * Called once the chip was read, before the server sent its result. Not called if DG1 was
+     * not read or could not be parsed.
+     *
+     * @param localResult The unverified MRZ and face image.
+     */
+    void handle(LocalEmrtdResult localResult);
+}
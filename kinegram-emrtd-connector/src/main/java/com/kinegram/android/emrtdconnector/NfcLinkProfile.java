@@ -0,0 +1,189 @@
+package com.kinegram.android.emrtdconnector;
+
+import android.nfc.NfcAdapter;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Parameters of the NFC link to the chip, which can be tuned per device.
+ * <p>
+ * Phones differ in how their presence checks interrupt long running APDUs, and in whether
+ * extended length APDUs actually work although they are reported as supported. The profile for
+ * the current device is provided by {@link NfcLinkProfiles}.
+ */
+public class NfcLinkProfile {
+    /**
+     * Default for {@link #getPresenceCheckDelayMillis()}.
+     */
+    public static final int DEFAULT_PRESENCE_CHECK_DELAY_MS = 50;
+
+    /**
+     * Default for {@link #getTimeoutMillis()}.
+     * <p>
+     * Must be high enough to cover PACE operations (GENERAL AUTHENTICATE step 2/3), which can
+     * involve large payloads and non-trivial crypto on the chip.
+     * <p>
+     * ICAO Doc 9303-10 App. B.11 recommends that the PICC keep the total processing time for a
+     * single I-Block <= 5s even when using S(WTX). This is a PICC-side guideline, it is not the
+     * same as the host timeout. The Android IsoDep timeout must exceed the end-to-end APDU round
+     * trip (including any WTX handled by the NFC stack), so we have to use an even higher limit
+     * to have some headroom.
+     */
+    public static final int DEFAULT_TIMEOUT_MS = 10_000;
+
+    /**
+     * Default for {@link #getReaderFlags()}. eMRTDs are ISO 14443 Type A or B cards, so other
+     * technologies are not polled for.
+     */
+    public static final int DEFAULT_READER_FLAGS = NfcAdapter.FLAG_READER_NFC_A |
+            NfcAdapter.FLAG_READER_NFC_B |
+            NfcAdapter.FLAG_READER_SKIP_NDEF_CHECK |
+            NfcAdapter.FLAG_READER_NO_PLATFORM_SOUNDS;
+
+    /**
+     * The profile that is used if no other profile is known for a device.
+     */
+    public static final NfcLinkProfile DEFAULT = new Builder().build();
+
+    private final int presenceCheckDelayMillis;
+    private final int readerFlags;
+    private final int timeoutMillis;
+    private final boolean extendedLengthEnabled;
+
+    private NfcLinkProfile(Builder builder) {
+        this.presenceCheckDelayMillis = builder.presenceCheckDelayMillis;
+        this.readerFlags = builder.readerFlags;
+        this.timeoutMillis = builder.timeoutMillis;
+        this.extendedLengthEnabled = builder.extendedLengthEnabled;
+    }
+
+    /**
+     * @return The value for {@link NfcAdapter#EXTRA_READER_PRESENCE_CHECK_DELAY}.
+     */
+    public int getPresenceCheckDelayMillis() {
+        return presenceCheckDelayMillis;
+    }
+
+    /**
+     * @return The flags for {@link NfcAdapter#enableReaderMode}.
+     */
+    public int getReaderFlags() {
+        return readerFlags;
+    }
+
+    /**
+     * @return The timeout for a single APDU, see {@link android.nfc.tech.IsoDep#setTimeout(int)}.
+     */
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @return Whether extended length APDUs are used if the device reports support for them.
+     */
+    public boolean isExtendedLengthEnabled() {
+        return extendedLengthEnabled;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "NfcLinkProfile{" +
+                "presenceCheckDelayMillis=" + presenceCheckDelayMillis +
+                ", readerFlags=" + readerFlags +
+                ", timeoutMillis=" + timeoutMillis +
+                ", extendedLengthEnabled=" + extendedLengthEnabled +
+                '}';
+    }
+
+    public static class Builder {
+        private int presenceCheckDelayMillis = DEFAULT_PRESENCE_CHECK_DELAY_MS;
+        private int readerFlags = DEFAULT_READER_FLAGS;
+        private int timeoutMillis = DEFAULT_TIMEOUT_MS;
+        private boolean extendedLengthEnabled = true;
+
+        public Builder() {
+        }
+
+        /**
+         * Creates a builder with the values of an existing profile.
+         *
+         * @param profile The profile to start from.
+         */
+        public Builder(@NonNull NfcLinkProfile profile) {
+            this.presenceCheckDelayMillis = profile.presenceCheckDelayMillis;
+            this.readerFlags = profile.readerFlags;
+            this.timeoutMillis = profile.timeoutMillis;
+            this.extendedLengthEnabled = profile.extendedLengthEnabled;
+        }
+
+        /**
+         * Sets how often the NFC stack checks whether the chip is still present. Presence checks
+         * can interrupt long running APDUs on some devices, a higher value avoids that.
+         * <p>
+         * Defaults to {@link #DEFAULT_PRESENCE_CHECK_DELAY_MS}.
+         *
+         * @param presenceCheckDelayMillis The delay in milliseconds.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setPresenceCheckDelay(int presenceCheckDelayMillis) {
+            if (presenceCheckDelayMillis <= 0) {
+                throw new IllegalArgumentException("presenceCheckDelayMillis must be positive");
+            }
+            this.presenceCheckDelayMillis = presenceCheckDelayMillis;
+            return this;
+        }
+
+        /**
+         * Sets the flags for {@link NfcAdapter#enableReaderMode}.
+         * <p>
+         * Defaults to {@link #DEFAULT_READER_FLAGS}.
+         *
+         * @param readerFlags The flags.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setReaderFlags(int readerFlags) {
+            this.readerFlags = readerFlags;
+            return this;
+        }
+
+        /**
+         * Sets the timeout for a single APDU.
+         * <p>
+         * Defaults to {@link #DEFAULT_TIMEOUT_MS}.
+         *
+         * @param timeoutMillis The timeout in milliseconds.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setTimeout(int timeoutMillis) {
+            if (timeoutMillis <= 0) {
+                throw new IllegalArgumentException("timeoutMillis must be positive");
+            }
+            this.timeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        /**
+         * Sets whether extended length APDUs are used if the device reports support for them.
+         * Some devices report support, but fail to transceive large APDUs.
+         * <p>
+         * Defaults to {@code true}.
+         *
+         * @param extendedLengthEnabled Whether extended length APDUs are used.
+         * @return This instance of the builder for easier chaining.
+         */
+        public Builder setExtendedLengthEnabled(boolean extendedLengthEnabled) {
+            this.extendedLengthEnabled = extendedLengthEnabled;
+            return this;
+        }
+
+        /**
+         * Build the profile.
+         *
+         * @return The profile.
+         */
+        public NfcLinkProfile build() {
+            return new NfcLinkProfile(this);
+        }
+    }
+}
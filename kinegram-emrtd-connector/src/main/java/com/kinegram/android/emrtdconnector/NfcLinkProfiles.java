@@ -0,0 +1,193 @@
+package com.kinegram.android.emrtdconnector;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provides the {@link NfcLinkProfile} for this device, and refines it from the outcome of the
+ * sessions.
+ * <p>
+ * The profile is looked up by the model of the device, then by its chipset, and falls back to
+ * {@link NfcLinkProfile#DEFAULT}. Apps can {@link #register(String, NfcLinkProfile) register}
+ * profiles for devices they know.
+ * <p>
+ * When the link to the chip fails during a read while the document is still on the phone (e.g.
+ * an APDU times out), the presence check delay is increased for the next read, and extended
+ * length APDUs are disabled if the link fails repeatedly with them. A removed document does not
+ * count. After a series of successful reads the delay is lowered again and extended length APDUs
+ * are tried again. The refinements are stored in the shared preferences of the app.
+ * <p>
+ * Example usage:
+ * <pre>{@code
+ *     NfcLinkProfiles profiles = NfcLinkProfiles.getInstance(context);
+ *     NfcLinkProfile profile = profiles.getActiveProfile();
+ *     Bundle extras = new Bundle();
+ *     extras.putInt(NfcAdapter.EXTRA_READER_PRESENCE_CHECK_DELAY,
+ *             profile.getPresenceCheckDelayMillis());
+ *     nfcAdapter.enableReaderMode(activity, callback, profile.getReaderFlags(), extras);
+ *     ...
+ *     ConnectionOptions options = new ConnectionOptions.Builder()
+ *             .setNfcLinkProfiles(profiles)
+ *             ...
+ * }</pre>
+ */
+public class NfcLinkProfiles {
+    private static final String TAG = "NfcLinkProfiles";
+    private static final String PREFERENCES = "com.kinegram.android.emrtdconnector.nfc_link";
+    private static final String KEY_PRESENCE_CHECK_DELAY = "presence_check_delay_ms";
+    private static final String KEY_EXTENDED_LENGTH_DISABLED = "extended_length_disabled";
+    private static final String KEY_FAILURES = "consecutive_failures";
+    private static final String KEY_SUCCESSES = "consecutive_successes";
+
+    private static final int MAX_PRESENCE_CHECK_DELAY_MS = 1000;
+    // Failures in a row while extended length APDUs were used, before they are disabled
+    private static final int EXTENDED_LENGTH_MAX_FAILURES = 2;
+    // Successes in a row, before the presence check delay is lowered again and extended length
+    // APDUs are tried again
+    private static final int SUCCESSES_TO_RELAX = 10;
+
+    private static final Map<String, NfcLinkProfile> registered = new ConcurrentHashMap<>();
+    private static NfcLinkProfiles instance;
+
+    private final SharedPreferences preferences;
+
+    private NfcLinkProfiles(Context context) {
+        this.preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @param context Any context, the application context is used.
+     * @return The profiles of this device.
+     */
+    @NonNull
+    public static synchronized NfcLinkProfiles getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new NfcLinkProfiles(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Registers a profile for a device model or chipset.
+     *
+     * @param device  The model as "{@link Build#MANUFACTURER} {@link Build#MODEL}", or the
+     *                chipset as {@link Build#SOC_MODEL} (API 31) or {@link Build#HARDWARE}.
+     *                Not case-sensitive.
+     * @param profile The profile for this device.
+     */
+    public static void register(@NonNull String device, @NonNull NfcLinkProfile profile) {
+        registered.put(device.toLowerCase(Locale.ROOT), profile);
+    }
+
+    /**
+     * Gets the profile for this device without the refinements from previous sessions.
+     *
+     * @return The profile.
+     */
+    @NonNull
+    public static NfcLinkProfile getBaseProfile() {
+        NfcLinkProfile profile = registered.get(
+                (Build.MANUFACTURER + " " + Build.MODEL).toLowerCase(Locale.ROOT));
+        if (profile == null) {
+            profile = registered.get(getChipset().toLowerCase(Locale.ROOT));
+        }
+        return profile != null ? profile : NfcLinkProfile.DEFAULT;
+    }
+
+    private static String getChipset() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            return Build.SOC_MODEL;
+        }
+        return Build.HARDWARE;
+    }
+
+    /**
+     * Gets the profile to use for the next session: the profile of this device, refined by the
+     * outcome of previous sessions.
+     *
+     * @return The profile.
+     */
+    @NonNull
+    public synchronized NfcLinkProfile getActiveProfile() {
+        NfcLinkProfile base = getBaseProfile();
+        NfcLinkProfile.Builder builder = new NfcLinkProfile.Builder(base);
+        int presenceCheckDelay = preferences.getInt(KEY_PRESENCE_CHECK_DELAY, 0);
+        if (presenceCheckDelay > base.getPresenceCheckDelayMillis()) {
+            builder.setPresenceCheckDelay(presenceCheckDelay);
+        }
+        if (preferences.getInt(KEY_EXTENDED_LENGTH_DISABLED, 0) != 0) {
+            builder.setExtendedLengthEnabled(false);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Records that a session read the chip without losing the connection.
+     *
+     * @param profile The profile that was used.
+     */
+    public synchronized void recordSuccess(@NonNull NfcLinkProfile profile) {
+        int successes = preferences.getInt(KEY_SUCCESSES, 0) + 1;
+        SharedPreferences.Editor editor = preferences.edit()
+                .putInt(KEY_FAILURES, 0);
+        int baseDelay = getBaseProfile().getPresenceCheckDelayMillis();
+        int delay = profile.getPresenceCheckDelayMillis();
+        if (successes >= SUCCESSES_TO_RELAX && delay > baseDelay) {
+            int relaxed = Math.max(baseDelay, delay / 2);
+            Log.d(TAG, "Presence check delay lowered to " + relaxed + " ms");
+            editor.putInt(KEY_PRESENCE_CHECK_DELAY, relaxed);
+            successes = 0;
+        }
+        if (successes >= SUCCESSES_TO_RELAX
+                && preferences.getInt(KEY_EXTENDED_LENGTH_DISABLED, 0) != 0) {
+            Log.d(TAG, "Extended length APDUs enabled again");
+            editor.remove(KEY_EXTENDED_LENGTH_DISABLED);
+            successes = 0;
+        }
+        editor.putInt(KEY_SUCCESSES, successes).apply();
+    }
+
+    /**
+     * Records that the link to the chip failed during a session while the document was still on
+     * the phone. Do not call it if the document was removed.
+     *
+     * @param profile            The profile that was used.
+     * @param extendedLengthUsed Whether the link failed with an extended length APDU.
+     */
+    public synchronized void recordLinkFailure(
+            @NonNull NfcLinkProfile profile, boolean extendedLengthUsed) {
+        int failures = preferences.getInt(KEY_FAILURES, 0) + 1;
+        int used = profile.getPresenceCheckDelayMillis();
+        int delay = Math.max(used, Math.min(MAX_PRESENCE_CHECK_DELAY_MS, used * 2));
+        SharedPreferences.Editor editor = preferences.edit()
+                .putInt(KEY_SUCCESSES, 0)
+                .putInt(KEY_FAILURES, failures)
+                .putInt(KEY_PRESENCE_CHECK_DELAY, delay);
+        if (extendedLengthUsed && failures >= EXTENDED_LENGTH_MAX_FAILURES) {
+            Log.d(TAG, "Extended length APDUs disabled");
+            editor.putInt(KEY_EXTENDED_LENGTH_DISABLED, 1);
+        }
+        Log.d(TAG, "Presence check delay raised to " + delay + " ms");
+        editor.apply();
+    }
+
+    /**
+     * Forgets the refinements from previous sessions.
+     */
+    public synchronized void reset() {
+        preferences.edit()
+                .remove(KEY_PRESENCE_CHECK_DELAY)
+                .remove(KEY_EXTENDED_LENGTH_DISABLED)
+                .remove(KEY_FAILURES)
+                .remove(KEY_SUCCESSES)
+                .apply();
+    }
+}
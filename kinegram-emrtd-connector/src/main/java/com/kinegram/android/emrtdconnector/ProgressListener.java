@@ -0,0 +1,14 @@
+package com.kinegram.android.emrtdconnector;
+
+/**
+ * Interface to listen for the {@link ReadProgress} of a session.
+ */
+public interface ProgressListener {
+    /**
+     * Called when the progress changed, at most every {@link ReadProgress#MIN_INTERVAL_MS}
+     * while a file is read, and right away when the next step starts or the result arrived.
+     *
+     * @param progress The current progress.
+     */
+    void handle(ReadProgress progress);
+}
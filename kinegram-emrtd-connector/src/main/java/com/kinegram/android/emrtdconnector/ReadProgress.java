@@ -0,0 +1,113 @@
+package com.kinegram.android.emrtdconnector;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+
+/**
+ * The estimated progress of a session, from connecting to the server until its result arrived.
+ * <p>
+ * Combines the bytes read of the current file, the files that are still to be read and the
+ * measured throughput of the chip and of the upload to the server. Before a file is read, its
+ * size is estimated from typical documents, so the estimate becomes more accurate as the session
+ * advances. The fraction never decreases.
+ * <p>
+ * Showing it helps users to hold the document still until the read is complete.
+ *
+ * @see EmrtdConnector#setProgressListener(ProgressListener)
+ * @see EmrtdSession#getProgress()
+ */
+public final class ReadProgress {
+    /**
+     * Minimum interval between two progress updates while a file is read.
+     */
+    public static final long MIN_INTERVAL_MS = 100;
+
+    private final double fraction;
+    private final long remainingMillis;
+    private final long bytesRead;
+    private final long estimatedBytesTotal;
+    private final String status;
+    private final long chipBytesPerSecond;
+    private final long uploadBytesPerSecond;
+
+    public ReadProgress(
+            double fraction,
+            long remainingMillis,
+            long bytesRead,
+            long estimatedBytesTotal,
+            @Nullable String status,
+            long chipBytesPerSecond,
+            long uploadBytesPerSecond
+    ) {
+        this.fraction = fraction;
+        this.remainingMillis = remainingMillis;
+        this.bytesRead = bytesRead;
+        this.estimatedBytesTotal = estimatedBytesTotal;
+        this.status = status;
+        this.chipBytesPerSecond = chipBytesPerSecond;
+        this.uploadBytesPerSecond = uploadBytesPerSecond;
+    }
+
+    /**
+     * @return The completed part of the session, from 0 to 1. Only 1 once the result arrived.
+     */
+    public double getFraction() {
+        return fraction;
+    }
+
+    /**
+     * @return The estimated time until the result arrives in milliseconds.
+     */
+    public long getRemainingMillis() {
+        return remainingMillis;
+    }
+
+    /**
+     * @return The number of bytes read from the chip so far.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return The estimated number of bytes of all files that are read from the chip.
+     */
+    public long getEstimatedBytesTotal() {
+        return estimatedBytesTotal;
+    }
+
+    /**
+     * @return The current step as one of the {@link StatusListener} values, or {@code null}
+     * before the chip is read.
+     */
+    @Nullable
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @return The measured (or, before the first file was read, assumed) read throughput of the
+     * chip.
+     */
+    public long getChipBytesPerSecond() {
+        return chipBytesPerSecond;
+    }
+
+    /**
+     * @return The measured (or, before the first file was sent, assumed) upload throughput to
+     * the server.
+     */
+    public long getUploadBytesPerSecond() {
+        return uploadBytesPerSecond;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "ReadProgress{fraction=%.2f, remaining=%dms, bytes=%d/%d, status=%s}",
+                fraction, remainingMillis, bytesRead, estimatedBytesTotal, status);
+    }
+}
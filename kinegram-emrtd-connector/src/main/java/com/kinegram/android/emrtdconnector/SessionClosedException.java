@@ -0,0 +1,38 @@
+package com.kinegram.android.emrtdconnector;
+
+/**
+ * Completes the result future of an {@link EmrtdSession} that was closed without a result.
+ */
+public class SessionClosedException extends Exception {
+    private final int code;
+    private final String reason;
+    private final boolean remote;
+
+    SessionClosedException(int code, String reason, boolean remote) {
+        super("Session closed without result: " + code + " " + reason);
+        this.code = code;
+        this.reason = reason;
+        this.remote = remote;
+    }
+
+    /**
+     * @return The WebSocket close code.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return One of the reasons listed in {@link ClosedListener}.
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return {@code true} if the close was issued by the server.
+     */
+    public boolean isRemote() {
+        return remote;
+    }
+}
@@ -0,0 +1,122 @@
+package com.kinegram.android.emrtdconnector;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * An event of an {@link EmrtdSession}, published by its {@link SessionEventPublisher}.
+ */
+public final class SessionEvent {
+    /**
+     * The kind of event.
+     */
+    public enum Type {
+        /**
+         * The status of the session changed. See {@link #getStatus()}.
+         */
+        STATUS,
+        /**
+         * The estimated progress of the session changed. See {@link #getProgress()}.
+         */
+        PROGRESS,
+        /**
+         * The session was closed. See {@link #getCloseCode()}, {@link #getCloseReason()} and
+         * {@link #isCloseRemote()}. This is always the last event.
+         */
+        CLOSED
+    }
+
+    private final Type type;
+    private final String status;
+    private final ReadProgress progress;
+    private final int closeCode;
+    private final String closeReason;
+    private final boolean closeRemote;
+
+    private SessionEvent(
+            Type type,
+            String status,
+            ReadProgress progress,
+            int closeCode,
+            String closeReason,
+            boolean closeRemote
+    ) {
+        this.type = type;
+        this.status = status;
+        this.progress = progress;
+        this.closeCode = closeCode;
+        this.closeReason = closeReason;
+        this.closeRemote = closeRemote;
+    }
+
+    static SessionEvent status(String status) {
+        return new SessionEvent(Type.STATUS, status, null, 0, null, false);
+    }
+
+    static SessionEvent progress(ReadProgress progress) {
+        return new SessionEvent(Type.PROGRESS, null, progress, 0, null, false);
+    }
+
+    static SessionEvent closed(int code, String reason, boolean remote) {
+        return new SessionEvent(Type.CLOSED, null, null, code, reason, remote);
+    }
+
+    /**
+     * @return The kind of this event.
+     */
+    @NonNull
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return One of the {@link StatusListener} values for {@link Type#STATUS} events,
+     * {@code null} otherwise.
+     */
+    @Nullable
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @return The progress for {@link Type#PROGRESS} events, {@code null} otherwise.
+     */
+    @Nullable
+    public ReadProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * @return The WebSocket close code for {@link Type#CLOSED} events.
+     */
+    public int getCloseCode() {
+        return closeCode;
+    }
+
+    /**
+     * @return One of the {@link ClosedListener} reasons for {@link Type#CLOSED} events,
+     * {@code null} otherwise.
+     */
+    @Nullable
+    public String getCloseReason() {
+        return closeReason;
+    }
+
+    /**
+     * @return {@code true} if the close was issued by the server.
+     */
+    public boolean isCloseRemote() {
+        return closeRemote;
+    }
+
+    @Override
+    public String toString() {
+        if (type == Type.STATUS) {
+            return "SessionEvent{STATUS " + status + "}";
+        }
+        if (type == Type.PROGRESS) {
+            return "SessionEvent{PROGRESS " + progress + "}";
+        }
+        return "SessionEvent{CLOSED " + closeCode + " " + closeReason + "}";
+    }
+}
@@ -0,0 +1,286 @@
+package com.kinegram.android.emrtdconnector;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes the {@link SessionEvent}s of an {@link EmrtdSession} with backpressure.
+ * <p>
+ * The interfaces follow the Reactive Streams contract ({@code java.util.concurrent.Flow} is only
+ * available from API level 30), so adapting them to RxJava, Reactor or Kotlin Flow is a thin
+ * wrapper.
+ * <p>
+ * Each subscriber is called on its own executor, one call at a time, starting with
+ * {@link Subscriber#onSubscribe}. Without an executor passed to
+ * {@link #subscribe(Subscriber, Executor)}, a background thread of the library is used, never
+ * the main thread and never the thread that reads the chip. A slow subscriber therefore does not
+ * hold up the session, and the session does not wait for a subscriber.
+ * <p>
+ * A subscriber only receives as many events as it requested. While it has no outstanding demand,
+ * status and progress events are coalesced to the latest value of their type when they are
+ * published; the final {@link SessionEvent.Type#CLOSED} event is always delivered, followed by
+ * {@link Subscriber#onComplete()}.
+ * <p>
+ * Subscribers that subscribe after events were published receive the latest status, the latest
+ * progress and, if the session is already closed, the close event.
+ */
+public class SessionEventPublisher {
+    /**
+     * Receives the events of a session.
+     */
+    public interface Subscriber {
+        /**
+         * Called once before any other method.
+         *
+         * @param subscription Use it to request events or cancel the subscription.
+         */
+        void onSubscribe(@NonNull Subscription subscription);
+
+        /**
+         * Called for each requested event.
+         *
+         * @param event The event.
+         */
+        void onNext(@NonNull SessionEvent event);
+
+        /**
+         * Called after the {@link SessionEvent.Type#CLOSED} event. No further calls follow.
+         */
+        void onComplete();
+    }
+
+    /**
+     * The link between the publisher and a subscriber.
+     */
+    public interface Subscription {
+        /**
+         * Requests up to {@code n} more events.
+         *
+         * @param n The number of events, must be positive. {@link Long#MAX_VALUE} requests an
+         *          unbounded number of events.
+         */
+        void request(long n);
+
+        /**
+         * Stops the delivery of events.
+         */
+        void cancel();
+    }
+
+    private static ExecutorService defaultExecutor;
+
+    private final List<SubscriptionImpl> subscriptions = new ArrayList<>();
+    private SessionEvent lastStatus;
+    private SessionEvent lastProgress;
+    private SessionEvent closed;
+
+    SessionEventPublisher() {
+    }
+
+    /**
+     * Subscribes to the events of the session. The subscriber is called on a background thread.
+     *
+     * @param subscriber The subscriber.
+     */
+    public void subscribe(@NonNull Subscriber subscriber) {
+        subscribe(subscriber, getDefaultExecutor());
+    }
+
+    /**
+     * Subscribes to the events of the session.
+     *
+     * @param subscriber The subscriber.
+     * @param executor   Calls the subscriber. It does not need to be serial, the calls to one
+     *                   subscriber never overlap.
+     */
+    public void subscribe(@NonNull Subscriber subscriber, @NonNull Executor executor) {
+        SubscriptionImpl subscription = new SubscriptionImpl(subscriber, executor);
+        synchronized (this) {
+            if (lastStatus != null) {
+                subscription.offer(lastStatus);
+            }
+            if (lastProgress != null) {
+                subscription.offer(lastProgress);
+            }
+            if (closed != null) {
+                subscription.offer(closed);
+            } else {
+                subscriptions.add(subscription);
+            }
+        }
+        subscription.start();
+    }
+
+    void publishStatus(String status) {
+        publish(SessionEvent.status(status));
+    }
+
+    void publishProgress(ReadProgress progress) {
+        publish(SessionEvent.progress(progress));
+    }
+
+    void publishClosed(int code, String reason, boolean remote) {
+        publish(SessionEvent.closed(code, reason, remote));
+    }
+
+    private void publish(SessionEvent event) {
+        List<SubscriptionImpl> targets;
+        synchronized (this) {
+            if (closed != null) {
+                return;
+            }
+            if (event.getType() == SessionEvent.Type.CLOSED) {
+                closed = event;
+            } else if (event.getType() == SessionEvent.Type.PROGRESS) {
+                lastProgress = event;
+            } else {
+                lastStatus = event;
+            }
+            targets = new ArrayList<>(subscriptions);
+            for (SubscriptionImpl subscription : targets) {
+                subscription.offer(event);
+            }
+            if (closed != null) {
+                subscriptions.clear();
+            }
+        }
+        for (SubscriptionImpl subscription : targets) {
+            subscription.schedule();
+        }
+    }
+
+    private static synchronized Executor getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "emrtd-session-events");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return defaultExecutor;
+    }
+
+    private class SubscriptionImpl implements Subscription {
+        private final Subscriber subscriber;
+        private final Executor executor;
+        private final Deque<SessionEvent> queue = new ArrayDeque<>();
+        // Number of times delivery was asked for since the running drain started
+        private final AtomicInteger wip = new AtomicInteger();
+        private long demand;
+        private boolean cancelled;
+        private boolean completed;
+
+        SubscriptionImpl(Subscriber subscriber, Executor executor) {
+            this.subscriber = subscriber;
+            this.executor = executor;
+        }
+
+        /**
+         * Calls {@link Subscriber#onSubscribe} on the executor, then delivers what is queued.
+         */
+        void start() {
+            // Counts as a running drain until onSubscribe returned
+            wip.set(1);
+            execute(() -> {
+                subscriber.onSubscribe(this);
+                drain();
+            });
+        }
+
+        synchronized void offer(SessionEvent event) {
+            if (cancelled) {
+                return;
+            }
+            if (event.getType() != SessionEvent.Type.CLOSED) {
+                // No demand for the previous event of this type yet, only keep the latest one
+                for (Iterator<SessionEvent> it = queue.iterator(); it.hasNext(); ) {
+                    if (it.next().getType() == event.getType()) {
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+            queue.addLast(event);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                throw new IllegalArgumentException("Requested event count must be positive");
+            }
+            synchronized (this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                queue.clear();
+            }
+            synchronized (SessionEventPublisher.this) {
+                subscriptions.remove(this);
+            }
+        }
+
+        /**
+         * Asks for delivery on the executor. Never calls the subscriber on the calling thread.
+         */
+        void schedule() {
+            if (wip.getAndIncrement() != 0) {
+                // A drain is running or scheduled and will pick up the new work
+                return;
+            }
+            execute(this::drain);
+        }
+
+        private void execute(Runnable task) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // The executor was shut down, nobody is listening anymore
+                cancel();
+            }
+        }
+
+        /**
+         * Delivers until there is nothing more to deliver. Runs on the executor, at most once at
+         * a time.
+         */
+        private void drain() {
+            do {
+                while (true) {
+                    SessionEvent event;
+                    synchronized (this) {
+                        if (cancelled || completed || demand == 0 || queue.isEmpty()) {
+                            break;
+                        }
+                        event = queue.pollFirst();
+                        if (demand != Long.MAX_VALUE) {
+                            demand--;
+                        }
+                    }
+                    subscriber.onNext(event);
+                    if (event.getType() == SessionEvent.Type.CLOSED) {
+                        synchronized (this) {
+                            completed = true;
+                        }
+                        subscriber.onComplete();
+                    }
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+    }
+}
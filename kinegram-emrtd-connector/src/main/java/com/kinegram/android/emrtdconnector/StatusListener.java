@@ -9,6 +9,14 @@ public interface StatusListener {
      */
     String CONNECTING_TO_SERVER = "CONNECTING_TO_SERVER";
 
+    /**
+     * The connection to the WebSocket Server dropped and is being re-established.
+     * <p>
+     * Only sent if reconnects are enabled with
+     * {@link ConnectionOptions.Builder#setMaxReconnectAttempts(int)}.
+     */
+    String RECONNECTING_TO_SERVER = "RECONNECTING_TO_SERVER";
+
     /**
      * Reading File Atr/Info.
      */
@@ -0,0 +1,24 @@
+package com.kinegram.android.emrtdconnector.internal;
+
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+
+import com.kinegram.android.emrtdconnector.internal.protocol.message.Base64Codec;
+
+/**
+ * {@link Base64Codec} for Android, {@code java.util.Base64} is only available from API level 26.
+ */
+public class AndroidBase64Codec extends Base64Codec {
+    @NonNull
+    @Override
+    public String encode(@NonNull byte[] data) {
+        return Base64.encodeToString(data, Base64.NO_WRAP);
+    }
+
+    @NonNull
+    @Override
+    public byte[] decode(@NonNull String data) {
+        return Base64.decode(data, Base64.DEFAULT);
+    }
+}
@@ -0,0 +1,129 @@
+package com.kinegram.android.emrtdconnector.internal;
+
+import androidx.annotation.NonNull;
+
+import com.kinegram.android.emrtdconnector.ApduProfile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records the latency of every APDU in fixed buckets per instruction and path.
+ * <p>
+ * Always on: recording an APDU only updates a few counters, the statistics of an instruction are
+ * allocated when it occurs for the first time. Snapshots can be taken at any time from any thread.
+ */
+public class ApduProfiler {
+    private static final long[] BUCKET_BOUNDS_NANOS =
+            new long[ApduProfile.BUCKET_BOUNDS_MS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS_NANOS.length; i++) {
+            BUCKET_BOUNDS_NANOS[i] =
+                    TimeUnit.MILLISECONDS.toNanos(ApduProfile.BUCKET_BOUNDS_MS[i]);
+        }
+    }
+
+    private static final ApduProfile.Path[] PATHS = ApduProfile.Path.values();
+
+    // Indexed by path * 256 + INS
+    private final AtomicReferenceArray<Stats> stats =
+            new AtomicReferenceArray<>(PATHS.length * 256);
+
+    /**
+     * Records one APDU.
+     *
+     * @param path          Where the APDU came from.
+     * @param command       The command as sent to the chip.
+     * @param responseSize  The size of the response.
+     * @param radioNanos    The time of the transceive call.
+     * @param overheadNanos The time before the command was sent, 0 if not known.
+     */
+    public void record(
+            @NonNull ApduProfile.Path path,
+            @NonNull byte[] command,
+            int responseSize,
+            long radioNanos,
+            long overheadNanos
+    ) {
+        int ins = command.length > 1 ? command[1] & 0xFF : 0;
+        int index = path.ordinal() * 256 + ins;
+        Stats entry = stats.get(index);
+        if (entry == null) {
+            stats.compareAndSet(index, null, new Stats());
+            entry = stats.get(index);
+        }
+        entry.record(command.length, responseSize, radioNanos, Math.max(0, overheadNanos));
+    }
+
+    /**
+     * @return The statistics recorded so far.
+     */
+    @NonNull
+    public ApduProfile snapshot() {
+        List<ApduProfile.Entry> entries = new ArrayList<>();
+        for (int index = 0; index < stats.length(); index++) {
+            Stats entry = stats.get(index);
+            if (entry != null) {
+                entries.add(entry.toEntry(PATHS[index / 256], index % 256));
+            }
+        }
+        return new ApduProfile(entries);
+    }
+
+    private static class Stats {
+        private final AtomicLongArray buckets =
+                new AtomicLongArray(BUCKET_BOUNDS_NANOS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong radioNanos = new AtomicLong();
+        private final AtomicLong maxRadioNanos = new AtomicLong();
+        private final AtomicLong overheadNanos = new AtomicLong();
+        private final AtomicLong commandBytes = new AtomicLong();
+        private final AtomicLong responseBytes = new AtomicLong();
+
+        void record(int commandSize, int responseSize, long radio, long overhead) {
+            buckets.incrementAndGet(bucketOf(radio));
+            count.incrementAndGet();
+            radioNanos.addAndGet(radio);
+            overheadNanos.addAndGet(overhead);
+            commandBytes.addAndGet(commandSize);
+            responseBytes.addAndGet(responseSize);
+            long max;
+            while (radio > (max = maxRadioNanos.get())) {
+                if (maxRadioNanos.compareAndSet(max, radio)) {
+                    break;
+                }
+            }
+        }
+
+        ApduProfile.Entry toEntry(ApduProfile.Path path, int ins) {
+            long[] counts = new long[buckets.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return new ApduProfile.Entry(
+                    path,
+                    ins,
+                    count.get(),
+                    counts,
+                    TimeUnit.NANOSECONDS.toMillis(radioNanos.get()),
+                    TimeUnit.NANOSECONDS.toMillis(maxRadioNanos.get()),
+                    TimeUnit.NANOSECONDS.toMillis(overheadNanos.get()),
+                    commandBytes.get(),
+                    responseBytes.get());
+        }
+
+        private static int bucketOf(long nanos) {
+            for (int i = 0; i < BUCKET_BOUNDS_NANOS.length; i++) {
+                if (nanos <= BUCKET_BOUNDS_NANOS[i]) {
+                    return i;
+                }
+            }
+            return BUCKET_BOUNDS_NANOS.length;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.kinegram.android.emrtdconnector.internal;
+
+import androidx.annotation.NonNull;
+
+import com.kinegram.android.emrtdconnector.ReadProgress;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Delivers listener callbacks on the executor chosen by the user of the library.
+ * <p>
+ * Status updates are coalesced: if several updates arrive before the executor got around to
+ * deliver the previous one, only the latest one is delivered. Terminal events (result, close) are
+ * never coalesced or delayed and are handed to the executor right away.
+ */
+public class CallbackDispatcher {
+    private final Executor executor;
+    private final AtomicReference<String> pendingStatus = new AtomicReference<>();
+    private final AtomicReference<ReadProgress> pendingProgress = new AtomicReference<>();
+
+    public CallbackDispatcher(@NonNull Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Schedules delivery of a status update. If an earlier update is still waiting for the
+     * executor, it is replaced by this one.
+     *
+     * @param listener Receives the latest status.
+     * @param status   The new status.
+     */
+    public void dispatchStatus(@NonNull Consumer<String> listener, @NonNull String status) {
+        if (pendingStatus.getAndSet(status) != null) {
+            // A delivery is already scheduled and will pick up the new value
+            return;
+        }
+        executor.execute(() -> {
+            String latest = pendingStatus.getAndSet(null);
+            if (latest != null) {
+                listener.accept(latest);
+            }
+        });
+    }
+
+    /**
+     * Schedules delivery of a progress update. Coalesced like status updates.
+     *
+     * @param listener Receives the latest progress.
+     * @param progress The new progress.
+     */
+    public void dispatchProgress(
+            @NonNull Consumer<ReadProgress> listener, @NonNull ReadProgress progress) {
+        if (pendingProgress.getAndSet(progress) != null) {
+            return;
+        }
+        executor.execute(() -> {
+            ReadProgress latest = pendingProgress.getAndSet(null);
+            if (latest != null) {
+                listener.accept(latest);
+            }
+        });
+    }
+
+    /**
+     * Schedules delivery of an intermediate event (e.g. a partial result) without coalescing.
+     *
+     * @param event The callback to run on the executor.
+     */
+    public void dispatchEvent(@NonNull Runnable event) {
+        executor.execute(event);
+    }
+
+    /**
+     * Schedules delivery of a terminal event (result, close) without coalescing.
+     *
+     * @param event The callback to run on the executor.
+     */
+    public void dispatchTerminal(@NonNull Runnable event) {
+        executor.execute(event);
+    }
+}
@@ -0,0 +1,182 @@
+package com.kinegram.android.emrtdconnector.internal;
+
+import android.util.Log;
+
+import com.kinegram.android.emrtdconnector.EmrtdConnector;
+import com.kinegram.android.emrtdconnector.internal.protocol.SecureMessagingProviders;
+import com.kinegram.android.emrtdconnector.internal.protocol.SecureMessagingWrappers;
+import com.kinegram.android.emrtdconnector.internal.protocol.message.SecureMessagingInfo;
+
+import net.sf.scuba.smartcards.CommandAPDU;
+
+import org.jmrtd.Util;
+import org.jmrtd.protocol.SecureMessagingWrapper;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Scope;
+
+/**
+ * Loads and initializes everything a session needs for the cryptography on the chip, so the
+ * first session does not pay for it between the tap and the first APDU.
+ * <p>
+ * Runs once per process on a background thread. Every step is optional: if an algorithm is not
+ * available, the session will fail or fall back the same way without the warm-up.
+ */
+public class CryptoWarmUp {
+    private static final String TAG = "CryptoWarmUp";
+
+    // Loaded by the reader when a session starts
+    private static final String[] CLASSES = {
+            "com.kinegram.emrtd.EmrtdReader",
+            "org.jmrtd.protocol.PACEProtocol",
+            "org.jmrtd.protocol.BACProtocol",
+            "org.jmrtd.protocol.CAProtocol",
+            "org.jmrtd.protocol.AAProtocol",
+            "org.jmrtd.lds.CardAccessFile",
+            "org.jmrtd.lds.SODFile",
+            "org.jmrtd.lds.icao.DG1File",
+            "org.jmrtd.lds.icao.DG14File",
+    };
+
+    private static CompletableFuture<Long> result;
+
+    private CryptoWarmUp() {
+    }
+
+    /**
+     * Starts the warm-up if it was not started yet.
+     *
+     * @return Completes with the duration of the warm-up in milliseconds.
+     */
+    public static synchronized CompletableFuture<Long> start() {
+        if (result == null) {
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            Thread thread = new Thread(() -> future.complete(run()), "emrtd-warm-up");
+            thread.setDaemon(true);
+            thread.start();
+            result = future;
+        }
+        return result;
+    }
+
+    private static long run() {
+        long startNanos = System.nanoTime();
+        Span span = EmrtdConnector.getTracer().spanBuilder("crypto_warm_up").startSpan();
+        try (Scope ignored = span.makeCurrent()) {
+            loadClasses();
+            Provider provider = Util.getBouncyCastleProvider();
+            warmUpPace(provider);
+            pinSecureMessagingProviders(span);
+            warmUpSecureMessaging(provider);
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            span.setAttribute("warm_up.duration_ms", millis);
+            Log.d(TAG, "Warm-up took " + millis + " ms");
+            return millis;
+        } finally {
+            span.end();
+        }
+    }
+
+    private static void loadClasses() {
+        ClassLoader loader = CryptoWarmUp.class.getClassLoader();
+        for (String name : CLASSES) {
+            try {
+                Class.forName(name, true, loader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                Log.d(TAG, "Cannot load " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Key agreement and nonce decryption of PACE with the most common domain parameters.
+     */
+    private static void warmUpPace(Provider provider) {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", provider);
+            generator.initialize(new ECGenParameterSpec("brainpoolP256r1"));
+            KeyPair own = generator.generateKeyPair();
+            KeyPair other = generator.generateKeyPair();
+            KeyAgreement agreement = KeyAgreement.getInstance("ECDH", provider);
+            agreement.init(own.getPrivate());
+            agreement.doPhase(other.getPublic(), true);
+            byte[] secret = agreement.generateSecret();
+
+            byte[] key = MessageDigest.getInstance("SHA-1").digest(secret);
+            Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding", provider);
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, 0, 16, "AES"),
+                    new IvParameterSpec(new byte[16]));
+            cipher.doFinal(new byte[16]);
+            MessageDigest.getInstance("SHA-256").digest(secret);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            Log.d(TAG, "PACE warm-up failed", e);
+        }
+    }
+
+    /**
+     * Chooses the providers of the secure messaging after the chip authentication handback
+     * before any wrapper for it is created.
+     */
+    private static void pinSecureMessagingProviders(Span span) {
+        try {
+            Map<String, String> pinned = SecureMessagingProviders.pinFastest();
+            AttributesBuilder attributes = Attributes.builder();
+            for (Map.Entry<String, String> entry : pinned.entrySet()) {
+                attributes.put("crypto.provider." + entry.getKey(), entry.getValue());
+            }
+            span.addEvent("secure_messaging_providers_pinned", attributes.build());
+        } catch (RuntimeException e) {
+            Log.d(TAG, "Pinning secure messaging providers failed", e);
+        }
+    }
+
+    /**
+     * Secure messaging with AES and 3DES: the wrappers of the chip authentication handback on
+     * the pinned providers, and the MACs from Bouncy Castle that the wrappers of the reader use
+     * until then.
+     */
+    private static void warmUpSecureMessaging(Provider provider) {
+        warmUpWrapper("AES", 16);
+        warmUpWrapper("DESede", 16);
+        try {
+            Mac cmac = Mac.getInstance("AESCMAC", provider);
+            cmac.init(new SecretKeySpec(new byte[16], "AES"));
+            cmac.doFinal(new byte[16]);
+            Mac retailMac = Mac.getInstance("ISO9797Alg3Mac", provider);
+            retailMac.init(new SecretKeySpec(new byte[16], "DESede"));
+            retailMac.doFinal(new byte[8]);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            Log.d(TAG, "MAC warm-up failed", e);
+        }
+    }
+
+    private static void warmUpWrapper(String algorithm, int keyLength) {
+        byte[] key = new byte[keyLength];
+        try {
+            SecureMessagingWrapper wrapper = SecureMessagingWrappers.toWrapper(
+                    new SecureMessagingInfo(algorithm, key, key, 0));
+            // READ BINARY with Le, wraps and MACs like every command of a session
+            wrapper.wrap(new CommandAPDU(0x00, 0xB0, 0x00, 0x00, 0x08));
+        } catch (GeneralSecurityException | RuntimeException e) {
+            Log.d(TAG, algorithm + " secure messaging warm-up failed", e);
+        }
+    }
+}
@@ -30,6 +30,7 @@ import android.nfc.TagLostException;
 import android.nfc.tech.IsoDep;
 import android.nfc.tech.NfcB;
 
+import com.kinegram.android.emrtdconnector.ApduProfile;
 import com.kinegram.android.emrtdconnector.EmrtdConnector;
 
 import net.sf.scuba.smartcards.APDUEvent;
@@ -62,16 +63,30 @@ public class IsoDepCardService extends CardService {
     private static final Logger LOGGER = Logger.getLogger("net.sf.scuba");
     private final IsoDep isoDep;
     private final boolean enableDiagnostics;
+    private volatile boolean extendedLengthEnabled;
+    private volatile boolean linkFailed;
+    private volatile boolean extendedLengthFailed;
+    private final ApduProfiler profiler;
     private int apduCount;
+    private long lastResponseNanos;
 
     /**
      * Constructs a new card service.
      *
-     * @param isoDep the card terminal to connect to
+     * @param isoDep                the card terminal to connect to
+     * @param extendedLengthEnabled whether extended length APDUs may be used if the terminal
+     *                              supports them
+     * @param profiler              records the latency of every APDU
      */
-    public IsoDepCardService(IsoDep isoDep, boolean enableDiagnostics) {
+    public IsoDepCardService(
+            IsoDep isoDep,
+            boolean enableDiagnostics,
+            boolean extendedLengthEnabled,
+            ApduProfiler profiler) {
         this.isoDep = isoDep;
         this.enableDiagnostics = enableDiagnostics;
+        this.extendedLengthEnabled = extendedLengthEnabled;
+        this.profiler = profiler;
         apduCount = 0;
     }
 
@@ -131,20 +146,42 @@ public class IsoDepCardService extends CardService {
                     .put("command_apdu.p2", ourCommandAPDU.getP2())
                     .put("command_apdu.nc", ourCommandAPDU.getNc())
                     .put("command_apdu.ne", ourCommandAPDU.getNe());
-            if (enableDiagnostics) {
+            // Hex-encoding every APDU is only worth it if the span is exported
+            boolean traceBytes = enableDiagnostics && span.isRecording();
+            if (traceBytes) {
                 requestAttributes.put("command_apdu.bytes_hex", toHex(ourCommandAPDU.getBytes()));
             }
             span.addEvent(
                     "transmit_apdu_command",
                     requestAttributes.build());
-            byte[] responseBytes = isoDep.transceive(ourCommandAPDU.getBytes());
+            byte[] commandBytes = ourCommandAPDU.getBytes();
+            long startNanos = System.nanoTime();
+            byte[] responseBytes;
+            try {
+                responseBytes = isoDep.transceive(commandBytes);
+            } catch (TagLostException e) {
+                // Usually the document was removed, which says nothing about the link
+                throw e;
+            } catch (IOException e) {
+                linkFailed = true;
+                extendedLengthFailed |= ourCommandAPDU.getNc() > 255
+                        || ourCommandAPDU.getNe() > 256;
+                throw e;
+            }
+            long endNanos = System.nanoTime();
             if (responseBytes == null) {
                 // MUST NOT happen according to the IsoDep docs
                 throw new AssertionError("Unexpected IsoDep null response");
             }
+            // Everything since the previous response ran on the device: secure messaging,
+            // parsing and the logic of the reader
+            long overheadNanos = lastResponseNanos == 0 ? 0 : startNanos - lastResponseNanos;
+            lastResponseNanos = endNanos;
+            profiler.record(ApduProfile.Path.LOCAL, commandBytes, responseBytes.length,
+                    endNanos - startNanos, overheadNanos);
             AttributesBuilder responseAttributes = Attributes.builder()
                     .put("apdu_response.length", responseBytes.length);
-            if (enableDiagnostics) {
+            if (traceBytes) {
                 responseAttributes.put(
                         "apdu_response.bytes_hex", toHex(responseBytes));
             }
@@ -170,6 +207,14 @@ public class IsoDepCardService extends CardService {
 
     @Override
     public byte[] getATR() {
+        return getAnswerToSelect(isoDep);
+    }
+
+    /**
+     * @return The historical bytes of NFC-A chips, the higher layer response of NFC-B chips, or
+     * {@code null} if unknown. Does not communicate with the chip.
+     */
+    public static byte[] getAnswerToSelect(IsoDep isoDep) {
         Tag tag;
         if (isoDep == null || (tag = isoDep.getTag()) == null) {
             return null;
@@ -177,9 +222,31 @@ public class IsoDepCardService extends CardService {
         return NfcB.get(tag) != null ? isoDep.getHiLayerResponse() : isoDep.getHistoricalBytes();
     }
 
+    /**
+     * Disables extended length APDUs, e.g. because they are known to fail with this chip.
+     */
+    public void setExtendedLengthEnabled(boolean extendedLengthEnabled) {
+        this.extendedLengthEnabled = extendedLengthEnabled;
+    }
+
+    /**
+     * @return Whether a transceive failed while the chip was still in the field, e.g. because it
+     * timed out, as opposed to the document being removed.
+     */
+    public boolean hasLinkFailed() {
+        return linkFailed;
+    }
+
+    /**
+     * @return Whether such a failure happened with an extended length APDU.
+     */
+    public boolean hasExtendedLengthFailed() {
+        return extendedLengthFailed;
+    }
+
     @Override
     public boolean isExtendedAPDULengthSupported() {
-        return isoDep.isExtendedLengthApduSupported();
+        return extendedLengthEnabled && isoDep.isExtendedLengthApduSupported();
     }
 
     /**
@@ -0,0 +1,52 @@
+package com.kinegram.android.emrtdconnector.internal;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * AES keys of the Android Keystore for the results the SDK keeps on the device. The keys cannot
+ * be exported, so the files are unreadable when they are copied off the device.
+ * <p>
+ * Keystore keys only work with the providers of the system; ciphers for them must be created
+ * without naming a provider.
+ */
+public class KeystoreKeys {
+    public static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    public static final int TAG_LENGTH_BITS = 128;
+
+    private static final String KEYSTORE = "AndroidKeyStore";
+
+    private KeystoreKeys() {
+    }
+
+    /**
+     * @return The key stored under {@code alias}, created on first use.
+     */
+    @NonNull
+    public static synchronized SecretKey getOrCreate(@NonNull String alias)
+            throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        KeyStore.Entry entry = keyStore.getEntry(alias, null);
+        if (entry instanceof KeyStore.SecretKeyEntry) {
+            return ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(alias,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        return generator.generateKey();
+    }
+}
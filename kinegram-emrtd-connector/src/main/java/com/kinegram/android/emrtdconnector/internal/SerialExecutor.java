@@ -0,0 +1,92 @@
+package com.kinegram.android.emrtdconnector.internal;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks one after the other, in the order they were submitted, on a shared executor.
+ */
+public class SerialExecutor implements Executor {
+    private static final String TAG = "SerialExecutor";
+
+    private final Executor executor;
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private boolean running;
+    private boolean shutdown;
+    private Thread runner;
+
+    SerialExecutor(@NonNull Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @throws RejectedExecutionException If the executor was shut down.
+     */
+    @Override
+    public void execute(@NonNull Runnable task) {
+        synchronized (this) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Executor was shut down");
+            }
+            tasks.add(task);
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                running = false;
+                tasks.clear();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the tasks that did not start yet and interrupts the running one.
+     */
+    public synchronized void shutdownNow() {
+        shutdown = true;
+        tasks.clear();
+        if (runner != null) {
+            runner.interrupt();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Runnable task;
+            synchronized (this) {
+                task = tasks.poll();
+                if (task == null) {
+                    running = false;
+                    runner = null;
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // Like a thread of its own, the failing task must not stop the tasks after it
+                Log.e(TAG, "Task failed", e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                }
+                // An interrupt meant for this task must not reach the next one
+                //noinspection ResultOfMethodCallIgnored
+                Thread.interrupted();
+            }
+        }
+    }
+}
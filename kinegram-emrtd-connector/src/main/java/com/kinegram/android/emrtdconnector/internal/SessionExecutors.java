@@ -0,0 +1,75 @@
+package com.kinegram.android.emrtdconnector.internal;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads of the sessions of a connector, shared by all its sessions.
+ * <p>
+ * The workers run what blocks for a while and must not wait for other sessions: the read of the
+ * chip, the APDUs relayed for the server and the sending of the frames. The scheduler runs the
+ * short timed tasks: heartbeats, connection attempts and reconnects. Sessions never shut them
+ * down, they cancel their own tasks instead. Idle threads end after a while, so a connector
+ * without sessions holds no threads.
+ */
+public class SessionExecutors {
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ExecutorService workers;
+    private final ScheduledExecutorService scheduler;
+
+    public SessionExecutors() {
+        workers = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                daemonThreads("emrtd-worker"));
+        ScheduledThreadPoolExecutor scheduler =
+                new ScheduledThreadPoolExecutor(1, daemonThreads("emrtd-scheduler"));
+        scheduler.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+        // Cancelled heartbeats and deadlines would otherwise stay queued until they are due
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return Runs tasks that block, each on its own thread.
+     */
+    @NonNull
+    public ExecutorService getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return Runs short timed tasks.
+     */
+    @NonNull
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return A new executor that runs its tasks one after the other on the workers.
+     */
+    @NonNull
+    public SerialExecutor newSerialExecutor() {
+        return new SerialExecutor(workers);
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,140 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import android.nfc.TagLostException;
+
+import androidx.annotation.NonNull;
+
+import com.kinegram.android.emrtdconnector.ApduProfile;
+import com.kinegram.android.emrtdconnector.EmrtdConnector;
+import com.kinegram.android.emrtdconnector.internal.ApduProfiler;
+import com.kinegram.android.emrtdconnector.internal.SerialExecutor;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Scope;
+
+/**
+ * Relays APDU commands sent by the server to the NFC chip.
+ * <p>
+ * The commands are transceived on a dedicated NFC I/O thread in the order they were received, so
+ * the WebSocket read thread stays free to process pings, close frames and cancellation while a
+ * slow APDU is running.
+ * <p>
+ * For every relayed APDU the time spent on the chip (transceive) and the time spent on the
+ * network (from sending the previous response until receiving this command) are measured
+ * separately.
+ */
+public class ApduRelay {
+    /**
+     * Receives the outcome of relayed APDUs. Called on the NFC I/O thread.
+     */
+    public interface Listener {
+        void onApduResponse(byte[] response);
+
+        void onApduError(Exception e);
+    }
+
+    private final Transceiver transceiver;
+    private final Listener listener;
+    private final ApduProfiler profiler;
+    private final SerialExecutor executor;
+
+    private final AtomicLong relayedCount = new AtomicLong();
+    private final AtomicLong totalChipNanos = new AtomicLong();
+    private final AtomicLong totalNetworkNanos = new AtomicLong();
+    private volatile long lastResponseSentNanos;
+
+    /**
+     * @param executor Sends the commands to the chip, one after the other.
+     */
+    public ApduRelay(
+            @NonNull Transceiver transceiver,
+            @NonNull Listener listener,
+            @NonNull ApduProfiler profiler,
+            @NonNull SerialExecutor executor) {
+        this.executor = executor;
+        this.transceiver = transceiver;
+        this.listener = listener;
+        this.profiler = profiler;
+    }
+
+    /**
+     * Queues a command for the chip. Returns immediately.
+     *
+     * @param command The raw APDU command sent by the server.
+     */
+    public void submit(@NonNull byte[] command) {
+        long receivedNanos = System.nanoTime();
+        long previousResponseNanos = lastResponseSentNanos;
+        long networkNanos = previousResponseNanos == 0 ? 0 : receivedNanos - previousResponseNanos;
+        Span parentSpan = Span.current();
+        try {
+            executor.execute(() -> {
+                try (Scope ignored = parentSpan.makeCurrent()) {
+                    relay(command, receivedNanos, networkNanos);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Relay was shut down, the session is closing anyway
+        }
+    }
+
+    /**
+     * Stops the relay. Commands that were not yet sent to the chip are dropped.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public long getRelayedCount() {
+        return relayedCount.get();
+    }
+
+    public long getTotalChipTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalChipNanos.get());
+    }
+
+    public long getTotalNetworkTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNetworkNanos.get());
+    }
+
+    private void relay(byte[] command, long receivedNanos, long networkNanos) {
+        Span span = EmrtdConnector.getTracer().spanBuilder("apdu_relay")
+                .setAttribute("apdu.command_size", command.length)
+                .startSpan();
+        try (Scope ignored = span.makeCurrent()) {
+            long startNanos = System.nanoTime();
+            byte[] response = transceiver.transceive(command);
+            long chipNanos = System.nanoTime() - startNanos;
+            if (response == null || response.length < 2) {
+                throw new TagLostException("No Response from NFC chip");
+            }
+
+            relayedCount.incrementAndGet();
+            totalChipNanos.addAndGet(chipNanos);
+            totalNetworkNanos.addAndGet(networkNanos);
+            profiler.record(ApduProfile.Path.RELAYED, command, response.length,
+                    chipNanos, networkNanos);
+            span.addEvent("apdu_relayed", Attributes.builder()
+                    .put("apdu.response_size", response.length)
+                    .put("nfc.chip_time_ms", TimeUnit.NANOSECONDS.toMillis(chipNanos))
+                    .put("network.time_ms", TimeUnit.NANOSECONDS.toMillis(networkNanos))
+                    .put("queue.wait_ms", TimeUnit.NANOSECONDS.toMillis(startNanos - receivedNanos))
+                    .build());
+
+            listener.onApduResponse(response);
+            lastResponseSentNanos = System.nanoTime();
+        } catch (Exception e) {
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR);
+            listener.onApduError(e);
+        } finally {
+            span.end();
+        }
+    }
+}
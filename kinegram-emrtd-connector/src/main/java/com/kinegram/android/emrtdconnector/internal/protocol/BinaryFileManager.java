@@ -1,41 +1,325 @@
 package com.kinegram.android.emrtdconnector.internal.protocol;
 
-import org.java_websocket.client.WebSocketClient;
+import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * Stores and sends binary files (sod, data groups, etc.).
+ * <p>
+ * Sent files are kept until the session ends, so they can be sent again if the connection is
+ * resumed and the server did not receive them. All files are kept in a {@link FileStore} and
+ * sent from there, so large files do not stay in memory; they are streamed from disk.
+ * <p>
+ * Files are sent through the {@link FrameScheduler}: the SOD and small data groups before the
+ * images of the holder. If the server supports it, files are sent in chunks, so APDU responses
+ * and control messages do not have to wait until a large file is sent completely.
  */
 public class BinaryFileManager {
+    private static final String TAG = "BinaryFileManager";
+    // Size of the WebSocket frames when a file is streamed from the store
+    private static final int FRAGMENT_SIZE = 16 * 1024;
+    private static final String OUTGOING = "out/";
+    private static final String RECEIVED = "in/";
+
     private final Set<String> sentFiles = ConcurrentHashMap.newKeySet();
-    private final Map<String, byte[]> receivedFiles = new ConcurrentHashMap<>();
-    private final WebSocketClient websocketClient;
+    private final Set<String> outgoingFiles = ConcurrentHashMap.newKeySet();
+    private final List<String> outgoingOrder = new ArrayList<>();
+    private final Map<String, Transfer> pendingTransfers = new ConcurrentHashMap<>();
+    private final Set<String> receivedFiles = ConcurrentHashMap.newKeySet();
+    private final FileStore store;
+    private final FrameScheduler scheduler;
+    private volatile int chunkSize;
+    private volatile Consumer<String> startedListener;
+    private volatile Consumer<String> sentListener;
+
+    /**
+     * @param scheduler    Sends the files.
+     * @param memoryBudget Maximum number of bytes of file data kept in memory.
+     * @param directory    Directory for files that exceed the memory budget, {@code null} for
+     *                     the default temporary directory.
+     */
+    public BinaryFileManager(FrameScheduler scheduler, long memoryBudget, File directory) {
+        this.scheduler = scheduler;
+        this.store = new FileStore(memoryBudget, directory);
+    }
+
+    /**
+     * Enables sending files in chunks, as negotiated with the server.
+     *
+     * @param chunkSize Maximum size of a chunk, 0 to send every file as one message.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(0, chunkSize);
+    }
+
+    /**
+     * @param startedListener Called with the name of a file once its first frame was written.
+     */
+    public void setStartedListener(Consumer<String> startedListener) {
+        this.startedListener = startedListener;
+    }
+
+    /**
+     * @param sentListener Called with the name of a file once it was sent completely.
+     */
+    public void setSentListener(Consumer<String> sentListener) {
+        this.sentListener = sentListener;
+    }
+
+    /**
+     * Stores the file and queues it. The file is sent from the store, so the caller should drop
+     * its reference to the data; a file that exceeds the memory budget is not kept in memory
+     * while it waits to be sent.
+     *
+     * @return Whether the file was queued, {@code false} if the server already has it.
+     */
+    public boolean sendFile(String name, byte[] data) {
+        if (!shouldSendFile(name) || !outgoingFiles.add(name)) {
+            return false;
+        }
+        synchronized (outgoingOrder) {
+            outgoingOrder.add(name);
+        }
+        FrameScheduler.Source source = null;
+        try {
+            store.put(OUTGOING + name, data);
+            source = openStored(name);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to store " + name, e);
+        }
+        if (source == null) {
+            // Can still be sent from memory, just not again after a reconnect
+            int chunkSize = this.chunkSize;
+            source = chunkSize > 0
+                    ? chunked(name, data.length, FileStore.chunks(data, chunkSize))
+                    : whole(name, data);
+        }
+        submit(name, source);
+        return true;
+    }
+
+    /**
+     * Sends all files again that the server did not receive, e.g. after the connection was
+     * resumed.
+     *
+     * @param receivedByServer Names of the files the server already has.
+     */
+    public void resendFiles(Collection<String> receivedByServer) {
+        List<String> names;
+        synchronized (outgoingOrder) {
+            names = new ArrayList<>(outgoingOrder);
+        }
+        for (String name : names) {
+            // A transfer that started on the old connection cannot be continued
+            Transfer pending = pendingTransfers.remove(name);
+            if (pending != null) {
+                pending.cancelled = true;
+            }
+            if (receivedByServer.contains(name)) {
+                sentFiles.add(name);
+                continue;
+            }
+            sentFiles.remove(name);
+            try {
+                FrameScheduler.Source source = openStored(name);
+                if (source != null) {
+                    submit(name, source);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read " + name, e);
+            }
+        }
+    }
+
+    private FrameScheduler.Source openStored(String name) throws IOException {
+        String key = OUTGOING + name;
+        int chunkSize = this.chunkSize;
+        if (chunkSize > 0) {
+            FileStore.Chunks data = store.open(key, chunkSize);
+            return data == null ? null : chunked(name, store.size(key), data);
+        }
+        if (!store.isSpilled(key)) {
+            byte[] data = store.get(key);
+            return data == null ? null : whole(name, data);
+        }
+        FileStore.Chunks data = store.open(key, FRAGMENT_SIZE);
+        if (data == null) {
+            return null;
+        }
+        FileStore.Chunks fragments = withHeader(name, data);
+        return FrameScheduler.single(transport -> transport.sendFragmented(fragments));
+    }
 
-    public BinaryFileManager(WebSocketClient webSocketClient) {
-        this.websocketClient = webSocketClient;
+    private void submit(String name, FrameScheduler.Source source) {
+        Transfer transfer = new Transfer(name, source);
+        pendingTransfers.put(name, transfer);
+        scheduler.submit(priorityOf(name), transfer, sent -> {
+            // Only the latest transfer of a file decides whether it was sent
+            if (pendingTransfers.remove(name, transfer)) {
+                if (sent) {
+                    sentFiles.add(name);
+                    Consumer<String> listener = sentListener;
+                    if (listener != null) {
+                        listener.accept(name);
+                    }
+                } else {
+                    sentFiles.remove(name);
+                }
+            }
+        });
     }
 
-    public void sendFile(String name, byte[] data) {
-        if (shouldSendFile(name)) {
-            websocketClient.send(BinaryMessageProtocol.FileMessage.encode(name, data));
-            sentFiles.add(name);
+    /**
+     * The images of the holder are large and not needed to start the validation.
+     */
+    static FrameScheduler.Priority priorityOf(String name) {
+        switch (name) {
+            case "dg2":
+            case "dg3":
+            case "dg4":
+            case "dg5":
+            case "dg7":
+                return FrameScheduler.Priority.BULK;
+            default:
+                return FrameScheduler.Priority.CONTROL;
         }
     }
 
+    private static FrameScheduler.Source whole(String name, byte[] data) {
+        return FrameScheduler.single(transport ->
+                transport.send(BinaryMessageProtocol.FileMessage.encode(name, data)));
+    }
+
+    private static FrameScheduler.Source chunked(String name, int total, FileStore.Chunks data) {
+        return new FrameScheduler.Source() {
+            private boolean started;
+            private int offset;
+            // A chunk that could not be sent yet
+            private ByteBuffer pending;
+
+            @Override
+            public boolean hasNext() {
+                // An empty file is still sent as one empty chunk
+                return !started || pending != null || data.hasNext();
+            }
+
+            @Override
+            public boolean sendNext(FrameScheduler.Transport transport) throws IOException {
+                if (pending == null) {
+                    started = true;
+                    pending = data.hasNext() ? data.next() : ByteBuffer.allocate(0);
+                }
+                int length = pending.remaining();
+                boolean sent = transport.send(BinaryMessageProtocol.FileChunkMessage.encode(
+                        name, offset, total, pending.duplicate()));
+                if (sent) {
+                    offset += length;
+                    pending = null;
+                }
+                return sent;
+            }
+        };
+    }
+
+    /**
+     * Prepends the header of a {@link BinaryMessageProtocol.FileMessage} to the file data.
+     */
+    private static FileStore.Chunks withHeader(String name, FileStore.Chunks data) {
+        ByteBuffer header = BinaryMessageProtocol.FileMessage.encode(name, new byte[0]);
+        return new FileStore.Chunks() {
+            private boolean headerSent;
+
+            @Override
+            public boolean hasNext() {
+                return !headerSent || data.hasNext();
+            }
+
+            @Override
+            public ByteBuffer next() throws IOException {
+                if (!headerSent) {
+                    headerSent = true;
+                    return header;
+                }
+                return data.next();
+            }
+        };
+    }
+
     private boolean shouldSendFile(String name) {
         // We MUST NOT send files that the server already has
-        return !sentFiles.contains(name) && !receivedFiles.containsKey(name);
+        return !sentFiles.contains(name) && !receivedFiles.contains(name);
     }
 
     public void receiveFile(String name, byte[] data) {
-        receivedFiles.put(name, data);
+        receivedFiles.add(name);
+        try {
+            store.put(RECEIVED + name, data);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to store received " + name, e);
+        }
     }
 
     public Optional<byte[]> getReceivedFile(String name) {
-        return Optional.ofNullable(receivedFiles.get(name));
+        try {
+            return Optional.ofNullable(store.get(RECEIVED + name));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read received " + name, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Deletes all stored files.
+     */
+    public void close() {
+        store.close();
+    }
+
+    /**
+     * A file transfer that can be abandoned when the connection is resumed.
+     */
+    private class Transfer implements FrameScheduler.Source {
+        private final String name;
+        private final FrameScheduler.Source source;
+        private volatile boolean cancelled;
+        private boolean started;
+
+        Transfer(String name, FrameScheduler.Source source) {
+            this.name = name;
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !cancelled && source.hasNext();
+        }
+
+        @Override
+        public boolean sendNext(FrameScheduler.Transport transport) throws IOException {
+            // A cancelled transfer is skipped, it was replaced by a new one
+            if (cancelled) {
+                return true;
+            }
+            boolean sent = source.sendNext(transport);
+            if (sent && !started) {
+                started = true;
+                Consumer<String> listener = startedListener;
+                if (listener != null) {
+                    listener.accept(name);
+                }
+            }
+            return sent;
+        }
     }
 }
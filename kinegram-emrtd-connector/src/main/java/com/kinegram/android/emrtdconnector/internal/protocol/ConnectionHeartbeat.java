@@ -0,0 +1,194 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import androidx.annotation.NonNull;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Detects dead WebSocket connections with WebSocket pings.
+ * <p>
+ * If nothing was received from the server for {@link #PING_INTERVAL_MS}, a ping is sent. The
+ * pong is used as RTT sample for the {@link RttEstimator}. The connection is considered lost if
+ * the server stays silent for {@link #MAX_MISSED_HEARTBEATS} retransmission timeouts after a
+ * ping, so the detection adapts to the link instead of using a fixed timeout, but never before
+ * {@link #MIN_TIMEOUT_MS}, one ping interval.
+ * <p>
+ * Any message received from the server counts as a sign of life. While outgoing data is still
+ * buffered, e.g. during the upload of a large file on a slow uplink, the server has nothing to
+ * respond and a ping would wait behind the data, so silence is only counted from the moment the
+ * buffer is empty. Data that already left the buffer can still be waiting in the send buffer of
+ * the socket, which is what the minimum timeout is for.
+ */
+public class ConnectionHeartbeat {
+    /**
+     * Receives the result of the liveness check. Called on the scheduler thread.
+     */
+    public interface Listener {
+        void onConnectionLost(long silenceMillis);
+    }
+
+    /**
+     * The monitored connection.
+     */
+    interface Link {
+        /**
+         * @return {@code true} if sent data is still waiting to be written to the socket.
+         */
+        boolean hasBufferedData();
+
+        void sendPing();
+    }
+
+    public static final long PING_INTERVAL_MS = 2000;
+    public static final int MAX_MISSED_HEARTBEATS = 3;
+    /**
+     * Minimum silence before the connection is considered lost, regardless of the RTT. Only
+     * matters on fast links, whose RTO would otherwise count a single late pong as lost.
+     */
+    public static final long MIN_TIMEOUT_MS = PING_INTERVAL_MS;
+    private static final long CHECK_INTERVAL_MS = 250;
+
+    private final ScheduledExecutorService scheduler;
+    private final RttEstimator rttEstimator;
+    private final Listener listener;
+    private final LongSupplier nanoClock;
+
+    private Link connection;
+    private ScheduledFuture<?> task;
+    private long lastReceivedNanos;
+    // Last time the server was received from or outgoing data was buffered
+    private long lastActivityNanos;
+    private long pingSentNanos;
+    private boolean pingOutstanding;
+    private boolean pingIsSample;
+
+    public ConnectionHeartbeat(
+            @NonNull ScheduledExecutorService scheduler,
+            @NonNull RttEstimator rttEstimator,
+            @NonNull Listener listener
+    ) {
+        this(scheduler, rttEstimator, listener, System::nanoTime);
+    }
+
+    ConnectionHeartbeat(
+            @NonNull ScheduledExecutorService scheduler,
+            @NonNull RttEstimator rttEstimator,
+            @NonNull Listener listener,
+            @NonNull LongSupplier nanoClock
+    ) {
+        this.scheduler = scheduler;
+        this.rttEstimator = rttEstimator;
+        this.listener = listener;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Starts monitoring a connection. A previously monitored connection is no longer monitored.
+     *
+     * @param connection The open connection.
+     */
+    public void start(@NonNull WebSocket connection) {
+        start(new Link() {
+            @Override
+            public boolean hasBufferedData() {
+                return connection.hasBufferedData();
+            }
+
+            @Override
+            public void sendPing() {
+                connection.sendPing();
+            }
+        });
+    }
+
+    synchronized void start(@NonNull Link connection) {
+        stop();
+        this.connection = connection;
+        lastReceivedNanos = nanoClock.getAsLong();
+        lastActivityNanos = lastReceivedNanos;
+        pingOutstanding = false;
+        try {
+            task = scheduler.scheduleWithFixedDelay(this::check,
+                    CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Session is closing
+        }
+    }
+
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        connection = null;
+    }
+
+    /**
+     * Call for every message received on the monitored connection.
+     */
+    public synchronized void onMessageReceived() {
+        lastReceivedNanos = nanoClock.getAsLong();
+        lastActivityNanos = lastReceivedNanos;
+    }
+
+    /**
+     * Call when a pong was received on the monitored connection.
+     */
+    public synchronized void onPong() {
+        long now = nanoClock.getAsLong();
+        lastReceivedNanos = now;
+        lastActivityNanos = now;
+        if (pingOutstanding && pingIsSample) {
+            rttEstimator.addSample(TimeUnit.NANOSECONDS.toMillis(now - pingSentNanos));
+        }
+        pingOutstanding = false;
+    }
+
+    void check() {
+        Long silenceMillis = null;
+        synchronized (this) {
+            if (connection == null) {
+                return;
+            }
+            long now = nanoClock.getAsLong();
+            boolean uploading = connection.hasBufferedData();
+            if (uploading) {
+                // The server has nothing to respond until it received the data
+                lastActivityNanos = now;
+            }
+            if (pingOutstanding) {
+                long since = Math.max(pingSentNanos, lastActivityNanos);
+                long silence = TimeUnit.NANOSECONDS.toMillis(now - since);
+                long timeout = Math.max(MIN_TIMEOUT_MS,
+                        MAX_MISSED_HEARTBEATS * rttEstimator.getRetransmissionTimeoutMillis());
+                if (silence > timeout) {
+                    silenceMillis = TimeUnit.NANOSECONDS.toMillis(now - lastReceivedNanos);
+                    stop();
+                } else if (lastReceivedNanos > pingSentNanos) {
+                    // Server is alive, the pong is probably queued behind other data
+                    pingOutstanding = false;
+                }
+            } else if (TimeUnit.NANOSECONDS.toMillis(now - lastReceivedNanos) >= PING_INTERVAL_MS) {
+                try {
+                    pingIsSample = !uploading;
+                    connection.sendPing();
+                    pingSentNanos = now;
+                    pingOutstanding = true;
+                } catch (WebsocketNotConnectedException e) {
+                    // onClose follows
+                    stop();
+                }
+            }
+        }
+        if (silenceMillis != null) {
+            listener.onConnectionLost(silenceMillis);
+        }
+    }
+}
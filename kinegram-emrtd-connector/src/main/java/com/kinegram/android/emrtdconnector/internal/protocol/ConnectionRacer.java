@@ -0,0 +1,340 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import androidx.annotation.NonNull;
+
+import org.java_websocket.client.WebSocketClient;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Races connection attempts to several DocVal endpoints and their addresses.
+ * <p>
+ * Follows Happy Eyeballs (RFC 8305): the host names of all endpoints are resolved in parallel,
+ * the addresses of an endpoint alternate between IPv6 and IPv4, and the endpoints take turns.
+ * A new attempt is started every {@link #ATTEMPT_DELAY_MS}, or right away when an attempt
+ * failed, without cancelling the attempts still running. The first successful WebSocket upgrade
+ * wins and all other attempts are closed. The race fails if nothing succeeded before the
+ * deadline.
+ * <p>
+ * The winning endpoint is remembered for {@link #FASTEST_ENDPOINT_TTL_MS} and tried first by
+ * later races over the same endpoints.
+ *
+ * @param <T> The type of the WebSocket clients.
+ */
+public class ConnectionRacer<T extends WebSocketClient> {
+    /**
+     * Creates the client for one attempt. The client must connect to the given address.
+     */
+    public interface Factory<T> {
+        T create(URI endpoint, InetAddress address);
+    }
+
+    public interface Listener<T> {
+        /**
+         * Called on the thread of the winning client, before it handles any message.
+         */
+        void onConnected(T client, URI endpoint, InetAddress address, int attemptCount);
+
+        void onFailed(Exception e);
+    }
+
+    public static final long ATTEMPT_DELAY_MS = 250;
+    public static final long FASTEST_ENDPOINT_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final Map<List<URI>, CachedEndpoint> FASTEST_ENDPOINTS =
+            new ConcurrentHashMap<>();
+
+    private final List<URI> configuredEndpoints;
+    private final List<URI> endpoints;
+    private final ScheduledExecutorService scheduler;
+    private final long deadlineMs;
+    private final Factory<T> factory;
+    private final Listener<T> listener;
+
+    private final List<List<InetAddress>> addresses = new ArrayList<>();
+    private final int[] nextAddress;
+    private final Map<T, Candidate> attempts = new HashMap<>();
+    private int pendingResolutions;
+    private int attemptCount;
+    private boolean done;
+    private Exception lastError;
+    private ScheduledFuture<?> ticker;
+    private ScheduledFuture<?> deadline;
+
+    public ConnectionRacer(
+            @NonNull List<URI> endpoints,
+            @NonNull ScheduledExecutorService scheduler,
+            long deadlineMs,
+            @NonNull Factory<T> factory,
+            @NonNull Listener<T> listener
+    ) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is required");
+        }
+        this.configuredEndpoints = new ArrayList<>(endpoints);
+        this.endpoints = preferFastest(configuredEndpoints);
+        this.scheduler = scheduler;
+        this.deadlineMs = deadlineMs;
+        this.factory = factory;
+        this.listener = listener;
+        this.nextAddress = new int[this.endpoints.size()];
+    }
+
+    public void start() {
+        synchronized (this) {
+            pendingResolutions = endpoints.size();
+            for (int i = 0; i < endpoints.size(); i++) {
+                addresses.add(null);
+            }
+            try {
+                deadline = scheduler.schedule(this::onDeadline, deadlineMs, TimeUnit.MILLISECONDS);
+                ticker = scheduler.scheduleWithFixedDelay(this::onTick,
+                        ATTEMPT_DELAY_MS, ATTEMPT_DELAY_MS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Session is closing
+                done = true;
+                return;
+            }
+        }
+        for (int i = 0; i < endpoints.size(); i++) {
+            int index = i;
+            // Lookups block, run them in parallel so a slow resolver does not hold up the others
+            new Thread(() -> resolve(index), "emrtd-dns").start();
+        }
+    }
+
+    /**
+     * Call when a client finished the WebSocket upgrade.
+     *
+     * @return {@code true} if the client won the race, otherwise it must be closed.
+     */
+    public boolean onOpened(T client) {
+        Candidate winner;
+        int count;
+        synchronized (this) {
+            winner = attempts.remove(client);
+            if (done || winner == null) {
+                return false;
+            }
+            count = attemptCount;
+            finishLocked();
+        }
+        if (configuredEndpoints.size() > 1) {
+            FASTEST_ENDPOINTS.put(configuredEndpoints, new CachedEndpoint(winner.endpoint,
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FASTEST_ENDPOINT_TTL_MS)));
+        }
+        listener.onConnected(client, winner.endpoint, winner.address, count);
+        return true;
+    }
+
+    /**
+     * Call when a client closed before finishing the WebSocket upgrade.
+     */
+    public void onAttemptFailed(T client, Exception e) {
+        Exception failure;
+        synchronized (this) {
+            if (done || attempts.remove(client) == null) {
+                return;
+            }
+            lastError = e;
+            launchNextLocked();
+            failure = exhaustedLocked();
+        }
+        if (failure != null) {
+            listener.onFailed(failure);
+        }
+    }
+
+    /**
+     * Stops the race and closes all running attempts. The listener is not called.
+     */
+    public synchronized void cancel() {
+        if (!done) {
+            finishLocked();
+        }
+    }
+
+    private void resolve(int index) {
+        URI endpoint = endpoints.get(index);
+        List<InetAddress> resolved;
+        Exception error = null;
+        try {
+            resolved = interleave(InetAddress.getAllByName(endpoint.getHost()));
+        } catch (UnknownHostException | SecurityException e) {
+            resolved = Collections.emptyList();
+            error = e;
+        }
+
+        Exception failure;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            addresses.set(index, resolved);
+            pendingResolutions--;
+            if (error != null) {
+                lastError = error;
+            }
+            if (attempts.isEmpty()) {
+                launchNextLocked();
+            }
+            failure = exhaustedLocked();
+        }
+        if (failure != null) {
+            listener.onFailed(failure);
+        }
+    }
+
+    private void onTick() {
+        synchronized (this) {
+            if (!done) {
+                launchNextLocked();
+            }
+        }
+    }
+
+    private void onDeadline() {
+        Exception failure;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            failure = new SocketTimeoutException(
+                    "No connection to the WebSocket Server within " + deadlineMs + " ms");
+            if (lastError != null) {
+                failure.initCause(lastError);
+            }
+            finishLocked();
+        }
+        listener.onFailed(failure);
+    }
+
+    private void launchNextLocked() {
+        // Take the next address of the endpoint that had the fewest attempts so far, so all
+        // endpoints get a chance early on. Ties go to the preferred endpoint.
+        int best = -1;
+        for (int i = 0; i < endpoints.size(); i++) {
+            List<InetAddress> list = addresses.get(i);
+            if (list == null || nextAddress[i] >= list.size()) {
+                continue;
+            }
+            if (best == -1 || nextAddress[i] < nextAddress[best]) {
+                best = i;
+            }
+        }
+        if (best == -1) {
+            return;
+        }
+
+        Candidate candidate = new Candidate(endpoints.get(best),
+                addresses.get(best).get(nextAddress[best]++));
+        T client = factory.create(candidate.endpoint, candidate.address);
+        attempts.put(client, candidate);
+        attemptCount++;
+        client.connect();
+    }
+
+    private Exception exhaustedLocked() {
+        if (!attempts.isEmpty() || pendingResolutions > 0) {
+            return null;
+        }
+        for (int i = 0; i < endpoints.size(); i++) {
+            if (nextAddress[i] < addresses.get(i).size()) {
+                return null;
+            }
+        }
+        finishLocked();
+        return lastError != null
+                ? lastError
+                : new UnknownHostException("No address for any endpoint");
+    }
+
+    private void finishLocked() {
+        done = true;
+        if (ticker != null) {
+            ticker.cancel(false);
+        }
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+        for (T client : attempts.keySet()) {
+            client.close();
+        }
+        attempts.clear();
+    }
+
+    private static List<URI> preferFastest(List<URI> endpoints) {
+        CachedEndpoint cached = FASTEST_ENDPOINTS.get(endpoints);
+        if (cached == null) {
+            return endpoints;
+        }
+        if (System.nanoTime() - cached.expiresAtNanos > 0 || !endpoints.contains(cached.endpoint)) {
+            FASTEST_ENDPOINTS.remove(endpoints);
+            return endpoints;
+        }
+        List<URI> ordered = new ArrayList<>(endpoints);
+        ordered.remove(cached.endpoint);
+        ordered.add(0, cached.endpoint);
+        return ordered;
+    }
+
+    /**
+     * Orders the addresses alternating between IPv6 and IPv4, starting with the family the
+     * resolver returned first.
+     */
+    private static List<InetAddress> interleave(InetAddress[] resolved) {
+        List<InetAddress> v6 = new ArrayList<>();
+        List<InetAddress> v4 = new ArrayList<>();
+        for (InetAddress address : resolved) {
+            (address instanceof Inet6Address ? v6 : v4).add(address);
+        }
+        boolean v6First = resolved.length > 0 && resolved[0] instanceof Inet6Address;
+        List<InetAddress> first = v6First ? v6 : v4;
+        List<InetAddress> second = v6First ? v4 : v6;
+
+        List<InetAddress> result = new ArrayList<>(resolved.length);
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                result.add(first.get(i));
+            }
+            if (i < second.size()) {
+                result.add(second.get(i));
+            }
+        }
+        return result;
+    }
+
+    private static class Candidate {
+        final URI endpoint;
+        final InetAddress address;
+
+        Candidate(URI endpoint, InetAddress address) {
+            this.endpoint = endpoint;
+            this.address = address;
+        }
+    }
+
+    private static class CachedEndpoint {
+        final URI endpoint;
+        final long expiresAtNanos;
+
+        CachedEndpoint(URI endpoint, long expiresAtNanos) {
+            this.endpoint = endpoint;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import androidx.annotation.NonNull;
+
+import net.sf.scuba.smartcards.APDUWrapper;
+import net.sf.scuba.smartcards.CardService;
+import net.sf.scuba.smartcards.CardServiceException;
+import net.sf.scuba.smartcards.CommandAPDU;
+import net.sf.scuba.smartcards.ResponseAPDU;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Reads single data groups from the chip through an established secure messaging session.
+ * <p>
+ * Used to read a data group again after the {@link com.kinegram.emrtd.EmrtdReader} finished,
+ * e.g. because its hash did not match the SOD.
+ */
+public class DataGroupReader {
+    private static final int SW_SUCCESS = 0x9000;
+    private static final int SW_END_OF_FILE = 0x6282;
+    private static final int INS_SELECT = 0xA4;
+    private static final int INS_READ_BINARY = 0xB0;
+    private static final int INS_READ_BINARY_ODD = 0xB1;
+    /**
+     * Largest short READ BINARY that still fits a response APDU with secure messaging.
+     */
+    public static final int MAX_SHORT_BLOCK_SIZE = 0xDF;
+    private static final int MAX_SHORT_OFFSET = 0x7FFF;
+
+    private final CardService cardService;
+    private final APDUWrapper wrapper;
+    private final int blockSize;
+
+    public DataGroupReader(@NonNull CardService cardService, @NonNull APDUWrapper wrapper) {
+        this(cardService, wrapper, MAX_SHORT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize Number of bytes to read with one READ BINARY. Blocks larger than
+     *                  {@link #MAX_SHORT_BLOCK_SIZE} need extended length APDUs.
+     */
+    public DataGroupReader(
+            @NonNull CardService cardService, @NonNull APDUWrapper wrapper, int blockSize) {
+        this.cardService = cardService;
+        this.wrapper = wrapper;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @param dataGroup The data group number (1 to 16).
+     * @return The raw content of the data group.
+     * @throws CardServiceException If the chip returned an error or the communication failed.
+     */
+    public byte[] read(int dataGroup) throws CardServiceException {
+        int fid = 0x0100 + dataGroup;
+        transmit(new CommandAPDU(0x0C, INS_SELECT, 0x02, 0x0C,
+                new byte[]{(byte) (fid >> 8), (byte) fid}));
+
+        // The length of the file follows from its TLV header
+        byte[] header = readBinary(0, 8);
+        int length = totalLength(header);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        out.write(header, 0, Math.min(header.length, length));
+        while (out.size() < length) {
+            byte[] block = readBinary(out.size(), Math.min(blockSize, length - out.size()));
+            if (block.length == 0) {
+                throw new CardServiceException("Unexpected end of DG" + dataGroup);
+            }
+            out.write(block, 0, block.length);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] readBinary(int offset, int length) throws CardServiceException {
+        if (offset <= MAX_SHORT_OFFSET) {
+            return transmit(new CommandAPDU(0x0C, INS_READ_BINARY,
+                    (offset >> 8) & 0x7F, offset & 0xFF, length));
+        }
+        // Offsets beyond 15 bits need the odd INS with the offset in DO'54'
+        byte[] offsetObject = new byte[]{0x54, 0x03,
+                (byte) (offset >> 16), (byte) (offset >> 8), (byte) offset};
+        byte[] response = transmit(new CommandAPDU(0x0C, INS_READ_BINARY_ODD, 0, 0,
+                offsetObject, length + 3));
+        return unwrapDiscretionaryData(response);
+    }
+
+    private byte[] transmit(CommandAPDU command) throws CardServiceException {
+        ResponseAPDU response = wrapper.unwrap(cardService.transmit(wrapper.wrap(command)));
+        int sw = response.getSW();
+        if (sw != SW_SUCCESS && sw != SW_END_OF_FILE) {
+            throw new CardServiceException("Command failed", sw);
+        }
+        return response.getData();
+    }
+
+    /**
+     * Total length of a BER-TLV object including tag and length, from its first bytes.
+     */
+    private static int totalLength(byte[] header) throws CardServiceException {
+        if (header.length < 2) {
+            throw new CardServiceException("Data group header too short");
+        }
+        int lengthOffset = (header[0] & 0x1F) == 0x1F ? 2 : 1;
+        int first = header[lengthOffset] & 0xFF;
+        if (first < 0x80) {
+            return lengthOffset + 1 + first;
+        }
+        int lengthBytes = first & 0x7F;
+        if (lengthBytes > 3 || header.length < lengthOffset + 1 + lengthBytes) {
+            throw new CardServiceException("Unsupported data group length encoding");
+        }
+        int length = 0;
+        for (int i = 0; i < lengthBytes; i++) {
+            length = (length << 8) | (header[lengthOffset + 1 + i] & 0xFF);
+        }
+        return lengthOffset + 1 + lengthBytes + length;
+    }
+
+    /**
+     * Extracts the content of DO'53' returned by READ BINARY with odd INS.
+     */
+    private static byte[] unwrapDiscretionaryData(byte[] response) throws CardServiceException {
+        if (response.length < 2 || response[0] != 0x53) {
+            throw new CardServiceException("Missing DO'53' in READ BINARY response");
+        }
+        int first = response[1] & 0xFF;
+        int offset;
+        int length;
+        if (first < 0x80) {
+            offset = 2;
+            length = first;
+        } else if (first == 0x81) {
+            offset = 3;
+            length = response[2] & 0xFF;
+        } else if (first == 0x82) {
+            offset = 4;
+            length = ((response[2] & 0xFF) << 8) | (response[3] & 0xFF);
+        } else {
+            throw new CardServiceException("Unsupported DO'53' length encoding");
+        }
+        byte[] data = new byte[Math.min(length, response.length - offset)];
+        System.arraycopy(response, offset, data, 0, data.length);
+        return data;
+    }
+}
@@ -4,9 +4,13 @@ import android.nfc.TagLostException;
 import android.nfc.tech.IsoDep;
 
 import com.kinegram.android.emrtdconnector.ChipAccessKey;
+import com.kinegram.android.emrtdconnector.ChipCapabilityCache;
 import com.kinegram.android.emrtdconnector.ClosedListener;
 import com.kinegram.android.emrtdconnector.ConnectionOptions;
 import com.kinegram.android.emrtdconnector.EmrtdConnector;
+import com.kinegram.android.emrtdconnector.NfcLinkProfile;
+import com.kinegram.android.emrtdconnector.NfcLinkProfiles;
+import com.kinegram.android.emrtdconnector.internal.ApduProfiler;
 import com.kinegram.android.emrtdconnector.internal.IsoDepCardService;
 import com.kinegram.emrtd.AccessInformation;
 import com.kinegram.emrtd.EmrtdReader;
@@ -17,10 +21,15 @@ import com.kinegram.emrtd.RemoteChipAuthentication;
 import com.kinegram.emrtd.protocols.AccessControlProtocolException;
 
 import net.sf.scuba.smartcards.CardService;
+import net.sf.scuba.smartcards.CardServiceException;
 
+import org.jmrtd.lds.icao.DG1File;
+import org.jmrtd.lds.icao.MRZInfo;
 import org.jmrtd.protocol.SecureMessagingWrapper;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
@@ -37,20 +46,20 @@ import io.opentelemetry.context.Scope;
  */
 public class EmrtdChipSession {
     /**
-     * NFC timeout in milliseconds.
-     * <p>
-     * Must be high enough to cover PACE operations (GENERAL AUTHENTICATE step
-     * 2/3), which can involve large payloads and non-trivial crypto on the
-     * chip.
-     * <p>
-     * ICAO Doc 9303-10 App. B.11 recommends that the PICC keep the total
-     * processing time for a single I-Block <= 5s even when using S(WTX). This
-     * is a PICC-side guideline, it is not the same as the host timeout. The
-     * Android IsoDep timeout must exceed the end-to-end APDU round trip
-     * (including any WTX handled by the NFC stack), so we have to use an even
-     * higher limit to have some headroom.
+     * How often a data group is read again if its hash does not match the SOD.
+     */
+    private static final int MAX_REREAD_ATTEMPTS = 2;
+    // Holds the public key of active authentication
+    private static final int DG15_NUMBER = 15;
+    /**
+     * Time the server needs for the chip authentication, apart from the network.
+     */
+    private static final long CA_HANDBACK_PROCESSING_MS = 5000;
+    /**
+     * Round trips between the handover and the handback: the handover itself and the APDUs the
+     * server relays to the chip.
      */
-    public static final int NFC_TIMEOUT_MS = 10_000;
+    private static final int CA_HANDBACK_ROUND_TRIPS = 4;
 
     /**
      * Listener for steps that happen during the session.
@@ -58,9 +67,20 @@ public class EmrtdChipSession {
     public interface Listener {
         void onEmrtdStep(EmrtdStep step);
 
-        void onFileReady(String name, byte[] data); // e.g. "dg14", "sod"
+        /**
+         * @param name         The name of the file, e.g. "dg14", "sod".
+         * @param hashVerified Whether the file matches its hash in the SOD. {@code false} if it
+         *                     does not, or if that could not be checked.
+         */
+        void onFileReady(String name, byte[] data, boolean hashVerified);
+
+        void onFileReadProgress(int current, int total);
 
-        void onFinish(EmrtdResult result);
+        /**
+         * @param activeAuthenticationSignature The signature of the active authentication
+         *                                      challenge, {@code null} if it was not done.
+         */
+        void onFinish(byte[] activeAuthenticationSignature);
 
         /**
          * Delegates the chip authentication to the listener.
@@ -73,23 +93,63 @@ public class EmrtdChipSession {
     private final IsoDep isoDep;
     private final ConnectionOptions options;
     private final Listener listener;
+    private final ApduProfiler profiler;
+    private final RttEstimator rttEstimator;
     private final EmrtdReader emrtdReader = new EmrtdReader();
+    private volatile SecureMessagingWrapper secureMessagingWrapper;
+    private volatile int maxBlockSize;
+    private byte[] answerToSelect;
+    private ChipCapabilityCache.Capabilities cachedCapabilities;
 
-    public EmrtdChipSession(IsoDep isoDep, ConnectionOptions options, Listener listener) {
+    /**
+     * @param rttEstimator The round trip time to the server, which the wait for the chip
+     *                     authentication handback is scaled to.
+     */
+    public EmrtdChipSession(
+            IsoDep isoDep, ConnectionOptions options, Listener listener, ApduProfiler profiler,
+            RttEstimator rttEstimator) {
         this.isoDep = isoDep;
         this.options = options;
         this.listener = listener;
+        this.profiler = profiler;
+        this.rttEstimator = rttEstimator;
+    }
+
+    /**
+     * Sets the secure messaging wrapper the reader continues with after chip authentication.
+     * The same instance must be passed to the reader, so it stays in sync with the chip and can
+     * be used to read data groups again.
+     */
+    public void setSecureMessagingWrapper(SecureMessagingWrapper secureMessagingWrapper) {
+        this.secureMessagingWrapper = secureMessagingWrapper;
+    }
+
+    /**
+     * @return The capabilities recorded for the document family of the chip, {@code null} if
+     * unknown. Does not communicate with the chip.
+     */
+    public static ChipCapabilityCache.Capabilities getCachedCapabilities(
+            IsoDep isoDep, ConnectionOptions options) {
+        ChipCapabilityCache cache = options.getChipCapabilityCache();
+        return cache != null ? cache.get(IsoDepCardService.getAnswerToSelect(isoDep)) : null;
     }
 
+    /**
+     * @param activeAuthenticationChallenge The challenge of the server, {@code null} to read
+     *                                      without active authentication.
+     */
     public void start(byte[] activeAuthenticationChallenge) {
+        NfcLinkProfile linkProfile = options.getNfcLinkProfile();
         Span chipSessionSpan = EmrtdConnector.getTracer().spanBuilder("nfc_chip_session")
-                .setAttribute("nfc.timeout_ms", NFC_TIMEOUT_MS)
+                .setAttribute("nfc.timeout_ms", linkProfile.getTimeoutMillis())
+                .setAttribute("nfc.presence_check_delay_ms",
+                        linkProfile.getPresenceCheckDelayMillis())
                 .setAttribute("emrtd_connector.validation_id", options.getValidationId())
                 .setAttribute("has_active_auth_challenge", activeAuthenticationChallenge != null)
                 .startSpan();
 
         try (Scope ignored = chipSessionSpan.makeCurrent()) {
-            isoDep.setTimeout(NFC_TIMEOUT_MS);
+            isoDep.setTimeout(linkProfile.getTimeoutMillis());
 
             if (!isoDep.isConnected()) {
                 chipSessionSpan.addEvent("nfc_connecting");
@@ -102,7 +162,12 @@ public class EmrtdChipSession {
                             .put("nfc.extended_length_supported", isoDep.isExtendedLengthApduSupported())
                             .build());
 
-            CardService cardService = new IsoDepCardService(isoDep, options.isDiagnosticsEnabled());
+            IsoDepCardService cardService = new IsoDepCardService(
+                    isoDep,
+                    options.isDiagnosticsEnabled(),
+                    linkProfile.isExtendedLengthEnabled(),
+                    profiler);
+            applyCachedCapabilities(cardService, chipSessionSpan);
             try {
                 EmrtdResult result = readEmrtdData(cardService, activeAuthenticationChallenge);
 
@@ -113,16 +178,33 @@ public class EmrtdChipSession {
                                 .put("emrtd.has_active_auth_result", result.activeAuthenticationResult != null)
                                 .build());
 
-                for (Map.Entry<Integer, byte[]> entry : result.dataGroupsRawBinary.entrySet()) {
-                    String name = "dg" + entry.getKey();
-                    listener.onFileReady(name, entry.getValue());
+                MRZInfo mrzInfo = parseMrzInfo(result);
+                byte[] activeAuthenticationSignature = result.activeAuthenticationResult != null
+                        ? result.activeAuthenticationResult.signature
+                        : null;
+                recordCapabilities(cardService, result, mrzInfo);
+                if (activeAuthenticationChallenge == null
+                        && result.dataGroupsRawBinary.containsKey(DG15_NUMBER)) {
+                    // Read early on a wrong guess, the next read of this family waits for the
+                    // challenge. The server would take the missing signature for a clone.
+                    chipSessionSpan.setStatus(StatusCode.ERROR, "No active authentication challenge");
+                    listener.onError(new IllegalStateException(
+                                    "Chip supports active authentication, read without challenge"),
+                            ClosedListener.EMRTD_PASSPORT_READER_ERROR);
+                    return;
                 }
-                listener.onFileReady("sod", result.sodRawBinary);
-                listener.onFinish(result);
+                sendVerifiedFiles(cardService, result);
+                // The files are in the file store now, the reader's copies can go
+                //noinspection UnusedAssignment
+                result = null;
+                recordLinkOutcome(cardService, true);
+                listener.onFinish(activeAuthenticationSignature);
             } catch (EmrtdReaderException e) {
                 chipSessionSpan.recordException(e);
                 if (hasNfcCommunicationErrorInCauseChain(e)) {
                     chipSessionSpan.setStatus(StatusCode.ERROR, "NFC communication failed");
+                    recordLinkOutcome(cardService, false);
+                    recordCapabilities(cardService, null, null);
                     listener.onError(e, ClosedListener.NFC_CHIP_COMMUNICATION_FAILED);
                 } else {
                     chipSessionSpan.setStatus(StatusCode.ERROR, "EMRTD reader error");
@@ -132,6 +214,8 @@ public class EmrtdChipSession {
                 chipSessionSpan.recordException(e);
                 if (hasNfcCommunicationErrorInCauseChain(e)) {
                     chipSessionSpan.setStatus(StatusCode.ERROR, "NFC communication failed");
+                    recordLinkOutcome(cardService, false);
+                    recordCapabilities(cardService, null, null);
                     listener.onError(e, ClosedListener.NFC_CHIP_COMMUNICATION_FAILED);
                 } else {
                     chipSessionSpan.setStatus(StatusCode.ERROR, "Access control failed");
@@ -149,6 +233,236 @@ public class EmrtdChipSession {
         }
     }
 
+    /**
+     * Passes the data groups and the SOD to the listener. Data groups are first checked against
+     * the hashes in the SOD, and read again while the document is still on the phone if they do
+     * not match.
+     * <p>
+     * The reader only returns the data groups when the whole document was read, so this is the
+     * earliest point to check them. Only the failing data group is read again, and only through
+     * the secure messaging session of the chip authentication handback: the session the reader
+     * established itself is not accessible. Documents without chip authentication are checked,
+     * but a mismatching data group is sent as it is and marked as not verified.
+     */
+    private void sendVerifiedFiles(IsoDepCardService cardService, EmrtdResult result) {
+        SodVerifier verifier = null;
+        try {
+            verifier = new SodVerifier(result.sodRawBinary);
+        } catch (IOException | RuntimeException e) {
+            // Leave it to the server
+            Span.current().recordException(e);
+        }
+
+        for (Map.Entry<Integer, byte[]> entry : result.dataGroupsRawBinary.entrySet()) {
+            int dataGroup = entry.getKey();
+            byte[] data = entry.getValue();
+            Boolean valid = verifier != null ? checkHash(verifier, dataGroup, data) : null;
+            if (Boolean.FALSE.equals(valid)) {
+                byte[] reread = readAgain(cardService, verifier, dataGroup, data);
+                // Otherwise the mismatching file is sent, the server will reject it
+                if (reread != null) {
+                    data = reread;
+                }
+                valid = reread != null;
+            }
+            listener.onFileReady("dg" + dataGroup, data, Boolean.TRUE.equals(valid));
+        }
+        // The SOD has no hash, its signature is checked by the server
+        listener.onFileReady("sod", result.sodRawBinary, false);
+    }
+
+    /**
+     * Hashing takes a few milliseconds even for the images, so it is done right here.
+     *
+     * @return Whether the data group matches its hash, {@code null} if that cannot be checked.
+     */
+    private static Boolean checkHash(SodVerifier verifier, int dataGroup, byte[] data) {
+        if (!verifier.hasHash(dataGroup)) {
+            return null;
+        }
+        try {
+            return verifier.verify(dataGroup, data);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            // E.g. unsupported digest algorithm
+            Span.current().recordException(e);
+            return null;
+        }
+    }
+
+    /**
+     * @return The data group that matches its hash, {@code null} if it could not be read again
+     * or still does not match.
+     */
+    private byte[] readAgain(
+            IsoDepCardService cardService, SodVerifier verifier, int dataGroup, byte[] data) {
+        Span span = EmrtdConnector.getTracer().spanBuilder("data_group_reread")
+                .setAttribute("emrtd.data_group", dataGroup)
+                .setAttribute("file.size", data.length)
+                .startSpan();
+        try (Scope ignored = span.makeCurrent()) {
+            SecureMessagingWrapper wrapper = secureMessagingWrapper;
+            if (wrapper == null) {
+                // The secure messaging session is internal to the reader without chip
+                // authentication, the server will reject the file
+                span.setStatus(StatusCode.ERROR, "Hash mismatch, no secure messaging session");
+                return null;
+            }
+
+            DataGroupReader reader =
+                    new DataGroupReader(cardService, wrapper, rereadBlockSize(cardService));
+            for (int attempt = 1; attempt <= MAX_REREAD_ATTEMPTS; attempt++) {
+                try {
+                    byte[] reread = reader.read(dataGroup);
+                    boolean valid = verifier.verify(dataGroup, reread);
+                    span.addEvent("data_group_reread_completed",
+                            Attributes.builder()
+                                    .put("attempt", attempt)
+                                    .put("file.size", reread.length)
+                                    .put("emrtd.hash_valid", valid)
+                                    .build());
+                    if (valid) {
+                        span.setStatus(StatusCode.OK);
+                        return reread;
+                    }
+                } catch (CardServiceException e) {
+                    // Transient NFC errors are worth another try
+                    span.recordException(e);
+                } catch (GeneralSecurityException e) {
+                    span.recordException(e);
+                    break;
+                }
+            }
+            span.setStatus(StatusCode.ERROR, "Hash mismatch after reading again");
+            return null;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Skips what is known not to work for this document family.
+     */
+    private void applyCachedCapabilities(IsoDepCardService cardService, Span span) {
+        ChipCapabilityCache cache = options.getChipCapabilityCache();
+        if (cache == null) {
+            return;
+        }
+        answerToSelect = cardService.getATR();
+        ChipCapabilityCache.Capabilities cached = cache.get(answerToSelect);
+        cachedCapabilities = cached;
+        if (cached == null) {
+            return;
+        }
+        if (Boolean.FALSE.equals(cached.extendedLength)) {
+            cardService.setExtendedLengthEnabled(false);
+        }
+        span.addEvent("chip_capabilities_cached",
+                Attributes.builder()
+                        .put("nfc.extended_length_enabled",
+                                cardService.isExtendedAPDULengthSupported())
+                        .put("nfc.max_block_size", cached.maxBlockSize)
+                        .put("emrtd.chip_authentication", cached.chipAuthentication)
+                        .put("emrtd.active_authentication", cached.activeAuthentication)
+                        .build());
+    }
+
+    /**
+     * Stores what worked in this session for the next read of the same document family.
+     *
+     * @param result  The result, {@code null} if the connection to the chip was lost.
+     * @param mrzInfo The MRZ of the document, {@code null} if not known.
+     */
+    private void recordCapabilities(
+            IsoDepCardService cardService, EmrtdResult result, MRZInfo mrzInfo) {
+        ChipCapabilityCache cache = options.getChipCapabilityCache();
+        if (cache == null) {
+            return;
+        }
+        ChipCapabilityCache.Capabilities cached = cachedCapabilities;
+        String issuingState = mrzInfo != null ? mrzInfo.getIssuingState() : null;
+        String documentCode = mrzInfo != null ? mrzInfo.getDocumentCode() : null;
+        boolean extendedLengthUsed = cardService.isExtendedAPDULengthSupported();
+        if (result == null) {
+            if (!cardService.hasExtendedLengthFailed()) {
+                // Nothing was learned about the family, e.g. the document was removed
+                return;
+            }
+            cache.record(answerToSelect, new ChipCapabilityCache.Capabilities(
+                    false,
+                    cached != null ? cached.maxBlockSize : 0,
+                    cached != null && cached.chipAuthentication,
+                    cached != null && cached.activeAuthentication,
+                    cached != null ? cached.issuingState : null,
+                    cached != null ? cached.documentCode : null,
+                    System.currentTimeMillis()));
+            return;
+        }
+        // Merge only with an entry of the same family, the answer to select alone can be shared
+        if (cached != null && !cached.isSameFamily(issuingState, documentCode)) {
+            cached = null;
+        }
+        Boolean extendedLength = extendedLengthUsed
+                ? Boolean.TRUE
+                : cached != null ? cached.extendedLength : null;
+        int blockSize = maxBlockSize > 0 ? maxBlockSize : cached != null ? cached.maxBlockSize : 0;
+        cache.record(answerToSelect, new ChipCapabilityCache.Capabilities(
+                extendedLength,
+                blockSize,
+                maxBlockSize > 0,
+                result.activeAuthenticationResult != null
+                        || result.dataGroupsRawBinary.containsKey(DG15_NUMBER),
+                issuingState,
+                documentCode,
+                System.currentTimeMillis()));
+    }
+
+    private static MRZInfo parseMrzInfo(EmrtdResult result) {
+        byte[] dg1 = result.dataGroupsRawBinary.get(1);
+        if (dg1 == null) {
+            return null;
+        }
+        try {
+            return new DG1File(new ByteArrayInputStream(dg1)).getMRZInfo();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The block size of the reader if it is known from this session or a previous read of the
+     * same family, limited to short APDUs if extended length APDUs are not used.
+     */
+    private int rereadBlockSize(IsoDepCardService cardService) {
+        int blockSize = maxBlockSize;
+        ChipCapabilityCache.Capabilities cached = cachedCapabilities;
+        if (blockSize <= 0 && cached != null) {
+            blockSize = cached.maxBlockSize;
+        }
+        if (blockSize <= 0) {
+            return DataGroupReader.MAX_SHORT_BLOCK_SIZE;
+        }
+        return cardService.isExtendedAPDULengthSupported()
+                ? blockSize
+                : Math.min(blockSize, DataGroupReader.MAX_SHORT_BLOCK_SIZE);
+    }
+
+    /**
+     * Lets the {@link NfcLinkProfiles} refine the profile for the next session. Only failures of
+     * the link count, not a removed document.
+     */
+    private void recordLinkOutcome(IsoDepCardService cardService, boolean success) {
+        NfcLinkProfiles profiles = options.getNfcLinkProfiles();
+        if (profiles == null) {
+            return;
+        }
+        if (success) {
+            profiles.recordSuccess(options.getNfcLinkProfile());
+        } else if (cardService.hasLinkFailed()) {
+            profiles.recordLinkFailure(options.getNfcLinkProfile(),
+                    cardService.hasExtendedLengthFailed());
+        }
+    }
+
     /**
      * Checks if the exception or any exception in its cause chain is an NFC communication error.
      */
@@ -196,7 +510,7 @@ public class EmrtdChipSession {
 
             @Override
             public void onFileReadProgress(int current, int total) {
-                // Could be used in the future to communicate progress
+                listener.onFileReadProgress(current, total);
             }
         };
     }
@@ -207,6 +521,7 @@ public class EmrtdChipSession {
             int maxBlockSize,
             SecureMessagingWrapper secureMessagingWrapper) {
 
+        this.maxBlockSize = maxBlockSize;
         Span authSpan = EmrtdConnector.getTracer().spanBuilder("chip_authentication")
                 .setAttribute("nfc.max_transceive_length", maxTransceiveLengthForSecureMessaging)
                 .setAttribute("nfc.max_block_size", maxBlockSize)
@@ -214,15 +529,20 @@ public class EmrtdChipSession {
                 .startSpan();
 
         try (Scope ignored = authSpan.makeCurrent()) {
-            listener.onFileReady("dg14", dg14Raw);
+            // Not checked here, the server checks it before the chip authentication
+            listener.onFileReady("dg14", dg14Raw, false);
 
             authSpan.addEvent("chip_auth_handover_started");
             CompletableFuture<RemoteChipAuthentication.Result> future = listener.onChipAuthenticationHandover(
                     maxTransceiveLengthForSecureMessaging, maxBlockSize, secureMessagingWrapper);
 
+            // Scaled to the link as measured when the handover is sent
+            long timeoutMillis = CA_HANDBACK_PROCESSING_MS
+                    + CA_HANDBACK_ROUND_TRIPS * rttEstimator.getRetransmissionTimeoutMillis();
+            authSpan.setAttribute("emrtd.handback_timeout_ms", timeoutMillis);
             RemoteChipAuthentication.Result result;
             try {
-                result = future.get(20, TimeUnit.SECONDS);
+                result = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
                 authSpan.addEvent("chip_auth_handover_completed",
                         Attributes.builder()
                                 .put("emrtd.auth_successful", result != null)
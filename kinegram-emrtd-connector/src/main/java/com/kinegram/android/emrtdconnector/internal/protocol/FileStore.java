@@ -0,0 +1,350 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * Keeps the files of a session within a memory budget.
+ * <p>
+ * Files are kept in memory as long as they fit into the budget. Larger files are written to a
+ * temporary file, encrypted with AES/CTR and a key that only exists in memory, so nothing
+ * readable is left behind if the process dies. Spilled files are read through a memory mapping
+ * and can be streamed in chunks without loading them completely. {@link #close()} deletes all
+ * temporary files. Files that were left behind because the process died are deleted the next
+ * time a file is spilled.
+ */
+public class FileStore implements Closeable {
+    /**
+     * Reads a stored file in chunks.
+     */
+    public interface Chunks {
+        boolean hasNext();
+
+        ByteBuffer next() throws IOException;
+    }
+
+    private static final String CIPHER = "AES/CTR/NoPadding";
+    private static final int IV_LENGTH = 16;
+    // Encrypted in blocks, so spilling does not need a second copy of the file in memory
+    private static final int BLOCK_SIZE = 16 * 1024;
+    private static final String PREFIX = "emrtd";
+    private static final String SUFFIX = ".bin";
+    // No session takes that long, older files were left behind by a process that died
+    private static final long STALE_AGE_MS = TimeUnit.HOURS.toMillis(1);
+    private static final AtomicBoolean staleDeleted = new AtomicBoolean();
+
+    private final long memoryBudget;
+    private final File directory;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private long memoryUsed;
+    private SecretKey key;
+    private boolean closed;
+
+    /**
+     * @param memoryBudget Maximum number of bytes kept in memory.
+     * @param directory    Where to put the temporary files, {@code null} for the default
+     *                     temporary directory (the cache directory of the app on Android).
+     */
+    public FileStore(long memoryBudget, @Nullable File directory) {
+        this.memoryBudget = memoryBudget;
+        this.directory = directory;
+    }
+
+    /**
+     * Stores a file, replacing a file with the same name.
+     */
+    public synchronized void put(@NonNull String name, @NonNull byte[] data) throws IOException {
+        if (closed) {
+            throw new IOException("File store is closed");
+        }
+        remove(name);
+        if (memoryUsed + data.length <= memoryBudget) {
+            entries.put(name, new MemoryEntry(data));
+            memoryUsed += data.length;
+        } else {
+            entries.put(name, spill(data));
+        }
+    }
+
+    public synchronized boolean contains(@NonNull String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * @return The content of the file, or {@code null} if there is no such file. Files kept in
+     * memory are returned as stored, not copied; they must not be modified.
+     */
+    @Nullable
+    public byte[] get(@NonNull String name) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(name);
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (entry instanceof MemoryEntry) {
+            return ((MemoryEntry) entry).data;
+        }
+        Chunks chunks = entry.open(Integer.MAX_VALUE);
+        ByteBuffer all = ByteBuffer.allocate(entry.length());
+        while (chunks.hasNext()) {
+            all.put(chunks.next());
+        }
+        return all.array();
+    }
+
+    /**
+     * @param chunkSize Maximum size of a chunk.
+     * @return The content of the file in chunks, or {@code null} if there is no such file.
+     */
+    @Nullable
+    public Chunks open(@NonNull String name, int chunkSize) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(name);
+        }
+        return entry == null ? null : entry.open(chunkSize);
+    }
+
+    /**
+     * @return The size of the file in bytes, or -1 if there is no such file.
+     */
+    public synchronized int size(@NonNull String name) {
+        Entry entry = entries.get(name);
+        return entry == null ? -1 : entry.length();
+    }
+
+    public synchronized boolean isSpilled(@NonNull String name) {
+        return entries.get(name) instanceof SpilledEntry;
+    }
+
+    /**
+     * Reads data that is not stored in chunks.
+     *
+     * @param chunkSize Maximum size of a chunk.
+     */
+    public static Chunks chunks(@NonNull byte[] data, int chunkSize) {
+        return new MemoryEntry(data).open(chunkSize);
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Entry entry : entries.values()) {
+            entry.delete();
+        }
+        entries.clear();
+        memoryUsed = 0;
+        key = null;
+    }
+
+    private void remove(String name) {
+        Entry entry = entries.remove(name);
+        if (entry instanceof MemoryEntry) {
+            memoryUsed -= entry.length();
+        } else if (entry != null) {
+            entry.delete();
+        }
+    }
+
+    private SpilledEntry spill(byte[] data) throws IOException {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        File file = File.createTempFile(PREFIX, SUFFIX, directory);
+        if (staleDeleted.compareAndSet(false, true)) {
+            deleteStale(file.getParentFile());
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            Cipher cipher = cipher(Cipher.ENCRYPT_MODE, iv);
+            byte[] buffer = new byte[cipher.getOutputSize(BLOCK_SIZE)];
+            int offset = 0;
+            do {
+                int length = Math.min(BLOCK_SIZE, data.length - offset);
+                int n = offset + length < data.length
+                        ? cipher.update(data, offset, length, buffer, 0)
+                        : cipher.doFinal(data, offset, length, buffer, 0);
+                // The file is read back in chunks of any size, every byte must be in its place
+                checkOutputLength(length, n);
+                out.write(buffer, 0, n);
+                offset += length;
+            } while (offset < data.length);
+        } catch (GeneralSecurityException | IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            throw e instanceof IOException
+                    ? (IOException) e
+                    : new IOException("Failed to encrypt file", e);
+        }
+        return new SpilledEntry(file, iv, data.length);
+    }
+
+    /**
+     * Deletes the files of sessions that never closed their store. The key of these files is
+     * gone, they cannot be read anymore.
+     */
+    private static void deleteStale(@Nullable File directory) {
+        File[] files = directory != null ? directory.listFiles() : null;
+        if (files == null) {
+            return;
+        }
+        long staleBefore = System.currentTimeMillis() - STALE_AGE_MS;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)
+                    && file.lastModified() < staleBefore) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    private static void checkOutputLength(int expected, int actual) throws IOException {
+        if (actual != expected) {
+            throw new IOException(
+                    "Cipher returned " + actual + " bytes instead of " + expected);
+        }
+    }
+
+    private synchronized Cipher cipher(int mode, byte[] iv) throws GeneralSecurityException {
+        if (key == null) {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(256);
+            key = generator.generateKey();
+        }
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(mode, key, new IvParameterSpec(iv));
+        return cipher;
+    }
+
+    private interface Entry {
+        int length();
+
+        Chunks open(int chunkSize) throws IOException;
+
+        void delete();
+    }
+
+    private static class MemoryEntry implements Entry {
+        private final byte[] data;
+
+        MemoryEntry(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int length() {
+            return data.length;
+        }
+
+        @Override
+        public Chunks open(int chunkSize) {
+            return new Chunks() {
+                private int offset;
+
+                @Override
+                public boolean hasNext() {
+                    return offset < data.length;
+                }
+
+                @Override
+                public ByteBuffer next() {
+                    int length = Math.min(chunkSize, data.length - offset);
+                    ByteBuffer chunk = ByteBuffer.wrap(data, offset, length).slice();
+                    offset += length;
+                    return chunk.asReadOnlyBuffer();
+                }
+            };
+        }
+
+        @Override
+        public void delete() {
+        }
+    }
+
+    private class SpilledEntry implements Entry {
+        private final File file;
+        private final byte[] iv;
+        private final int length;
+
+        SpilledEntry(File file, byte[] iv, int length) {
+            this.file = file;
+            this.iv = iv;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public Chunks open(int chunkSize) throws IOException {
+            MappedByteBuffer mapped;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                 FileChannel channel = raf.getChannel()) {
+                // The mapping stays valid after the channel is closed
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+            Cipher cipher;
+            try {
+                cipher = cipher(Cipher.DECRYPT_MODE, iv);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Failed to decrypt file", e);
+            }
+            byte[] buffer = new byte[Math.min(chunkSize, length)];
+            return new Chunks() {
+                @Override
+                public boolean hasNext() {
+                    return mapped.hasRemaining();
+                }
+
+                @Override
+                public ByteBuffer next() throws IOException {
+                    int n = Math.min(buffer.length, mapped.remaining());
+                    mapped.get(buffer, 0, n);
+                    byte[] plain;
+                    try {
+                        plain = mapped.hasRemaining()
+                                ? cipher.update(buffer, 0, n)
+                                : cipher.doFinal(buffer, 0, n);
+                    } catch (GeneralSecurityException e) {
+                        throw new IOException("Failed to decrypt file", e);
+                    }
+                    if (plain == null) {
+                        plain = new byte[0];
+                    }
+                    checkOutputLength(n, plain.length);
+                    return ByteBuffer.wrap(plain);
+                }
+            };
+        }
+
+        @Override
+        public void delete() {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+}
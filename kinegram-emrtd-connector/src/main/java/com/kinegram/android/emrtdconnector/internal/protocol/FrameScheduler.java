@@ -0,0 +1,327 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Sends all outgoing messages of a session in order of their priority.
+ * <p>
+ * Messages are sent by a single task, which runs on the given executor for as long as the
+ * scheduler is not shut down. A large file is sent as a sequence of chunks, and after
+ * every chunk the queue is checked again, so an APDU response never waits for more than the
+ * chunk that is currently on the wire. Bulk messages are only handed to the WebSocket once its
+ * send buffer is empty, otherwise the buffer itself would delay urgent messages. Messages with
+ * the same priority are sent in the order they were submitted.
+ * <p>
+ * If a message cannot be sent because the connection is lost, it is kept and the scheduler holds
+ * all messages until {@link #resume()} is called for the resumed connection. Nothing is dropped
+ * unless the scheduler is shut down.
+ */
+public class FrameScheduler {
+    private static final String TAG = "FrameScheduler";
+    // How long to wait for the WebSocket send buffer to drain before checking again
+    private static final long BUSY_WAIT_MS = 2;
+
+    public enum Priority {
+        /**
+         * Relay traffic the server is waiting for (APDU responses, CA_HANDOVER).
+         */
+        URGENT,
+        /**
+         * Small files the server needs first (SOD, DG1, ...) and control messages.
+         */
+        CONTROL,
+        /**
+         * Large files like the images of the holder, and everything that has to follow them.
+         */
+        BULK
+    }
+
+    /**
+     * Writes messages to the WebSocket.
+     */
+    public interface Transport {
+        /**
+         * @return {@code false} if the message could not be sent because there is no connection.
+         */
+        boolean send(ByteBuffer message);
+
+        /**
+         * @return {@code false} if the message could not be sent because there is no connection.
+         */
+        boolean send(String message);
+
+        /**
+         * Sends one message as several WebSocket frames, with no other message in between.
+         *
+         * @return {@code false} if the message could not be sent because there is no connection.
+         */
+        boolean sendFragmented(FileStore.Chunks fragments);
+
+        /**
+         * @return {@code true} if previously sent messages are still waiting in the send buffer.
+         */
+        boolean isBusy();
+    }
+
+    /**
+     * A message, or a sequence of messages that are sent one after another, e.g. the chunks of a
+     * file.
+     */
+    public interface Source {
+        boolean hasNext();
+
+        /**
+         * Sends the next message.
+         *
+         * @return {@code false} if the message could not be sent because there is no connection.
+         * @throws IOException If the message could not be read.
+         */
+        boolean sendNext(Transport transport) throws IOException;
+    }
+
+    private final Transport transport;
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    // The thread that sends, null before it started
+    private Thread thread;
+    private long nextSequence;
+    private boolean paused;
+    private boolean shutdown;
+
+    /**
+     * Sends on a thread of its own.
+     */
+    FrameScheduler(@NonNull Transport transport) {
+        this(transport, task -> {
+            Thread thread = new Thread(task, "emrtd-frame-scheduler");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * @param executor Runs the sending task until the scheduler is shut down.
+     */
+    public FrameScheduler(@NonNull Transport transport, @NonNull Executor executor) {
+        this.transport = transport;
+        executor.execute(this::run);
+    }
+
+    public void submit(@NonNull Priority priority, @NonNull ByteBuffer message) {
+        submit(priority, single(t -> t.send(message)), null);
+    }
+
+    public void submit(@NonNull Priority priority, @NonNull String message) {
+        submit(priority, single(t -> t.send(message)), null);
+    }
+
+    /**
+     * @param onComplete Called on the scheduler thread with {@code true} once everything was sent,
+     *                   or {@code false} if sending failed. The rest of the source is dropped in
+     *                   that case.
+     */
+    public synchronized void submit(
+            @NonNull Priority priority,
+            @NonNull Source source,
+            @Nullable Consumer<Boolean> onComplete) {
+        if (shutdown) {
+            if (onComplete != null) {
+                onComplete.accept(false);
+            }
+            return;
+        }
+        queue.add(new Entry(priority, nextSequence++, source, onComplete, false));
+        notifyAll();
+    }
+
+    /**
+     * Submits a message that is only sent after everything that was submitted before it, e.g. a
+     * message the server can only process once it received the files. Once they are sent, it
+     * is sent according to its priority.
+     */
+    public synchronized void submitAfterQueued(@NonNull Priority priority, @NonNull Source source) {
+        if (shutdown) {
+            return;
+        }
+        queue.add(new Entry(priority, nextSequence++, source, null, true));
+        notifyAll();
+    }
+
+    /**
+     * Holds all messages until {@link #resume()} is called.
+     */
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    /**
+     * Sends the held messages, e.g. once the connection is resumed.
+     */
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    /**
+     * Stops sending. Messages that were not sent yet are dropped.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        notifyAll();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            thread = Thread.currentThread();
+        }
+        try {
+            while (true) {
+                Entry entry = take();
+                if (entry == null) {
+                    return;
+                }
+                boolean sent;
+                try {
+                    sent = entry.source.sendNext(transport);
+                } catch (IOException | RuntimeException e) {
+                    Log.w(TAG, "Failed to send message", e);
+                    entry.complete(false);
+                    continue;
+                }
+                if (!sent && entry.source.hasNext()) {
+                    // No connection, hold everything until the connection is resumed
+                    synchronized (this) {
+                        paused = true;
+                        queue.add(entry);
+                    }
+                } else if (sent && entry.source.hasNext()) {
+                    // Keeps its sequence number, so it stays ahead of later messages
+                    synchronized (this) {
+                        queue.add(entry);
+                    }
+                } else {
+                    entry.complete(sent);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Shut down
+        } finally {
+            synchronized (this) {
+                thread = null;
+            }
+            // The thread goes back to the pool, the interrupt was meant for this task only
+            //noinspection ResultOfMethodCallIgnored
+            Thread.interrupted();
+        }
+    }
+
+    @Nullable
+    private synchronized Entry take() throws InterruptedException {
+        while (!shutdown) {
+            Entry head = paused ? null : next();
+            if (head == null) {
+                wait();
+            } else if (head.priority == Priority.BULK && transport.isBusy()) {
+                // Woken early if something more urgent is submitted
+                wait(BUSY_WAIT_MS);
+            } else {
+                queue.remove(head);
+                return head;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The entry to send next. An entry that waits for earlier entries is skipped as long as
+     * there are any. Unfinished entries are always in the queue while this is called, as they
+     * are sent by the same thread.
+     */
+    @Nullable
+    private Entry next() {
+        Entry head = queue.peek();
+        if (head == null || !head.afterQueued) {
+            return head;
+        }
+        long first = Long.MAX_VALUE;
+        for (Entry entry : queue) {
+            first = Math.min(first, entry.sequence);
+        }
+        Entry next = null;
+        for (Entry entry : queue) {
+            if ((!entry.afterQueued || entry.sequence == first)
+                    && (next == null || entry.compareTo(next) < 0)) {
+                next = entry;
+            }
+        }
+        return next;
+    }
+
+    interface SendAction {
+        boolean send(Transport transport);
+    }
+
+    /**
+     * A source of one message.
+     */
+    static Source single(SendAction action) {
+        return new Source() {
+            private boolean sent;
+
+            @Override
+            public boolean hasNext() {
+                return !sent;
+            }
+
+            @Override
+            public boolean sendNext(Transport transport) {
+                // Can be sent again if there was no connection
+                sent = action.send(transport);
+                return sent;
+            }
+        };
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        final Priority priority;
+        final long sequence;
+        final Source source;
+        final Consumer<Boolean> onComplete;
+        final boolean afterQueued;
+
+        Entry(Priority priority, long sequence, Source source, Consumer<Boolean> onComplete,
+                boolean afterQueued) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.source = source;
+            this.onComplete = onComplete;
+            this.afterQueued = afterQueued;
+        }
+
+        void complete(boolean sent) {
+            if (onComplete != null) {
+                onComplete.accept(sent);
+            }
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kinegram.android.emrtdconnector.internal.protocol.message.WebsocketMonitoringMessage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the monitoring events of a session, so they can be sent as a single MONITORING
+ * message while the reader does not need the connection (e.g. after FINISH), instead of one
+ * frame per event while the chip is read.
+ * <p>
+ * Every event is stored as one line with the time since the session started, e.g.
+ * {@code "+1234ms Step: READ_DG2"}. The message keeps the format of a single MONITORING
+ * message, so the server does not need to know about batches.
+ */
+public class MonitoringBuffer {
+    // Keeps the batch small even if a session runs for a long time
+    static final int MAX_EVENTS = 256;
+
+    private final long startNanos = System.nanoTime();
+    private final StringBuilder lines = new StringBuilder();
+    private int count;
+    private int dropped;
+
+    /**
+     * @param event The event, without line breaks.
+     */
+    public synchronized void add(@NonNull String event) {
+        if (count >= MAX_EVENTS) {
+            dropped++;
+            return;
+        }
+        if (lines.length() > 0) {
+            lines.append('\n');
+        }
+        lines.append('+')
+                .append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos))
+                .append("ms ")
+                .append(event);
+        count++;
+    }
+
+    /**
+     * Takes all collected events out of the buffer.
+     *
+     * @return The events as one message, or {@code null} if there are none.
+     */
+    @Nullable
+    public synchronized WebsocketMonitoringMessage drain() {
+        if (count == 0 && dropped == 0) {
+            return null;
+        }
+        if (dropped > 0) {
+            if (lines.length() > 0) {
+                lines.append('\n');
+            }
+            lines.append("Dropped ").append(dropped).append(" events");
+        }
+        WebsocketMonitoringMessage message = new WebsocketMonitoringMessage(lines.toString());
+        lines.setLength(0);
+        count = 0;
+        dropped = 0;
+        return message;
+    }
+}
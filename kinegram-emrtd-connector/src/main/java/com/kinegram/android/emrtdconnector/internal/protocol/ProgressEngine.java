@@ -0,0 +1,304 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import androidx.annotation.NonNull;
+
+import com.kinegram.android.emrtdconnector.ReadProgress;
+import com.kinegram.emrtd.EmrtdStep;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Estimates the {@link ReadProgress} of a session from the steps of the reader, the byte progress
+ * of the file being read and the files waiting to be uploaded.
+ * <p>
+ * The remaining time is the time to read the rest of the chip, or the time to upload everything
+ * that is not on the server yet if the upload is the bottleneck, plus the time the server needs
+ * for the result. The rest of the read is planned from what the session knows: steps that were
+ * done are taken off the plan, and chip and active authentication only stay on it if the
+ * document family is not known to skip them. Files that were not read yet are assumed to have a
+ * typical size, steps that do not read files a typical duration. Throughputs start with
+ * conservative defaults and are smoothed from the measured samples; the upload of a file is
+ * timed from its first written frame, not from when it was queued behind other files.
+ * <p>
+ * Updates are rate limited to {@link ReadProgress#MIN_INTERVAL_MS}, except for new steps and the
+ * final update.
+ */
+public class ProgressEngine {
+    private static final Map<EmrtdStep, Integer> TYPICAL_FILE_SIZES =
+            new EnumMap<>(EmrtdStep.class);
+    private static final Map<EmrtdStep, Long> TYPICAL_STEP_MILLIS =
+            new EnumMap<>(EmrtdStep.class);
+
+    static {
+        // Optional data groups are weighted by how often they are present
+        TYPICAL_FILE_SIZES.put(EmrtdStep.READ_SOD, 2000);
+        TYPICAL_FILE_SIZES.put(EmrtdStep.READ_DG14, 600);
+        TYPICAL_FILE_SIZES.put(EmrtdStep.READ_DG15, 200);
+        TYPICAL_FILE_SIZES.put(EmrtdStep.READ_DG1, 100);
+        TYPICAL_FILE_SIZES.put(EmrtdStep.READ_DG2, 18_000);
+        TYPICAL_FILE_SIZES.put(EmrtdStep.READ_DG7, 500);
+        TYPICAL_FILE_SIZES.put(EmrtdStep.READ_DG11, 150);
+        TYPICAL_FILE_SIZES.put(EmrtdStep.READ_DG12, 150);
+
+        TYPICAL_STEP_MILLIS.put(EmrtdStep.READ_ATR_INFO, 150L);
+        TYPICAL_STEP_MILLIS.put(EmrtdStep.ACCESS_CONTROL, 800L);
+        TYPICAL_STEP_MILLIS.put(EmrtdStep.CHIP_AUTHENTICATION, 1000L);
+        TYPICAL_STEP_MILLIS.put(EmrtdStep.ACTIVE_AUTHENTICATION, 300L);
+        TYPICAL_STEP_MILLIS.put(EmrtdStep.PASSIVE_AUTHENTICATION, 100L);
+    }
+
+    private static final double DEFAULT_CHIP_BYTES_PER_SECOND = 4000;
+    private static final double DEFAULT_UPLOAD_BYTES_PER_SECOND = 50_000;
+    // Connecting to the server before the first step
+    private static final long CONNECT_MILLIS = 500;
+    // From the FINISH message until the result arrives
+    private static final long SERVER_MILLIS = 1000;
+    // Weight of a new throughput sample
+    private static final double ALPHA = 0.3;
+    // Shorter uploads only measure handing the frames to the socket
+    private static final long MIN_UPLOAD_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long MIN_INTERVAL_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(ReadProgress.MIN_INTERVAL_MS);
+
+    private final Consumer<ReadProgress> listener;
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Long> uploadStartNanos = new HashMap<>();
+    private final Map<String, Integer> queuedSizes = new HashMap<>();
+    // The steps that are still expected, apart from the current one
+    private final Set<EmrtdStep> plan = EnumSet.noneOf(EmrtdStep.class);
+
+    private EmrtdStep step;
+    private long stepStartNanos;
+    private int fileRead;
+    private int fileTotal;
+    private long previousFilesBytes;
+    private long lastSampleNanos;
+    private int lastSampleBytes;
+    private double chipBytesPerSecond = DEFAULT_CHIP_BYTES_PER_SECOND;
+    private double uploadBytesPerSecond = DEFAULT_UPLOAD_BYTES_PER_SECOND;
+    private long pendingUploadBytes;
+    private boolean readFinished;
+    private boolean done;
+    private long lastEmitNanos;
+    private double lastFraction;
+    private ReadProgress progress;
+
+    /**
+     * @param listener Receives the rate limited updates, on the thread that caused them.
+     */
+    public ProgressEngine(@NonNull Consumer<ReadProgress> listener) {
+        this.listener = listener;
+        plan.addAll(TYPICAL_FILE_SIZES.keySet());
+        plan.addAll(TYPICAL_STEP_MILLIS.keySet());
+    }
+
+    /**
+     * Takes what an earlier read of the same document family did off the plan.
+     *
+     * @param chipAuthentication   Whether chip authentication is expected.
+     * @param activeAuthentication Whether active authentication is expected.
+     */
+    public synchronized void onCapabilitiesKnown(
+            boolean chipAuthentication, boolean activeAuthentication) {
+        if (!chipAuthentication) {
+            plan.remove(EmrtdStep.READ_DG14);
+            plan.remove(EmrtdStep.CHIP_AUTHENTICATION);
+        }
+        if (!activeAuthentication) {
+            plan.remove(EmrtdStep.READ_DG15);
+            plan.remove(EmrtdStep.ACTIVE_AUTHENTICATION);
+        }
+    }
+
+    /**
+     * @return The latest progress, {@code null} before the first update.
+     */
+    public synchronized ReadProgress getProgress() {
+        return progress;
+    }
+
+    public void onStep(@NonNull EmrtdStep newStep) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            completeFile();
+            step = newStep;
+            plan.remove(newStep);
+            stepStartNanos = System.nanoTime();
+            lastSampleNanos = stepStartNanos;
+            lastSampleBytes = 0;
+        }
+        update(true);
+    }
+
+    public void onFileReadProgress(int current, int total) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            long now = System.nanoTime();
+            int bytes = current - lastSampleBytes;
+            long nanos = now - lastSampleNanos;
+            if (bytes > 0 && nanos > 0) {
+                chipBytesPerSecond = smooth(
+                        chipBytesPerSecond, bytes * (double) TimeUnit.SECONDS.toNanos(1) / nanos);
+                lastSampleBytes = current;
+                lastSampleNanos = now;
+            }
+            fileRead = current;
+            fileTotal = total;
+        }
+        update(false);
+    }
+
+    /**
+     * @param name Name of the file that is waiting to be sent to the server.
+     * @param size Size of the file.
+     */
+    public synchronized void onFileQueued(@NonNull String name, int size) {
+        queuedSizes.put(name, size);
+        pendingUploadBytes += size;
+    }
+
+    /**
+     * @param name Name of the file of which the first frame was written.
+     */
+    public synchronized void onFileUploadStarted(@NonNull String name) {
+        if (queuedSizes.containsKey(name)) {
+            uploadStartNanos.putIfAbsent(name, System.nanoTime());
+        }
+    }
+
+    /**
+     * @param name Name of the file that was sent completely.
+     */
+    public void onFileSent(@NonNull String name) {
+        synchronized (this) {
+            Long started = uploadStartNanos.remove(name);
+            Integer size = queuedSizes.remove(name);
+            if (size == null) {
+                // Sent again after a reconnect
+                return;
+            }
+            pendingUploadBytes -= size;
+            long nanos = started != null ? System.nanoTime() - started : 0;
+            if (nanos >= MIN_UPLOAD_SAMPLE_NANOS) {
+                uploadBytesPerSecond = smooth(
+                        uploadBytesPerSecond, size * (double) TimeUnit.SECONDS.toNanos(1) / nanos);
+            }
+        }
+        update(false);
+    }
+
+    /**
+     * The chip was read completely.
+     */
+    public void onReadFinished() {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            completeFile();
+            step = EmrtdStep.DONE;
+            plan.clear();
+            readFinished = true;
+        }
+        update(true);
+    }
+
+    /**
+     * The result of the server arrived.
+     */
+    public void onDone() {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            readFinished = true;
+            done = true;
+        }
+        update(true);
+    }
+
+    private void completeFile() {
+        if (fileTotal > 0) {
+            previousFilesBytes += fileTotal;
+        }
+        fileRead = 0;
+        fileTotal = 0;
+    }
+
+    private void update(boolean force) {
+        ReadProgress update;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (!force && now - lastEmitNanos < MIN_INTERVAL_NANOS) {
+                return;
+            }
+            lastEmitNanos = now;
+            update = estimate(now);
+            progress = update;
+        }
+        listener.accept(update);
+    }
+
+    private ReadProgress estimate(long now) {
+        long bytesRead = previousFilesBytes + fileRead;
+        long unreadBytes = 0;
+        long chipMillis = 0;
+
+        if (!readFinished) {
+            if (step == null) {
+                chipMillis += CONNECT_MILLIS;
+            } else if (TYPICAL_FILE_SIZES.containsKey(step)) {
+                int total = fileTotal > 0 ? fileTotal : TYPICAL_FILE_SIZES.get(step);
+                unreadBytes += Math.max(0, total - fileRead);
+            } else if (TYPICAL_STEP_MILLIS.containsKey(step)) {
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(now - stepStartNanos);
+                chipMillis += Math.max(0, TYPICAL_STEP_MILLIS.get(step) - elapsed);
+            }
+            for (EmrtdStep next : plan) {
+                Integer size = TYPICAL_FILE_SIZES.get(next);
+                if (size != null) {
+                    unreadBytes += size;
+                }
+                Long millis = TYPICAL_STEP_MILLIS.get(next);
+                if (millis != null) {
+                    chipMillis += millis;
+                }
+            }
+            chipMillis += Math.round(unreadBytes * 1000 / chipBytesPerSecond);
+        }
+
+        // Uploading overlaps with reading, only the slower of the two counts
+        long uploadMillis = Math.round(
+                (pendingUploadBytes + unreadBytes) * 1000 / uploadBytesPerSecond);
+        long remainingMillis = done ? 0 : Math.max(chipMillis, uploadMillis) + SERVER_MILLIS;
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(now - startNanos);
+        double fraction = done
+                ? 1
+                : Math.min(0.99, elapsedMillis / (double) (elapsedMillis + remainingMillis));
+        lastFraction = Math.max(lastFraction, fraction);
+
+        return new ReadProgress(
+                lastFraction,
+                remainingMillis,
+                bytesRead,
+                bytesRead + unreadBytes,
+                step == null ? null : step.name(),
+                Math.round(chipBytesPerSecond),
+                Math.round(uploadBytesPerSecond));
+    }
+
+    private static double smooth(double current, double sample) {
+        return (1 - ALPHA) * current + ALPHA * sample;
+    }
+}
@@ -0,0 +1,71 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+/**
+ * Estimates the round trip time to the server from heartbeat samples.
+ * <p>
+ * Uses the smoothed RTT and RTT variation of RFC 6298. The retransmission timeout derived from
+ * them ({@code SRTT + 4 * RTTVAR}) is what the heartbeat uses to decide whether a response is
+ * overdue, and what other components can use to scale their own timeouts to the current link.
+ */
+public class RttEstimator {
+    /**
+     * Timeout before the first sample, as recommended by RFC 6298.
+     */
+    public static final long INITIAL_RTO_MS = 1000;
+    public static final long MIN_RTO_MS = 500;
+    public static final long MAX_RTO_MS = 10_000;
+
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+    private static final int K = 4;
+
+    private double smoothedRttMillis;
+    private double rttVariationMillis;
+    private long rtoMillis = INITIAL_RTO_MS;
+    private int sampleCount;
+
+    /**
+     * Adds a measured round trip time.
+     *
+     * @param rttMillis The measured round trip time in milliseconds.
+     */
+    public synchronized void addSample(long rttMillis) {
+        double sample = Math.max(0, rttMillis);
+        if (sampleCount == 0) {
+            smoothedRttMillis = sample;
+            rttVariationMillis = sample / 2;
+        } else {
+            rttVariationMillis = (1 - BETA) * rttVariationMillis
+                    + BETA * Math.abs(smoothedRttMillis - sample);
+            smoothedRttMillis = (1 - ALPHA) * smoothedRttMillis + ALPHA * sample;
+        }
+        sampleCount++;
+        long rto = Math.round(smoothedRttMillis + K * rttVariationMillis);
+        rtoMillis = Math.min(MAX_RTO_MS, Math.max(MIN_RTO_MS, rto));
+    }
+
+    /**
+     * @return The smoothed round trip time in milliseconds, or -1 if there is no sample yet.
+     */
+    public synchronized long getSmoothedRttMillis() {
+        return sampleCount == 0 ? -1 : Math.round(smoothedRttMillis);
+    }
+
+    /**
+     * @return The round trip time variation in milliseconds, or -1 if there is no sample yet.
+     */
+    public synchronized long getRttVariationMillis() {
+        return sampleCount == 0 ? -1 : Math.round(rttVariationMillis);
+    }
+
+    /**
+     * @return The time after which a response should be considered overdue, in milliseconds.
+     */
+    public synchronized long getRetransmissionTimeoutMillis() {
+        return rtoMillis;
+    }
+
+    public synchronized int getSampleCount() {
+        return sampleCount;
+    }
+}
@@ -0,0 +1,373 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import androidx.annotation.NonNull;
+
+import net.sf.scuba.smartcards.CommandAPDU;
+import net.sf.scuba.smartcards.ResponseAPDU;
+
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Secure messaging as specified in ICAO Doc 9303-11 (9.8), for the wrappers created when the
+ * server hands the chip back.
+ * <p>
+ * The APDUs are the same as with the wrappers of jMRTD. The difference is where the cryptography
+ * comes from: all ciphers are taken from the providers pinned by
+ * {@link SecureMessagingProviders}, and the MACs (AES-CMAC, ISO/IEC 9797-1 MAC algorithm 3) are
+ * computed with these ciphers instead of the Java implementations of Bouncy Castle. The ciphers
+ * are created once per session and only initialized again for every APDU.
+ * <p>
+ * Not thread-safe, like the reader that uses it.
+ */
+class SecureMessaging {
+    private static final int MAC_LENGTH = 8;
+    private static final int TAG_ENCRYPTED_DATA = 0x87;
+    private static final int TAG_ENCRYPTED_BER_TLV_DATA = 0x85;
+    private static final int TAG_EXPECTED_LENGTH = 0x97;
+    private static final int TAG_STATUS_WORD = 0x99;
+    private static final int TAG_MAC = 0x8E;
+
+    private final int blockSize;
+    private final SecretKey encryptionKey;
+    private final Cipher cipher;
+    // AES only: derives the IV from the send sequence counter
+    private final Cipher ivCipher;
+    private final MacFunction mac;
+
+    private SecureMessaging(int blockSize, SecretKey encryptionKey, Cipher cipher,
+                            Cipher ivCipher, MacFunction mac) {
+        this.blockSize = blockSize;
+        this.encryptionKey = encryptionKey;
+        this.cipher = cipher;
+        this.ivCipher = ivCipher;
+        this.mac = mac;
+    }
+
+    @NonNull
+    static SecureMessaging aes(@NonNull byte[] encryptionKey, @NonNull byte[] macKey)
+            throws GeneralSecurityException {
+        SecretKey kEnc = new SecretKeySpec(encryptionKey, "AES");
+        Cipher ivCipher = SecureMessagingProviders.getCipher(SecureMessagingProviders.AES_ECB);
+        ivCipher.init(Cipher.ENCRYPT_MODE, kEnc);
+        return new SecureMessaging(16, kEnc,
+                SecureMessagingProviders.getCipher(SecureMessagingProviders.AES_CBC),
+                ivCipher,
+                new AesCmac(new SecretKeySpec(macKey, "AES")));
+    }
+
+    @NonNull
+    static SecureMessaging desede(@NonNull byte[] encryptionKey, @NonNull byte[] macKey)
+            throws GeneralSecurityException {
+        if (macKey.length < 16) {
+            throw new GeneralSecurityException("DESede MAC key too short");
+        }
+        return new SecureMessaging(8, desedeKey(encryptionKey),
+                SecureMessagingProviders.getCipher(SecureMessagingProviders.DESEDE_CBC),
+                null,
+                new RetailMac(Arrays.copyOfRange(macKey, 0, 8),
+                        Arrays.copyOfRange(macKey, 8, 16)));
+    }
+
+    /**
+     * Protects a command APDU.
+     *
+     * @param ssc                The send sequence counter, already incremented for this APDU.
+     * @param maxTranceiveLength The Ne of the protected APDU.
+     */
+    @NonNull
+    CommandAPDU wrap(@NonNull CommandAPDU command, long ssc, int maxTranceiveLength)
+            throws GeneralSecurityException {
+        byte[] header = {
+                (byte) (command.getCLA() | 0x0C),
+                (byte) command.getINS(),
+                (byte) command.getP1(),
+                (byte) command.getP2(),
+        };
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] data = command.getData();
+        if (data.length > 0) {
+            byte[] encrypted = crypt(Cipher.ENCRYPT_MODE, ssc, pad(data));
+            if ((command.getINS() & 0x01) != 0) {
+                // The data of an odd INS is BER-TLV encoded, it has no padding indicator
+                writeObject(body, TAG_ENCRYPTED_BER_TLV_DATA, encrypted, 0, encrypted.length);
+            } else {
+                byte[] value = new byte[encrypted.length + 1];
+                value[0] = 0x01;
+                System.arraycopy(encrypted, 0, value, 1, encrypted.length);
+                writeObject(body, TAG_ENCRYPTED_DATA, value, 0, value.length);
+            }
+        }
+        int ne = command.getNe();
+        if (ne > 0) {
+            byte[] expectedLength = ne <= 256
+                    ? new byte[]{(byte) ne}
+                    : new byte[]{(byte) (ne >> 8), (byte) ne};
+            writeObject(body, TAG_EXPECTED_LENGTH, expectedLength, 0, expectedLength.length);
+        }
+
+        ByteArrayOutputStream macInput = new ByteArrayOutputStream();
+        byte[] paddedHeader = pad(header);
+        macInput.write(paddedHeader, 0, paddedHeader.length);
+        macInput.write(body.toByteArray(), 0, body.size());
+        byte[] checksum = mac(ssc, macInput.toByteArray());
+        writeObject(body, TAG_MAC, checksum, 0, checksum.length);
+
+        return new CommandAPDU(header[0], header[1], header[2], header[3],
+                body.toByteArray(), maxTranceiveLength);
+    }
+
+    /**
+     * Checks and decrypts a protected response APDU.
+     *
+     * @param ssc The send sequence counter, already incremented for this APDU.
+     */
+    @NonNull
+    ResponseAPDU unwrap(@NonNull ResponseAPDU response, long ssc)
+            throws GeneralSecurityException {
+        byte[] bytes = response.getBytes();
+        if (bytes.length == 2) {
+            // Like jMRTD: a bare status word is the chip rejecting the protected command
+            throw new IllegalStateException(
+                    "Card indicates SM error, SW = " + Integer.toHexString(response.getSW()));
+        }
+        int end = bytes.length - 2;
+        byte[] encrypted = null;
+        int statusWord = response.getSW();
+        byte[] checksum = null;
+        int macEnd = 0;
+        int offset = 0;
+        while (offset < end && checksum == null) {
+            int tag = bytes[offset] & 0xFF;
+            int lengthOffset = offset + 1;
+            if (lengthOffset >= end) {
+                throw new GeneralSecurityException("Truncated secure messaging response");
+            }
+            int first = bytes[lengthOffset] & 0xFF;
+            int lengthBytes = first < 0x80 ? 0 : first & 0x7F;
+            if (lengthBytes > 2 || lengthOffset + lengthBytes >= end) {
+                throw new GeneralSecurityException("Invalid length in secure messaging response");
+            }
+            int length = lengthBytes == 0 ? first : 0;
+            for (int i = 1; i <= lengthBytes; i++) {
+                length = (length << 8) | (bytes[lengthOffset + i] & 0xFF);
+            }
+            int valueOffset = lengthOffset + 1 + lengthBytes;
+            int valueEnd = valueOffset + length;
+            if (valueEnd > end) {
+                throw new GeneralSecurityException("Truncated secure messaging response");
+            }
+            switch (tag) {
+                case TAG_ENCRYPTED_DATA:
+                    if (length < 1 || bytes[valueOffset] != 0x01) {
+                        throw new GeneralSecurityException("Unsupported padding indicator");
+                    }
+                    encrypted = Arrays.copyOfRange(bytes, valueOffset + 1, valueEnd);
+                    break;
+                case TAG_ENCRYPTED_BER_TLV_DATA:
+                    encrypted = Arrays.copyOfRange(bytes, valueOffset, valueEnd);
+                    break;
+                case TAG_STATUS_WORD:
+                    if (length != 2) {
+                        throw new GeneralSecurityException("Invalid status word object");
+                    }
+                    statusWord = ((bytes[valueOffset] & 0xFF) << 8)
+                            | (bytes[valueOffset + 1] & 0xFF);
+                    break;
+                case TAG_MAC:
+                    macEnd = offset;
+                    checksum = Arrays.copyOfRange(bytes, valueOffset, valueEnd);
+                    break;
+                default:
+                    // Covered by the MAC, nothing the reader needs
+                    break;
+            }
+            offset = valueEnd;
+        }
+        if (checksum == null) {
+            throw new GeneralSecurityException("Missing MAC in secure messaging response");
+        }
+        if (!MessageDigest.isEqual(checksum, mac(ssc, Arrays.copyOf(bytes, macEnd)))) {
+            throw new GeneralSecurityException("Invalid MAC in secure messaging response");
+        }
+
+        byte[] data = encrypted != null
+                ? unpad(crypt(Cipher.DECRYPT_MODE, ssc, encrypted))
+                : new byte[0];
+        byte[] plain = Arrays.copyOf(data, data.length + 2);
+        plain[data.length] = (byte) (statusWord >> 8);
+        plain[data.length + 1] = (byte) statusWord;
+        return new ResponseAPDU(plain);
+    }
+
+    private byte[] crypt(int mode, long ssc, byte[] data) throws GeneralSecurityException {
+        byte[] iv = ivCipher != null
+                ? ivCipher.doFinal(encodeSsc(ssc))
+                : new byte[blockSize];
+        cipher.init(mode, encryptionKey, new IvParameterSpec(iv));
+        return cipher.doFinal(data);
+    }
+
+    private byte[] mac(long ssc, byte[] data) throws GeneralSecurityException {
+        byte[] encodedSsc = encodeSsc(ssc);
+        byte[] input = new byte[encodedSsc.length + data.length];
+        System.arraycopy(encodedSsc, 0, input, 0, encodedSsc.length);
+        System.arraycopy(data, 0, input, encodedSsc.length, data.length);
+        return Arrays.copyOf(mac.compute(pad(input)), MAC_LENGTH);
+    }
+
+    /**
+     * The send sequence counter has the size of a block, big endian.
+     */
+    private byte[] encodeSsc(long ssc) {
+        byte[] encoded = new byte[blockSize];
+        for (int i = 0; i < 8; i++) {
+            encoded[blockSize - 1 - i] = (byte) (ssc >>> (8 * i));
+        }
+        return encoded;
+    }
+
+    /**
+     * ISO/IEC 9797-1 padding method 2.
+     */
+    private byte[] pad(byte[] data) {
+        byte[] padded = Arrays.copyOf(data, (data.length / blockSize + 1) * blockSize);
+        padded[data.length] = (byte) 0x80;
+        return padded;
+    }
+
+    private static byte[] unpad(byte[] data) throws GeneralSecurityException {
+        int i = data.length - 1;
+        while (i >= 0 && data[i] == 0) {
+            i--;
+        }
+        if (i < 0 || (data[i] & 0xFF) != 0x80) {
+            throw new GeneralSecurityException("Invalid padding in secure messaging response");
+        }
+        return Arrays.copyOf(data, i);
+    }
+
+    private static void writeObject(
+            ByteArrayOutputStream out, int tag, byte[] value, int offset, int length) {
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else if (length <= 0xFF) {
+            out.write(0x81);
+            out.write(length);
+        } else {
+            out.write(0x82);
+            out.write(length >> 8);
+            out.write(length);
+        }
+        out.write(value, offset, length);
+    }
+
+    /**
+     * 3DES keys of 16 bytes are used as K1 K2 K1, not every provider accepts them as they are.
+     */
+    private static SecretKey desedeKey(byte[] key) throws GeneralSecurityException {
+        if (key.length == 24) {
+            return new SecretKeySpec(key, "DESede");
+        }
+        if (key.length != 16) {
+            throw new GeneralSecurityException("Invalid DESede key length: " + key.length);
+        }
+        byte[] expanded = Arrays.copyOf(key, 24);
+        System.arraycopy(key, 0, expanded, 16, 8);
+        return new SecretKeySpec(expanded, "DESede");
+    }
+
+    /**
+     * A MAC over data that is already padded to the block size.
+     */
+    interface MacFunction {
+        byte[] compute(byte[] paddedData) throws GeneralSecurityException;
+    }
+
+    /**
+     * AES-CMAC (RFC 4493) for messages of complete blocks, as a CBC-MAC with the last block
+     * masked by the first subkey.
+     */
+    static class AesCmac implements MacFunction {
+        private final Cipher cbc;
+        private final byte[] subkey;
+
+        AesCmac(SecretKey key) throws GeneralSecurityException {
+            cbc = SecureMessagingProviders.getCipher(SecureMessagingProviders.AES_CBC);
+            cbc.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(new byte[16]));
+            // L = AES(K, 0), K1 = L doubled in GF(2^128)
+            byte[] l = cbc.doFinal(new byte[16]);
+            subkey = new byte[16];
+            for (int i = 0; i < 16; i++) {
+                int next = i < 15 ? (l[i + 1] & 0xFF) >>> 7 : 0;
+                subkey[i] = (byte) ((l[i] << 1) | next);
+            }
+            if ((l[0] & 0x80) != 0) {
+                subkey[15] ^= (byte) 0x87;
+            }
+        }
+
+        @Override
+        public byte[] compute(byte[] paddedData) throws GeneralSecurityException {
+            if (paddedData.length == 0 || paddedData.length % 16 != 0) {
+                throw new GeneralSecurityException("Data is not padded");
+            }
+            byte[] masked = paddedData.clone();
+            int last = masked.length - 16;
+            for (int i = 0; i < 16; i++) {
+                masked[last + i] ^= subkey[i];
+            }
+            // The cipher was initialized with a zero IV and is reset by doFinal
+            byte[] encrypted = cbc.doFinal(masked);
+            return Arrays.copyOfRange(encrypted, last, last + 16);
+        }
+    }
+
+    /**
+     * ISO/IEC 9797-1 MAC algorithm 3 ("retail MAC") with DES: a CBC-MAC with the first key,
+     * with the last block decrypted with the second and encrypted with the first key again.
+     * Single DES is done as 3DES with three equal keys.
+     */
+    static class RetailMac implements MacFunction {
+        private final Cipher cbc;
+        private final Cipher decrypt;
+        private final Cipher encrypt;
+
+        RetailMac(byte[] ka, byte[] kb) throws GeneralSecurityException {
+            SecretKey keyA = singleDesKey(ka);
+            SecretKey keyB = singleDesKey(kb);
+            cbc = SecureMessagingProviders.getCipher(SecureMessagingProviders.DESEDE_CBC);
+            cbc.init(Cipher.ENCRYPT_MODE, keyA, new IvParameterSpec(new byte[8]));
+            decrypt = SecureMessagingProviders.getCipher(SecureMessagingProviders.DESEDE_ECB);
+            decrypt.init(Cipher.DECRYPT_MODE, keyB);
+            encrypt = SecureMessagingProviders.getCipher(SecureMessagingProviders.DESEDE_ECB);
+            encrypt.init(Cipher.ENCRYPT_MODE, keyA);
+        }
+
+        @Override
+        public byte[] compute(byte[] paddedData) throws GeneralSecurityException {
+            if (paddedData.length == 0 || paddedData.length % 8 != 0) {
+                throw new GeneralSecurityException("Data is not padded");
+            }
+            byte[] encrypted = cbc.doFinal(paddedData);
+            byte[] last = Arrays.copyOfRange(encrypted, encrypted.length - 8, encrypted.length);
+            return encrypt.doFinal(decrypt.doFinal(last));
+        }
+
+        private static SecretKey singleDesKey(byte[] key) {
+            byte[] tripled = new byte[24];
+            for (int i = 0; i < 3; i++) {
+                System.arraycopy(key, 0, tripled, 8 * i, 8);
+            }
+            return new SecretKeySpec(tripled, "DESede");
+        }
+    }
+}
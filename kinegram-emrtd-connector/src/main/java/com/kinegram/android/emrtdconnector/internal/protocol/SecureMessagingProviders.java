@@ -0,0 +1,131 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import androidx.annotation.NonNull;
+
+import org.jmrtd.Util;
+
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The providers of the ciphers for {@link SecureMessaging}, one per transformation, fixed for
+ * the rest of the process once chosen.
+ * <p>
+ * {@link #pinFastest()} measures every provider that supports a transformation and pins the
+ * fastest one; it is run by the warm-up before the first tap. Without the warm-up, the provider
+ * of the default JCA lookup is pinned on first use, so nothing is measured while a chip is read.
+ */
+public class SecureMessagingProviders {
+    static final String AES_CBC = "AES/CBC/NoPadding";
+    static final String AES_ECB = "AES/ECB/NoPadding";
+    static final String DESEDE_CBC = "DESede/CBC/NoPadding";
+    static final String DESEDE_ECB = "DESede/ECB/NoPadding";
+    private static final String[] TRANSFORMATIONS = {AES_CBC, AES_ECB, DESEDE_CBC, DESEDE_ECB};
+    // The size of a typical secure messaging APDU
+    private static final int BENCHMARK_DATA_SIZE = 256;
+    private static final int BENCHMARK_WARM_UP_ROUNDS = 50;
+    private static final int BENCHMARK_ROUNDS = 200;
+
+    private static final Map<String, Provider> pinned = new ConcurrentHashMap<>();
+
+    private SecureMessagingProviders() {
+    }
+
+    /**
+     * @return A new cipher from the pinned provider of the transformation.
+     */
+    @NonNull
+    static Cipher getCipher(String transformation) throws GeneralSecurityException {
+        Provider provider = pinned.get(transformation);
+        if (provider != null) {
+            return Cipher.getInstance(transformation, provider);
+        }
+        Cipher cipher = Cipher.getInstance(transformation);
+        pinned.putIfAbsent(transformation, cipher.getProvider());
+        return cipher;
+    }
+
+    /**
+     * Measures the providers of every transformation and pins the fastest one. Sessions that
+     * already created their ciphers keep them.
+     *
+     * @return The names of the pinned providers by transformation.
+     */
+    @NonNull
+    public static synchronized Map<String, String> pinFastest() {
+        Map<String, String> names = new LinkedHashMap<>();
+        List<Provider> providers = candidates();
+        for (String transformation : TRANSFORMATIONS) {
+            Provider fastest = null;
+            long fastestNanos = Long.MAX_VALUE;
+            for (Provider provider : providers) {
+                long nanos = measure(transformation, provider);
+                if (nanos < fastestNanos) {
+                    fastest = provider;
+                    fastestNanos = nanos;
+                }
+            }
+            if (fastest != null) {
+                pinned.put(transformation, fastest);
+                names.put(transformation, fastest.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * The installed providers and the Bouncy Castle provider of jMRTD, which is not necessarily
+     * installed.
+     */
+    private static List<Provider> candidates() {
+        List<Provider> providers = new ArrayList<>();
+        Collections.addAll(providers, Security.getProviders());
+        Provider bouncyCastle = Util.getBouncyCastleProvider();
+        if (bouncyCastle != null && !providers.contains(bouncyCastle)) {
+            providers.add(bouncyCastle);
+        }
+        return providers;
+    }
+
+    /**
+     * @return The time for initializing the cipher and encrypting one APDU, repeated, or
+     * {@link Long#MAX_VALUE} if the provider does not support the transformation.
+     */
+    private static long measure(String transformation, Provider provider) {
+        boolean aes = transformation.startsWith("AES");
+        boolean cbc = transformation.contains("/CBC/");
+        SecretKeySpec key = new SecretKeySpec(new byte[aes ? 16 : 24], aes ? "AES" : "DESede");
+        IvParameterSpec iv = cbc ? new IvParameterSpec(new byte[aes ? 16 : 8]) : null;
+        byte[] data = new byte[BENCHMARK_DATA_SIZE];
+        try {
+            Cipher cipher = Cipher.getInstance(transformation, provider);
+            long startNanos = 0;
+            for (int i = 0; i < BENCHMARK_WARM_UP_ROUNDS + BENCHMARK_ROUNDS; i++) {
+                if (i == BENCHMARK_WARM_UP_ROUNDS) {
+                    startNanos = System.nanoTime();
+                }
+                // Secure messaging initializes the cipher for every APDU
+                if (iv != null) {
+                    cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+                } else {
+                    cipher.init(Cipher.ENCRYPT_MODE, key);
+                }
+                cipher.doFinal(data);
+            }
+            return System.nanoTime() - startNanos;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
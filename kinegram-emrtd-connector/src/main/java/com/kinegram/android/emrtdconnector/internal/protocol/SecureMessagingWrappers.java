@@ -0,0 +1,176 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import com.kinegram.android.emrtdconnector.EmrtdConnector;
+import com.kinegram.android.emrtdconnector.internal.protocol.message.SecureMessagingInfo;
+
+import org.jmrtd.protocol.AESSecureMessagingWrapper;
+import org.jmrtd.protocol.DESedeSecureMessagingWrapper;
+import org.jmrtd.protocol.SecureMessagingWrapper;
+
+import net.sf.scuba.smartcards.CommandAPDU;
+import net.sf.scuba.smartcards.ResponseAPDU;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Scope;
+
+/**
+ * Converts between the {@link SecureMessagingInfo} of the wire protocol and the secure messaging
+ * wrappers of jMRTD.
+ * <p>
+ * The wrappers created for the handback are still jMRTD wrappers to the reader, but protect the
+ * APDUs with {@link SecureMessaging}, on the ciphers of the providers pinned by
+ * {@link SecureMessagingProviders}.
+ */
+public class SecureMessagingWrappers {
+    private SecureMessagingWrappers() {
+    }
+
+    /**
+     * Creates the wrapper the reader continues with after the server handed back the chip.
+     */
+    public static SecureMessagingWrapper toWrapper(SecureMessagingInfo info)
+            throws GeneralSecurityException {
+        String algorithm = info.algorithm;
+        long ssc = info.ssc;
+        Span smSpan = EmrtdConnector.getTracer().spanBuilder("secure_messaging_setup")
+                .setAttribute("crypto.algorithm", algorithm)
+                .setAttribute("crypto.ssc", ssc)
+                .startSpan();
+
+        try (Scope ignored = smSpan.makeCurrent()) {
+            smSpan.addEvent("creating_secret_keys",
+                    Attributes.builder()
+                            .put("enc_key_length", info.encKey.length)
+                            .put("mac_key_length", info.macKey.length)
+                            .build());
+
+            SecretKey kEnc = new SecretKeySpec(info.encKey, algorithm);
+            SecretKey kMac = new SecretKeySpec(info.macKey, algorithm);
+
+            switch (algorithm) {
+                case "AES":
+                    smSpan.addEvent("creating_aes_wrapper");
+                    return new PinnedAesWrapper(kEnc, kMac, ssc,
+                            SecureMessaging.aes(info.encKey, info.macKey));
+                case "DESede":
+                    smSpan.addEvent("creating_desede_wrapper");
+                    return new PinnedDesedeWrapper(kEnc, kMac, ssc,
+                            SecureMessaging.desede(info.encKey, info.macKey));
+                default:
+                    smSpan.setStatus(StatusCode.ERROR, "Unsupported algorithm");
+                    throw new IllegalArgumentException("Unsupported SM algorithm: " + algorithm);
+            }
+        } catch (Exception e) {
+            smSpan.recordException(e);
+            throw e;
+        } finally {
+            smSpan.end();
+        }
+    }
+
+    /**
+     * Extracts the session keys the server needs to take over the chip.
+     */
+    public static SecureMessagingInfo fromWrapper(SecureMessagingWrapper wrapper) {
+        Span smSpan = EmrtdConnector.getTracer().spanBuilder("secure_messaging_extract")
+                .setAttribute("code.function.name", wrapper.getClass().getSimpleName())
+                .startSpan();
+
+        try (Scope ignored = smSpan.makeCurrent()) {
+            String alg = (wrapper instanceof AESSecureMessagingWrapper) ? "AES" : "DESede";
+            smSpan.setAttribute("crypto.algorithm", alg);
+            smSpan.setAttribute("crypto.ssc", wrapper.getSendSequenceCounter());
+
+            smSpan.addEvent("extracting_keys");
+            byte[] encKey = wrapper.getEncryptionKey().getEncoded();
+            byte[] macKey = wrapper.getMACKey().getEncoded();
+
+            smSpan.addEvent("secure_messaging_info_created");
+            smSpan.setStatus(StatusCode.OK);
+            return new SecureMessagingInfo(alg, encKey, macKey, wrapper.getSendSequenceCounter());
+        } catch (Exception e) {
+            smSpan.recordException(e);
+            smSpan.setStatus(StatusCode.ERROR, "Key extraction failed");
+            throw e;
+        } finally {
+            smSpan.end();
+        }
+    }
+
+    private static class PinnedAesWrapper extends AESSecureMessagingWrapper {
+        private final SecureMessaging secureMessaging;
+        private long ssc;
+
+        PinnedAesWrapper(SecretKey kEnc, SecretKey kMac, long ssc,
+                         SecureMessaging secureMessaging) throws GeneralSecurityException {
+            super(kEnc, kMac, ssc);
+            this.secureMessaging = secureMessaging;
+            this.ssc = ssc;
+        }
+
+        @Override
+        public long getSendSequenceCounter() {
+            return ssc;
+        }
+
+        @Override
+        public CommandAPDU wrap(CommandAPDU commandAPDU) {
+            try {
+                return secureMessaging.wrap(commandAPDU, ++ssc, getMaxTranceiveLength());
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Error wrapping APDU", e);
+            }
+        }
+
+        @Override
+        public ResponseAPDU unwrap(ResponseAPDU responseAPDU) {
+            try {
+                return secureMessaging.unwrap(responseAPDU, ++ssc);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Error unwrapping APDU", e);
+            }
+        }
+    }
+
+    private static class PinnedDesedeWrapper extends DESedeSecureMessagingWrapper {
+        private final SecureMessaging secureMessaging;
+        private long ssc;
+
+        PinnedDesedeWrapper(SecretKey kEnc, SecretKey kMac, long ssc,
+                            SecureMessaging secureMessaging) throws GeneralSecurityException {
+            super(kEnc, kMac, ssc);
+            this.secureMessaging = secureMessaging;
+            this.ssc = ssc;
+        }
+
+        @Override
+        public long getSendSequenceCounter() {
+            return ssc;
+        }
+
+        @Override
+        public CommandAPDU wrap(CommandAPDU commandAPDU) {
+            try {
+                return secureMessaging.wrap(commandAPDU, ++ssc, getMaxTranceiveLength());
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Error wrapping APDU", e);
+            }
+        }
+
+        @Override
+        public ResponseAPDU unwrap(ResponseAPDU responseAPDU) {
+            try {
+                return secureMessaging.unwrap(responseAPDU, ++ssc);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Error unwrapping APDU", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import androidx.annotation.NonNull;
+
+import org.jmrtd.Util;
+import org.jmrtd.lds.SODFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * Checks read data groups against the hashes in EF.SOD.
+ * <p>
+ * This only detects corrupted or truncated reads. The signature of the SOD is not verified,
+ * passive authentication is still done by the server.
+ */
+public class SodVerifier {
+    private final Map<Integer, byte[]> dataGroupHashes;
+    private final String digestAlgorithm;
+
+    /**
+     * @param sod The raw EF.SOD.
+     * @throws IOException If the SOD cannot be parsed.
+     */
+    public SodVerifier(@NonNull byte[] sod) throws IOException {
+        SODFile sodFile = new SODFile(new ByteArrayInputStream(sod));
+        this.dataGroupHashes = sodFile.getDataGroupHashes();
+        this.digestAlgorithm = sodFile.getDigestAlgorithm();
+    }
+
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * @param dataGroup The data group number.
+     * @return {@code true} if the SOD contains a hash for the data group.
+     */
+    public boolean hasHash(int dataGroup) {
+        return dataGroupHashes.containsKey(dataGroup);
+    }
+
+    /**
+     * Checks the hash of a data group. Thread safe.
+     *
+     * @param dataGroup The data group number.
+     * @param data      The raw data group as read from the chip.
+     * @return {@code true} if the hash matches the one in the SOD.
+     * @throws NoSuchAlgorithmException If the digest algorithm of the SOD is not available.
+     */
+    public boolean verify(int dataGroup, @NonNull byte[] data) throws NoSuchAlgorithmException {
+        byte[] expected = dataGroupHashes.get(dataGroup);
+        if (expected == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(expected, createDigest().digest(data));
+    }
+
+    private MessageDigest createDigest() throws NoSuchAlgorithmException {
+        try {
+            return MessageDigest.getInstance(digestAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // Some names used by jMRTD are only known to Bouncy Castle
+            return MessageDigest.getInstance(digestAlgorithm, Util.getBouncyCastleProvider());
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.kinegram.android.emrtdconnector.internal.protocol;
 
-import android.nfc.TagLostException;
 import android.nfc.tech.IsoDep;
 import android.util.Log;
 
@@ -8,42 +7,66 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.util.Consumer;
 
+import com.kinegram.android.emrtdconnector.ApduProfile;
+import com.kinegram.android.emrtdconnector.ChipCapabilityCache;
 import com.kinegram.android.emrtdconnector.ClosedListener;
 import com.kinegram.android.emrtdconnector.ConnectionOptions;
 import com.kinegram.android.emrtdconnector.EmrtdConnector;
 import com.kinegram.android.emrtdconnector.EmrtdPassport;
+import com.kinegram.android.emrtdconnector.LocalEmrtdResult;
+import com.kinegram.android.emrtdconnector.ReadProgress;
 import com.kinegram.android.emrtdconnector.StatusListener;
+import com.kinegram.android.emrtdconnector.internal.ApduProfiler;
+import com.kinegram.android.emrtdconnector.internal.SessionExecutors;
 import com.kinegram.android.emrtdconnector.internal.TracedAndroidWebSocketClient;
 import com.kinegram.android.emrtdconnector.internal.protocol.exception.NfcException;
 import com.kinegram.android.emrtdconnector.internal.protocol.exception.WebsocketClientException;
-import com.kinegram.android.emrtdconnector.internal.protocol.message.SecureMessagingInfo;
 import com.kinegram.android.emrtdconnector.internal.protocol.message.WebsocketAcceptMessage;
 import com.kinegram.android.emrtdconnector.internal.protocol.message.WebsocketChipAuthenticationHandbackMessage;
 import com.kinegram.android.emrtdconnector.internal.protocol.message.WebsocketChipAuthenticationHandoverMessage;
 import com.kinegram.android.emrtdconnector.internal.protocol.message.WebsocketFinishMessage;
+import com.kinegram.android.emrtdconnector.internal.protocol.message.WebsocketMessage;
 import com.kinegram.android.emrtdconnector.internal.protocol.message.WebsocketMonitoringMessage;
 import com.kinegram.android.emrtdconnector.internal.protocol.message.WebsocketResultMessage;
+import com.kinegram.android.emrtdconnector.internal.protocol.message.WebsocketResultPartMessage;
 import com.kinegram.android.emrtdconnector.internal.protocol.message.WebsocketStartMessage;
-import com.kinegram.emrtd.EmrtdResult;
+import com.kinegram.emrtd.CheckResult;
 import com.kinegram.emrtd.EmrtdStep;
 import com.kinegram.emrtd.RemoteChipAuthentication;
 
-import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.WebSocket;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ServerHandshake;
 import org.jmrtd.lds.icao.DG1File;
 import org.jmrtd.protocol.SecureMessagingWrapper;
 import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.trace.Span;
@@ -52,7 +75,8 @@ import io.opentelemetry.context.Scope;
 
 public class WebsocketSessionCoordinator {
     private static final String TAG = WebsocketSessionCoordinator.class.getSimpleName();
-    private static final int WEBSOCKET_TIMEOUT_SECONDS = 2000;
+    private static final long RECONNECT_BASE_DELAY_MS = 250;
+    private static final long RECONNECT_MAX_DELAY_MS = 4000;
 
     private volatile ProtocolState state = ProtocolState.INIT;
 
@@ -61,30 +85,72 @@ public class WebsocketSessionCoordinator {
     private final StatusListener statusListener;
     private final ClosedListener closedListener;
     private final Consumer<EmrtdPassport> emrtdPassportListener;
+    private final Consumer<EmrtdPassport> partialPassportListener;
+    private final Consumer<LocalEmrtdResult> localResultListener;
     private final Consumer<Exception> errorListener;
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
-
-    private final WebSocketClient websocketClient;
+    private final ProgressEngine progressEngine;
+    // Shared with the other sessions of the connector, never shut down by the session
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+    private final Object sendLock = new Object();
+    private final RttEstimator rttEstimator = new RttEstimator();
+    private final ApduProfiler apduProfiler = new ApduProfiler();
+    private final ConnectionHeartbeat heartbeat;
+    private volatile ScheduledFuture<?> reconnectTask;
+
+    // Null until a connection attempt won the race
+    private volatile WebsocketClientHandler websocketClient;
+    private volatile ConnectionRacer<WebsocketClientHandler> connectionRacer;
+    private final FrameScheduler frameScheduler;
     private final BinaryFileManager fileManager;
-    private EmrtdChipSession chipSession;
+    private final ApduRelay apduRelay;
+    private volatile EmrtdChipSession chipSession;
     private final WebsocketMessageDispatcher dispatcher;
     private final String clientId;
-    private final URI webSocketUri;
+    private final List<URI> endpoints;
+    private volatile URI connectedEndpoint;
 
     private final CompletableFuture<RemoteChipAuthentication.Result> caHandbackFuture = new CompletableFuture<>();
+    private final CompletableFuture<WebsocketAcceptMessage> acceptFuture = new CompletableFuture<>();
+    // Set before connecting if the chip session does not wait for ACCEPT
+    private volatile boolean chipSessionStartedEarly;
+    private final MonitoringBuffer monitoringBuffer = new MonitoringBuffer();
 
     private Span sessionSpan;
     private Span connectSpan;
 
+    private volatile int reconnectAttempts;
+    private volatile boolean resuming;
+    private volatile boolean closeRequested;
+    private volatile Exception lastConnectionError;
+    private final AtomicBoolean closeNotified = new AtomicBoolean();
+    // Kept to send them again if the connection is resumed while the server waits for them
+    private volatile WebsocketMessage chipAuthHandoverMessage;
+    private volatile WebsocketMessage finishMessage;
+    // Incremented whenever the session is resumed on a new connection
+    private volatile int resumeCount;
+    // Kept until the chip is read if a local result is requested
+    private volatile byte[] localDg1;
+    private volatile byte[] localDg2;
+    private volatile boolean localDg1Verified;
+    private volatile boolean localDg2Verified;
+    // Received partial result, completed by RESULT_PART messages
+    private volatile JSONObject partialResult;
+    // Negotiated in the ACCEPT message
+    private volatile boolean useCbor;
 
     public WebsocketSessionCoordinator(
             @NonNull IsoDep isoDep,
             @NonNull ConnectionOptions options,
             @NonNull String clientId,
-            @NonNull URI webSocketUri,
+            @NonNull List<URI> endpoints,
+            @NonNull SessionExecutors executors,
             @NonNull StatusListener statusListener,
             @NonNull ClosedListener closedListener,
             @Nullable Consumer<EmrtdPassport> emrtdPassportListener,
+            @Nullable Consumer<EmrtdPassport> partialPassportListener,
+            @Nullable Consumer<LocalEmrtdResult> localResultListener,
+            @NonNull Consumer<ReadProgress> progressListener,
             @NonNull Consumer<Exception> errorListener
     ) {
         this.isoDep = isoDep;
@@ -92,12 +158,46 @@ public class WebsocketSessionCoordinator {
         this.statusListener = statusListener;
         this.closedListener = closedListener;
         this.emrtdPassportListener = emrtdPassportListener;
+        this.partialPassportListener = partialPassportListener;
+        this.localResultListener = localResultListener;
         this.errorListener = errorListener;
+        this.progressEngine = new ProgressEngine(progressListener::accept);
         this.clientId = clientId;
-        this.webSocketUri = webSocketUri;
+        this.endpoints = endpoints;
+        this.executor = executors.getWorkers();
+        this.scheduler = executors.getScheduler();
+        this.heartbeat = new ConnectionHeartbeat(scheduler, rttEstimator, this::onHeartbeatTimeout);
+
+        this.frameScheduler = new FrameScheduler(new FrameScheduler.Transport() {
+            @Override
+            public boolean send(ByteBuffer message) {
+                return sendBinary(message);
+            }
+
+            @Override
+            public boolean send(String message) {
+                return sendText(message);
+            }
 
-        this.websocketClient = new WebsocketClientHandler(webSocketUri, options.getHttpHeaders());
-        this.fileManager = new BinaryFileManager(websocketClient);
+            @Override
+            public boolean sendFragmented(FileStore.Chunks fragments) {
+                return WebsocketSessionCoordinator.this.sendFragmented(fragments);
+            }
+
+            @Override
+            public boolean isBusy() {
+                WebsocketClientHandler client = websocketClient;
+                return client != null && client.hasBufferedData();
+            }
+        }, executors.getWorkers());
+        this.fileManager = new BinaryFileManager(
+                frameScheduler,
+                options.getFileMemoryBudget(),
+                options.getFileStoreDirectory());
+        this.fileManager.setStartedListener(progressEngine::onFileUploadStarted);
+        this.fileManager.setSentListener(progressEngine::onFileSent);
+        this.apduRelay = new ApduRelay(isoDep::transceive, apduRelayListener, apduProfiler,
+                executors.newSerialExecutor());
         this.dispatcher = new WebsocketMessageDispatcher(messageHandler);
     }
 
@@ -106,32 +206,32 @@ public class WebsocketSessionCoordinator {
 
                 @Override
                 public void onAccept(WebsocketAcceptMessage msg) {
+                    if (resuming) {
+                        onSessionResumed(msg);
+                        return;
+                    }
                     if (state != ProtocolState.WAITING_FOR_ACCEPT) {
                         handleProtocolError("Received Accept message in illegal state: " + state);
                         return;
                     }
 
                     transitionState(ProtocolState.READING_CHIP);
+                    useCbor = msg.useCbor;
+                    fileManager.setChunkSize(msg.fileChunkSize);
 
                     if (sessionSpan != null) {
                         sessionSpan.addEvent("accept_message_received",
                                 Attributes.builder()
                                         .put("has_active_auth_challenge", msg.activeAuthenticationChallenge != null)
+                                        .put("file_chunk_size", msg.fileChunkSize)
+                                        .put("use_cbor", msg.useCbor)
                                         .build());
                     }
 
-                    executor.execute(() -> {
-                        // Propagate span context to executor thread
-                        try (Scope ignored = sessionSpan != null ? sessionSpan.makeCurrent() : null) {
-                            try {
-                                chipSession = new EmrtdChipSession(isoDep, options, emrtdSessionListener);
-                                chipSession.start(msg.activeAuthenticationChallenge);
-                            } catch (Exception e) {
-                                handleError(new NfcException("NFC Chip Communication Failed", e),
-                                        ClosedListener.NFC_CHIP_COMMUNICATION_FAILED);
-                            }
-                        }
-                    });
+                    acceptFuture.complete(msg);
+                    if (!chipSessionStartedEarly) {
+                        startChipSession(msg.activeAuthenticationChallenge);
+                    }
                 }
 
                 @Override
@@ -150,7 +250,7 @@ public class WebsocketSessionCoordinator {
                     if (sessionSpan != null) {
                         sessionSpan.addEvent("chip_auth_handback_received",
                                 Attributes.builder()
-                                        .put("check_result", msg.checkResult.toString())
+                                        .put("check_result", msg.checkResult)
                                         .put("dg1_size", dg1Bytes.get().length)
                                         .build());
                     }
@@ -163,10 +263,22 @@ public class WebsocketSessionCoordinator {
                         throw new AssertionError(e);
                     }
 
+                    CheckResult checkResult;
+                    try {
+                        checkResult = CheckResult.valueOf(msg.checkResult);
+                    } catch (IllegalArgumentException e) {
+                        handleProtocolError("Unknown check result: " + msg.checkResult);
+                        return;
+                    }
+
                     try {
+                        SecureMessagingWrapper wrapper =
+                                SecureMessagingWrappers.toWrapper(msg.secureMessagingInfo);
+                        // Lets the chip session read data groups again if their hash is wrong
+                        chipSession.setSecureMessagingWrapper(wrapper);
                         caHandbackFuture.complete(new RemoteChipAuthentication.Result(
-                                msg.secureMessagingInfo.toWrapper(),
-                                msg.checkResult,
+                                wrapper,
+                                checkResult,
                                 dg1File,
                                 null // Not sent by the server
                         ));
@@ -180,27 +292,58 @@ public class WebsocketSessionCoordinator {
 
                 @Override
                 public void onResult(WebsocketResultMessage msg) {
-                    if (emrtdPassportListener != null) {
-                        emrtdPassportListener.accept(msg.passport);
-                    } else {
+                    if (emrtdPassportListener == null) {
                         Log.w(TAG, "Received result message but no EmrtdPassportListener set");
+                        return;
+                    }
+                    EmrtdPassport passport;
+                    try {
+                        passport = new EmrtdPassport(msg.passportJson);
+                    } catch (JSONException e) {
+                        handleProtocolError("Invalid result: " + e.getMessage());
+                        return;
+                    }
+                    if (!msg.partial) {
+                        progressEngine.onDone();
+                        emrtdPassportListener.accept(passport);
+                        return;
+                    }
+                    partialResult = msg.passportJson;
+                    if (partialPassportListener != null) {
+                        partialPassportListener.accept(passport);
                     }
                 }
 
                 @Override
-                public void onApduCommand(BinaryMessageProtocol.ApduMessage apduMessage) {
+                public void onResultPart(WebsocketResultPartMessage msg) {
+                    JSONObject result = partialResult;
+                    if (result == null) {
+                        handleProtocolError("Received result part without partial result");
+                        return;
+                    }
+                    EmrtdPassport passport;
                     try {
-                        byte[] responseBytes = isoDep.transceive(apduMessage.getData());
-                        if (responseBytes == null || responseBytes.length < 2) {
-                            throw new TagLostException("No Response from NFC chip");
-                        }
-                        websocketClient.send(BinaryMessageProtocol.ApduMessage.encode(responseBytes));
-                    } catch (Exception e) {
-                        handleError(new NfcException("NFC communication failed", e),
-                                ClosedListener.NFC_CHIP_COMMUNICATION_FAILED);
+                        mergeResultPart(result, msg.fields);
+                        passport = new EmrtdPassport(result);
+                    } catch (JSONException e) {
+                        handleProtocolError("Invalid result part: " + e.getMessage());
+                        return;
+                    }
+                    if (msg.last) {
+                        partialResult = null;
+                        progressEngine.onDone();
+                        emrtdPassportListener.accept(passport);
+                    } else if (partialPassportListener != null) {
+                        partialPassportListener.accept(passport);
                     }
                 }
 
+                @Override
+                public void onApduCommand(BinaryMessageProtocol.ApduMessage apduMessage) {
+                    // Don't block the WebSocket read thread with the transceive
+                    apduRelay.submit(apduMessage.getData());
+                }
+
                 @Override
                 public void onFileReceived(BinaryMessageProtocol.FileMessage fileMessage) {
                     fileManager.receiveFile(fileMessage.getName(), fileMessage.getData());
@@ -213,29 +356,78 @@ public class WebsocketSessionCoordinator {
                 }
             };
 
+    private final ApduRelay.Listener apduRelayListener = new ApduRelay.Listener() {
+        @Override
+        public void onApduResponse(byte[] response) {
+            frameScheduler.submit(FrameScheduler.Priority.URGENT,
+                    BinaryMessageProtocol.ApduMessage.encode(response));
+        }
+
+        @Override
+        public void onApduError(Exception e) {
+            if (state == ProtocolState.CLOSED) {
+                // The IsoDep was closed because the session ended, nothing to report
+                return;
+            }
+            handleError(new NfcException("NFC communication failed", e),
+                    ClosedListener.NFC_CHIP_COMMUNICATION_FAILED);
+        }
+    };
+
     private final EmrtdChipSession.Listener emrtdSessionListener = new EmrtdChipSession.Listener() {
         @Override
         public void onEmrtdStep(EmrtdStep emrtdStep) {
+            progressEngine.onStep(emrtdStep);
             statusListener.handle(emrtdStep.name());
-            sendMonitoringMessage(new WebsocketMonitoringMessage("Step: " + emrtdStep.name()));
+            recordMonitoringEvent("Step: " + emrtdStep.name());
+        }
+
+        @Override
+        public void onFileReady(String name, byte[] data, boolean hashVerified) {
+            if (localResultListener != null) {
+                if (name.equals("dg1")) {
+                    localDg1 = data;
+                    localDg1Verified = hashVerified;
+                } else if (name.equals("dg2")) {
+                    localDg2 = data;
+                    localDg2Verified = hashVerified;
+                }
+            }
+            awaitAccept();
+            if (fileManager.sendFile(name, data)) {
+                progressEngine.onFileQueued(name, data.length);
+            }
         }
 
         @Override
-        public void onFileReady(String name, byte[] data) {
-            fileManager.sendFile(name, data);
+        public void onFileReadProgress(int current, int total) {
+            progressEngine.onFileReadProgress(current, total);
         }
 
         @Override
-        public void onFinish(EmrtdResult result) {
+        public void onFinish(byte[] activeAuthenticationSignature) {
+            // Does not wait for the server
+            deliverLocalResult();
+            if (emrtdPassportListener == null) {
+                // No result requested, nothing left to wait for
+                progressEngine.onDone();
+            } else {
+                progressEngine.onReadFinished();
+            }
+            awaitAccept();
             // When done, send finish message to server
-            sendFinishMessage(result);
+            sendFinishMessage(activeAuthenticationSignature);
+            flushMonitoringEvents();
             transitionState(ProtocolState.FINISHED);
         }
 
         @Override
         public CompletableFuture<RemoteChipAuthentication.Result> onChipAuthenticationHandover(
                 int maxTransceiveLength, int maxBlockSize, SecureMessagingWrapper wrapper) {
+            awaitAccept();
             sendChipAuthHandoverMessage(maxTransceiveLength, maxBlockSize, wrapper);
+            // The chip is idle until the server hands back
+            flushMonitoringEvents();
             transitionState(ProtocolState.WAITING_FOR_CA_HANDBACK);
             return caHandbackFuture;
         }
@@ -252,44 +444,318 @@ public class WebsocketSessionCoordinator {
         sessionSpan = EmrtdConnector.getTracer().spanBuilder("emrtd_session")
                 .setAttribute("emrtd_connector.validation_id", options.getValidationId())
                 .setAttribute("emrtd_connector.client_id", clientId)
-                .setAttribute("url.full", webSocketUri.toString())
-                .setAttribute("server.address", webSocketUri.getHost())
-                .setAttribute("server.port", webSocketUri.getPort())
+                .setAttribute("url.full", endpoints.get(0).toString())
+                .setAttribute("server.address", endpoints.get(0).getHost())
+                .setAttribute("server.port", endpoints.get(0).getPort())
+                .setAttribute("emrtd_connector.endpoint_count", endpoints.size())
                 .setAttribute("emrtd_connector.diagnostics_enabled", options.isDiagnosticsEnabled())
                 .startSpan();
 
         try (Scope ignored = sessionSpan.makeCurrent()) {
             Log.d(TAG, "Connecting to WebSocket Server");
             statusListener.handle(StatusListener.CONNECTING_TO_SERVER);
+            ChipCapabilityCache.Capabilities cached =
+                    EmrtdChipSession.getCachedCapabilities(isoDep, options);
+            if (cached != null) {
+                progressEngine.onCapabilitiesKnown(
+                        cached.chipAuthentication, cached.activeAuthentication);
+            }
+            // EmrtdReader takes the active authentication challenge when the read starts, but the
+            // server sends it with ACCEPT. Early access is only possible without the challenge.
+            if (options.isEarlyChipAccessEnabled()) {
+                chipSessionStartedEarly = cached != null && !cached.activeAuthentication;
+                sessionSpan.addEvent(chipSessionStartedEarly
+                        ? "early_chip_access_started"
+                        : "early_chip_access_deferred");
+            }
+            connectWebsocket();
+            if (chipSessionStartedEarly) {
+                startChipSession(null);
+            }
+        }
+    }
 
-            connectSpan = EmrtdConnector.getTracer().spanBuilder("websocket_connect")
-                    .setAttribute("url.full", webSocketUri.toString())
-                    .setAttribute("server.address", webSocketUri.getHost())
-                    .setAttribute("server.port", webSocketUri.getPort())
-                    .setAttribute("websocket.timeout_seconds", WEBSOCKET_TIMEOUT_SECONDS)
-                    .startSpan();
+    private void startChipSession(byte[] activeAuthenticationChallenge) {
+        executor.execute(() -> {
+            if (closeRequested) {
+                return;
+            }
+            // Propagate span context to executor thread
+            try (Scope ignored = sessionSpan != null ? sessionSpan.makeCurrent() : null) {
+                try {
+                    chipSession = new EmrtdChipSession(
+                            isoDep, options, emrtdSessionListener, apduProfiler, rttEstimator);
+                    chipSession.start(activeAuthenticationChallenge);
+                } catch (Exception e) {
+                    handleError(new NfcException("NFC Chip Communication Failed", e),
+                            ClosedListener.NFC_CHIP_COMMUNICATION_FAILED);
+                }
+            }
+        });
+    }
 
-            websocketClient.setConnectionLostTimeout(WEBSOCKET_TIMEOUT_SECONDS);
-            websocketClient.setTcpNoDelay(true);
-            websocketClient.connect();
+    /**
+     * Blocks the chip session until the server accepted the session. Returns right away unless
+     * early chip access is enabled.
+     *
+     * @throws java.util.concurrent.CompletionException If the session was closed before.
+     */
+    private void awaitAccept() {
+        if (!acceptFuture.isDone() && sessionSpan != null) {
+            sessionSpan.addEvent("chip_session_waiting_for_accept");
         }
+        acceptFuture.join();
     }
 
-    public void cancel() {
+    private void connectWebsocket() {
+        connectSpan = EmrtdConnector.getTracer().spanBuilder("websocket_connect")
+                .setAttribute("websocket.endpoint_count", endpoints.size())
+                .setAttribute("websocket.connect_timeout_ms", options.getConnectTimeoutMillis())
+                .setAttribute("websocket.ping_interval_ms", ConnectionHeartbeat.PING_INTERVAL_MS)
+                .setAttribute("websocket.reconnect_attempt", reconnectAttempts)
+                .startSpan();
+
+        ConnectionRacer<WebsocketClientHandler> racer = new ConnectionRacer<>(
+                preferConnectedEndpoint(),
+                scheduler,
+                options.getConnectTimeoutMillis(),
+                (endpoint, address) -> {
+                    WebsocketClientHandler client =
+                            new WebsocketClientHandler(endpoint, options.getHttpHeaders());
+                    // Keep the URI (TLS server name, Host header) but connect to this address
+                    client.setDnsResolver(uri -> address);
+                    // Liveness is checked by the heartbeat, which adapts to the RTT of the link
+                    client.setConnectionLostTimeout(0);
+                    client.setTcpNoDelay(true);
+                    return client;
+                },
+                new ConnectionRacer.Listener<WebsocketClientHandler>() {
+                    @Override
+                    public void onConnected(WebsocketClientHandler client, URI endpoint,
+                                            InetAddress address, int attemptCount) {
+                        onConnectionRaceWon(client, endpoint, address, attemptCount);
+                    }
+
+                    @Override
+                    public void onFailed(Exception e) {
+                        onConnectionRaceFailed(e);
+                    }
+                });
+        connectionRacer = racer;
+        racer.start();
+    }
+
+    /**
+     * A resumed session goes back to the endpoint it was connected to, if that still works.
+     */
+    private List<URI> preferConnectedEndpoint() {
+        URI endpoint = connectedEndpoint;
+        if (endpoint == null || endpoint.equals(endpoints.get(0))) {
+            return endpoints;
+        }
+        List<URI> ordered = new ArrayList<>(endpoints);
+        ordered.remove(endpoint);
+        ordered.add(0, endpoint);
+        return ordered;
+    }
+
+    private void onConnectionRaceWon(
+            WebsocketClientHandler client,
+            URI endpoint,
+            InetAddress address,
+            int attemptCount
+    ) {
+        websocketClient = client;
+        connectedEndpoint = endpoint;
+        if (connectSpan != null) {
+            connectSpan.setAttribute("url.full", endpoint.toString());
+            connectSpan.setAttribute("server.address", endpoint.getHost());
+            connectSpan.setAttribute("server.port", endpoint.getPort());
+            connectSpan.setAttribute("network.peer.address", address.getHostAddress());
+            connectSpan.setAttribute("websocket.connect_attempts", attemptCount);
+        }
+    }
+
+    private void onConnectionRaceFailed(Exception e) {
+        lastConnectionError = e;
+        if (closeRequested) {
+            return;
+        }
+        if (resuming && shouldReconnect()) {
+            scheduleReconnect(CloseFrame.NEVER_CONNECTED, e.getMessage());
+            return;
+        }
+        handleError(new WebsocketClientException("Failed to connect to WebSocket Server", e),
+                ClosedListener.COMMUNICATION_FAILED);
+    }
+
+    private boolean shouldReconnect() {
+        if (closeRequested || reconnectAttempts >= options.getMaxReconnectAttempts()) {
+            return false;
+        }
+        // Only resume sessions the server has accepted and that are not done yet
+        ProtocolState s = state;
+        return s == ProtocolState.READING_CHIP
+                || s == ProtocolState.WAITING_FOR_CA_HANDBACK
+                || s == ProtocolState.FINISHED;
+    }
+
+    private void scheduleReconnect(int code, String reason) {
+        int attempt = ++reconnectAttempts;
+        resuming = true;
+        // Messages are kept until the session is resumed
+        frameScheduler.pause();
+        endConnectSpan(code, reason, false);
+
+        // Exponential backoff with jitter, so a fleet of clients losing the same network does
+        // not reconnect in lockstep
+        long maxDelay = Math.min(RECONNECT_MAX_DELAY_MS, RECONNECT_BASE_DELAY_MS << (attempt - 1));
+        long delay = ThreadLocalRandom.current().nextLong(maxDelay / 2, maxDelay + 1);
+        Log.w(TAG, "WebSocket connection lost (" + code + " " + reason + "), reconnect attempt "
+                + attempt + " in " + delay + " ms");
+
         if (sessionSpan != null) {
-            sessionSpan.addEvent("session_cancelled");
+            sessionSpan.addEvent("reconnect_scheduled",
+                    Attributes.builder()
+                            .put("websocket.reconnect_attempt", attempt)
+                            .put("websocket.reconnect_delay_ms", delay)
+                            .put("close_code", code)
+                            .build());
+        }
+        statusListener.handle(StatusListener.RECONNECTING_TO_SERVER);
+
+        try {
+            reconnectTask = scheduler.schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Session was closed in the meantime
         }
-        closeConnection(ClosedListener.CANCELLED_BY_USER);
-        executor.shutdown();
     }
 
-    public boolean isOpen() {
-        return websocketClient.isOpen();
+    private void reconnect() {
+        if (closeRequested) {
+            return;
+        }
+        try (Scope ignored = sessionSpan != null ? sessionSpan.makeCurrent() : null) {
+            Log.d(TAG, "Reconnecting to WebSocket Server");
+            websocketClient = null;
+            connectWebsocket();
+        }
     }
 
-    public void onClose(int code, String reason, boolean remote) {
-        Log.d(TAG, "Websocket closed: " + code + " " + reason);
+    private void onSessionResumed(WebsocketAcceptMessage msg) {
+        resuming = false;
+        reconnectAttempts = 0;
+        // The cause of the drop must not affect how later errors close the session
+        lastConnectionError = null;
+        resumeCount++;
 
+        if (sessionSpan != null) {
+            sessionSpan.addEvent("session_resumed",
+                    Attributes.builder()
+                            .put("protocol_state", state.name())
+                            .put("received_files_count",
+                                    msg.receivedFiles == null ? 0 : msg.receivedFiles.size())
+                            .build());
+        }
+
+        useCbor = msg.useCbor;
+        fileManager.setChunkSize(msg.fileChunkSize);
+        fileManager.resendFiles(msg.receivedFiles != null
+                ? msg.receivedFiles
+                : Collections.emptyList());
+        if (state == ProtocolState.WAITING_FOR_CA_HANDBACK && chipAuthHandoverMessage != null) {
+            sendResumableMessage(FrameScheduler.Priority.URGENT, chipAuthHandoverMessage);
+        } else if (state == ProtocolState.FINISHED && finishMessage != null) {
+            // Queued behind the files
+            sendResumableMessage(FrameScheduler.Priority.BULK, finishMessage);
+        }
+        // Sends what was held while the connection was lost, e.g. APDU responses
+        frameScheduler.resume();
+    }
+
+    private boolean sendText(String message) {
+        synchronized (sendLock) {
+            WebsocketClientHandler client = websocketClient;
+            if (resuming || client == null || !client.isOpen()) {
+                return false;
+            }
+            try {
+                client.send(message);
+                return true;
+            } catch (WebsocketNotConnectedException e) {
+                return false;
+            }
+        }
+    }
+
+    private boolean sendBinary(ByteBuffer message) {
+        synchronized (sendLock) {
+            WebsocketClientHandler client = websocketClient;
+            if (resuming || client == null || !client.isOpen()) {
+                return false;
+            }
+            try {
+                client.send(message);
+                return true;
+            } catch (WebsocketNotConnectedException e) {
+                return false;
+            }
+        }
+    }
+
+    private boolean sendFragmented(FileStore.Chunks fragments) {
+        // Only the frame scheduler sends messages, so nothing ends up between the fragments. The
+        // lock is only held for one fragment at a time, while the next one is read and decrypted
+        // the connection is free.
+        WebsocketClientHandler client = websocketClient;
+        try {
+            while (fragments.hasNext()) {
+                ByteBuffer fragment = fragments.next();
+                boolean last = !fragments.hasNext();
+                synchronized (sendLock) {
+                    // The rest of the message cannot be sent on a new connection
+                    if (resuming || client == null || client != websocketClient
+                            || !client.isOpen()) {
+                        return false;
+                    }
+                    client.sendFragmentedFrame(Opcode.BINARY, fragment, last);
+                }
+            }
+            return true;
+        } catch (WebsocketNotConnectedException e) {
+            return false;
+        } catch (IOException e) {
+            // The message is incomplete, the connection cannot be used anymore
+            Log.w(TAG, "Failed to stream file", e);
+            client.closeConnection(CloseFrame.ABNORMAL_CLOSE, "Failed to stream file");
+            return false;
+        }
+    }
+
+    private void onHeartbeatTimeout(long silenceMillis) {
+        Log.w(TAG, "No response from WebSocket Server for " + silenceMillis + " ms");
+        if (sessionSpan != null) {
+            sessionSpan.addEvent("heartbeat_timeout",
+                    Attributes.builder()
+                            .put("network.silence_ms", silenceMillis)
+                            .put("network.srtt_ms", rttEstimator.getSmoothedRttMillis())
+                            .put("network.rto_ms", rttEstimator.getRetransmissionTimeoutMillis())
+                            .build());
+        }
+
+        lastConnectionError = new SocketTimeoutException(
+                "No response from server for " + silenceMillis + " ms");
+        WebsocketClientHandler client = websocketClient;
+        if (client != null && shouldReconnect()) {
+            // Abort without close handshake, a dead link would never complete it
+            client.closeConnection(CloseFrame.ABNORMAL_CLOSE, "Heartbeat timeout");
+        } else {
+            handleError(new WebsocketClientException("WebSocket connection lost",
+                    lastConnectionError), ClosedListener.COMMUNICATION_FAILED);
+        }
+    }
+
+    private void endConnectSpan(int code, String reason, boolean remote) {
         if (connectSpan != null) {
             connectSpan.addEvent("websocket_closed",
                     Attributes.builder()
@@ -299,8 +765,94 @@ public class WebsocketSessionCoordinator {
                             .build());
             connectSpan.end();
         }
+    }
+
+    public void cancel() {
+        if (sessionSpan != null) {
+            sessionSpan.addEvent("session_cancelled");
+        }
+        closeConnection(ClosedListener.CANCELLED_BY_USER);
+        stopTasks();
+    }
+
+    /**
+     * Stops everything the session runs on the shared executors, except the chip session,
+     * which ends with the connection to the chip.
+     */
+    private void stopTasks() {
+        ScheduledFuture<?> reconnect = reconnectTask;
+        if (reconnect != null) {
+            reconnect.cancel(false);
+        }
+        heartbeat.stop();
+        apduRelay.shutdown();
+    }
+
+    public boolean isOpen() {
+        WebsocketClientHandler client = websocketClient;
+        return client != null && client.isOpen();
+    }
+
+    public ProtocolState getState() {
+        return state;
+    }
+
+    /**
+     * @return The estimated progress of this session.
+     */
+    public ProgressEngine getProgressEngine() {
+        return progressEngine;
+    }
+
+    /**
+     * @return The latencies of the APDUs of this session.
+     */
+    public ApduProfiler getApduProfiler() {
+        return apduProfiler;
+    }
+
+    /**
+     * @return The RTT estimate of the current connection to the server.
+     */
+    public RttEstimator getRttEstimator() {
+        return rttEstimator;
+    }
+
+    public void onClose(int code, String reason, boolean remote) {
+        if (!closeNotified.compareAndSet(false, true)) {
+            return;
+        }
+        Log.d(TAG, "Websocket closed: " + code + " " + reason);
+
+        endConnectSpan(code, reason, remote);
 
         if (sessionSpan != null) {
+            sessionSpan.addEvent("apdu_relay_summary",
+                    Attributes.builder()
+                            .put("apdu.relayed_count", apduRelay.getRelayedCount())
+                            .put("nfc.chip_time_ms", apduRelay.getTotalChipTimeMillis())
+                            .put("network.time_ms", apduRelay.getTotalNetworkTimeMillis())
+                            .build());
+            ApduProfile apduProfile = apduProfiler.snapshot();
+            sessionSpan.addEvent("apdu_profile_summary",
+                    Attributes.builder()
+                            .put("apdu.local_count",
+                                    apduProfile.getCount(ApduProfile.Path.LOCAL))
+                            .put("apdu.local_radio_time_ms",
+                                    apduProfile.getRadioTimeMillis(ApduProfile.Path.LOCAL))
+                            .put("apdu.local_overhead_ms",
+                                    apduProfile.getOverheadTimeMillis(ApduProfile.Path.LOCAL))
+                            .put("apdu.relayed_radio_time_ms",
+                                    apduProfile.getRadioTimeMillis(ApduProfile.Path.RELAYED))
+                            .put("apdu.relayed_overhead_ms",
+                                    apduProfile.getOverheadTimeMillis(ApduProfile.Path.RELAYED))
+                            .build());
+            sessionSpan.addEvent("rtt_summary",
+                    Attributes.builder()
+                            .put("network.srtt_ms", rttEstimator.getSmoothedRttMillis())
+                            .put("network.rttvar_ms", rttEstimator.getRttVariationMillis())
+                            .put("network.rtt_samples", rttEstimator.getSampleCount())
+                            .build());
             sessionSpan.addEvent("session_closed",
                     Attributes.builder()
                             .put("close_code", code)
@@ -311,31 +863,90 @@ public class WebsocketSessionCoordinator {
         }
 
         transitionState(ProtocolState.CLOSED);
-        executor.shutdown();
+        acceptFuture.completeExceptionally(
+                new CancellationException("Session closed before it was accepted"));
+        frameScheduler.shutdown();
+        fileManager.close();
+        stopTasks();
         closedListener.handle(code, reason != null ? reason : "", remote);
     }
 
-    private void sendMonitoringMessage(WebsocketMonitoringMessage message) {
-        if (!options.isDiagnosticsEnabled()) {
-            // We only send monitoring messages during diagnostic sessions. Sending them all the
-            // time could delay passport reading by introducing unnecessary traffic.
+    private void recordMonitoringEvent(String event) {
+        // We only send monitoring messages during diagnostic sessions
+        if (options.isDiagnosticsEnabled()) {
+            monitoringBuffer.add(event);
+        }
+    }
+
+    /**
+     * Sends the collected monitoring events as one message. Only called when the reader does not
+     * wait for the connection, so the events never delay reading the chip.
+     */
+    private void flushMonitoringEvents() {
+        if (!acceptFuture.isDone() || acceptFuture.isCompletedExceptionally()) {
+            // The server did not accept the session (yet), keep them for the next flush
+            return;
+        }
+        WebsocketMonitoringMessage message = monitoringBuffer.drain();
+        if (message != null) {
+            sendControlMessage(FrameScheduler.Priority.BULK, message);
+        }
+    }
+
+    /**
+     * Sends a message as CBOR if the server supports it, as JSON otherwise.
+     */
+    private void sendControlMessage(FrameScheduler.Priority priority, WebsocketMessage message) {
+        FrameScheduler.SendAction action = encode(message);
+        if (action != null) {
+            frameScheduler.submit(priority, FrameScheduler.single(action), null);
+        }
+    }
+
+    /**
+     * Sends a message that is sent again when the session is resumed. If it is still queued
+     * from before the resume, that copy is skipped, so the server does not receive it twice.
+     * <p>
+     * The message is only sent after all files queued before it, because the server needs them
+     * to process it (e.g. DG14 for the chip authentication).
+     */
+    private void sendResumableMessage(FrameScheduler.Priority priority, WebsocketMessage message) {
+        FrameScheduler.SendAction action = encode(message);
+        if (action == null) {
             return;
         }
+        int generation = resumeCount;
+        frameScheduler.submitAfterQueued(priority, FrameScheduler.single(transport ->
+                generation != resumeCount || action.send(transport)));
+    }
+
+    @Nullable
+    private FrameScheduler.SendAction encode(WebsocketMessage message) {
+        if (useCbor) {
+            ByteBuffer encoded = BinaryMessageProtocol.ControlMessage.encode(message.toCbor());
+            return transport -> transport.send(encoded.duplicate());
+        }
         try {
-            websocketClient.send(message.toJson().toString());
+            String encoded = message.toJson().toString();
+            return transport -> transport.send(encoded);
         } catch (JSONException e) {
-            throw new AssertionError("Failed to create monitoring message", e);
+            handleProtocolError("Failed to make " + message.type + " message: " + e.getMessage());
+            return null;
         }
     }
 
-    private void sendStartMessage() {
+    private void sendStartMessage(boolean resume) {
         try {
             WebsocketStartMessage startMessage = new WebsocketStartMessage(
                     options.getValidationId(),
                     clientId,
                     "android",
-                    isoDep.isExtendedLengthApduSupported(),
-                    options.isDiagnosticsEnabled()
+                    options.getNfcLinkProfile().isExtendedLengthEnabled()
+                            && isoDep.isExtendedLengthApduSupported(),
+                    options.isDiagnosticsEnabled(),
+                    resume,
+                    true,
+                    true
             );
             websocketClient.send(startMessage.toJson().toString());
         } catch (JSONException e) {
@@ -343,30 +954,59 @@ public class WebsocketSessionCoordinator {
         }
     }
 
-    private void sendFinishMessage(EmrtdResult emrtdResult) {
+    private void sendFinishMessage(byte[] activeAuthenticationSignature) {
+        finishMessage = new WebsocketFinishMessage(
+                emrtdPassportListener != null,
+                activeAuthenticationSignature,
+                emrtdPassportListener != null && options.isPartialResultEnabled());
+        // The server expects all files before the finish message, the images are sent last
+        sendResumableMessage(FrameScheduler.Priority.BULK, finishMessage);
+    }
+
+    private void deliverLocalResult() {
+        byte[] dg1 = localDg1;
+        byte[] dg2 = localDg2;
+        localDg1 = null;
+        localDg2 = null;
+        if (localResultListener == null || dg1 == null) {
+            return;
+        }
         try {
-            WebsocketFinishMessage finishMessage = new WebsocketFinishMessage(
-                    emrtdPassportListener != null,
-                    emrtdResult.activeAuthenticationResult == null
-                            ? null
-                            : emrtdResult.activeAuthenticationResult.signature);
-            websocketClient.send(finishMessage.toJson().toString());
-        } catch (JSONException e) {
-            handleProtocolError("Failed to make finish message: " + e.getMessage());
+            localResultListener.accept(new LocalEmrtdResult(
+                    dg1, dg2, localDg1Verified && (dg2 == null || localDg2Verified)));
+        } catch (IOException | RuntimeException e) {
+            // The server parses the files itself, this only affects the local result
+            Log.w(TAG, "Failed to parse data groups for the local result", e);
+            if (sessionSpan != null) {
+                sessionSpan.recordException(e);
+            }
+        }
+    }
+
+    /**
+     * Adds the fields of a RESULT_PART to the result. Objects (e.g. {@code filesBinary}) are
+     * merged, so they can be split over several parts.
+     */
+    private static void mergeResultPart(JSONObject result, JSONObject fields)
+            throws JSONException {
+        Iterator<String> keys = fields.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = fields.get(key);
+            JSONObject existing = result.optJSONObject(key);
+            if (existing != null && value instanceof JSONObject) {
+                mergeResultPart(existing, (JSONObject) value);
+            } else {
+                result.put(key, value);
+            }
         }
     }
 
     private void sendChipAuthHandoverMessage(
             int maxTransceiveLength, int maxBlockSize, SecureMessagingWrapper wrapper) {
-        try {
-            WebsocketChipAuthenticationHandoverMessage msg =
-                    new WebsocketChipAuthenticationHandoverMessage(
-                            maxTransceiveLength, maxBlockSize,
-                            SecureMessagingInfo.fromWrapper(wrapper));
-            websocketClient.send(msg.toJson().toString());
-        } catch (JSONException e) {
-            handleProtocolError("Failed to create CA handover message: " + e.getMessage());
-        }
+        chipAuthHandoverMessage = new WebsocketChipAuthenticationHandoverMessage(
+                maxTransceiveLength, maxBlockSize, SecureMessagingWrappers.fromWrapper(wrapper));
+        sendResumableMessage(FrameScheduler.Priority.URGENT, chipAuthHandoverMessage);
     }
 
     private void handleProtocolError(String info) {
@@ -375,6 +1015,11 @@ public class WebsocketSessionCoordinator {
     }
 
     private void handleError(Exception e, String reason) {
+        if (state == ProtocolState.CLOSED) {
+            // Follow-up of the close, e.g. the chip session aborted because the session ended
+            Log.d(TAG, "Ignoring error after close: " + reason, e);
+            return;
+        }
         Log.e(TAG, "Error: " + reason, e);
 
         if (sessionSpan != null) {
@@ -383,7 +1028,13 @@ public class WebsocketSessionCoordinator {
         }
 
         errorListener.accept(e);
-        closeConnection(reason);
+        // Best effort, the connection might already be gone
+        recordMonitoringEvent("Error: " + reason);
+        flushMonitoringEvents();
+        closeConnection(reason, lastConnectionError instanceof SocketTimeoutException);
+        // The session cannot be resumed anymore, do not wait for the close handshake to delete
+        // the spilled files
+        fileManager.close();
     }
 
     private void transitionState(ProtocolState newState) {
@@ -398,11 +1049,33 @@ public class WebsocketSessionCoordinator {
     }
 
     private void closeConnection(String reason) {
-        if (websocketClient.isOpen()) {
-            websocketClient.close(
+        closeConnection(reason, false);
+    }
+
+    /**
+     * @param abort Close without close handshake, e.g. because the server does not respond.
+     */
+    private void closeConnection(String reason, boolean abort) {
+        closeRequested = true;
+        WebsocketClientHandler client = websocketClient;
+        if (client != null && client.isOpen() && abort) {
+            client.closeConnection(ClosedListener.CLOSE_CODES.get(reason), reason);
+        } else if (client != null && client.isOpen()) {
+            client.close(
                     ClosedListener.CLOSE_CODES.get(reason),
                     reason
             );
+        } else if (client == null || resuming) {
+            // There is no open connection that would report the close, e.g. while connecting or
+            // waiting for the next reconnect attempt
+            ConnectionRacer<WebsocketClientHandler> racer = connectionRacer;
+            if (racer != null) {
+                racer.cancel();
+            }
+            if (client != null) {
+                client.close();
+            }
+            onClose(ClosedListener.CLOSE_CODES.get(reason), reason, false);
         }
         transitionState(ProtocolState.CLOSED);
         closeNfcConnection();
@@ -423,8 +1096,18 @@ public class WebsocketSessionCoordinator {
             super(uri, headers, () -> sessionSpan, options.isDiagnosticsEnabled());
         }
 
+        private Exception connectError;
+
         @Override
         public void onWebsocketOpen(ServerHandshake handshake) {
+            if (this != websocketClient) {
+                ConnectionRacer<WebsocketClientHandler> racer = connectionRacer;
+                if (racer == null || !racer.onOpened(this)) {
+                    // Another attempt was faster
+                    close();
+                    return;
+                }
+            }
             if (connectSpan != null) {
                 connectSpan.addEvent("websocket_opened",
                         Attributes.builder()
@@ -433,27 +1116,77 @@ public class WebsocketSessionCoordinator {
                                 .build());
             }
 
+            heartbeat.start(this);
+            if (resuming) {
+                // Continue the session in its current state once the server accepts
+                sendStartMessage(true);
+                return;
+            }
             transitionState(ProtocolState.WAITING_FOR_ACCEPT);
-            sendStartMessage();
+            sendStartMessage(false);
         }
 
         @Override
         public void handleIncomingMessage(String message) {
+            heartbeat.onMessageReceived();
             dispatcher.handleTextMessage(message);
         }
 
         @Override
         public void handleIncomingMessage(ByteBuffer binary) {
+            heartbeat.onMessageReceived();
             dispatcher.handleBinaryMessage(binary);
         }
 
+        @Override
+        public void onWebsocketPong(WebSocket conn, Framedata f) {
+            super.onWebsocketPong(conn, f);
+            if (this == websocketClient) {
+                heartbeat.onPong();
+            }
+        }
+
         @Override
         public void onClose(int code, String reason, boolean remote) {
+            if (this != websocketClient) {
+                ConnectionRacer<WebsocketClientHandler> racer = connectionRacer;
+                if (racer != null) {
+                    racer.onAttemptFailed(this, connectError != null
+                            ? connectError
+                            : new IOException("Connection closed: " + code + " " + reason));
+                }
+                return;
+            }
+            heartbeat.stop();
+            boolean closedByServer = code == 1000 || ClosedListener.CLOSE_CODES.containsKey(reason);
+            if (!closedByServer && shouldReconnect()) {
+                scheduleReconnect(code, reason);
+                return;
+            }
+            if (resuming && !closeRequested) {
+                // Out of reconnect attempts
+                Exception cause = lastConnectionError;
+                handleError(new WebsocketClientException("WebSocket reconnect failed",
+                                cause != null ? cause : new IOException(code + " " + reason)),
+                        ClosedListener.COMMUNICATION_FAILED);
+                return;
+            }
             WebsocketSessionCoordinator.this.onClose(code, reason, remote);
         }
 
         @Override
         public void onError(Exception e) {
+            if (this != websocketClient) {
+                // Failed connection attempt, onClose() follows
+                connectError = e;
+                return;
+            }
+            lastConnectionError = e;
+            if (e instanceof IOException && shouldReconnect()) {
+                // The connection is lost, onClose() follows and schedules the reconnect
+                Log.w(TAG, "WebSocket connection failed", e);
+                return;
+            }
             handleError(new WebsocketClientException("WebSocket communication failed", e),
                     ClosedListener.COMMUNICATION_FAILED);
         }
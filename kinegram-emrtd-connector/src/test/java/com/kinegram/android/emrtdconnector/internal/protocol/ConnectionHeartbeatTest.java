@@ -0,0 +1,143 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class ConnectionHeartbeatTest {
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private final FakeLink link = new FakeLink();
+    private long nowNanos;
+    private Long lostAfterMillis;
+    private ConnectionHeartbeat heartbeat;
+
+    @Before
+    public void setUp() {
+        // The checks are run by the test, with a clock that only moves when the test says so
+        scheduler.shutdown();
+        heartbeat = new ConnectionHeartbeat(scheduler, new RttEstimator(),
+                silenceMillis -> lostAfterMillis = silenceMillis, () -> nowNanos);
+        heartbeat.start(link);
+    }
+
+    @After
+    public void tearDown() {
+        heartbeat.stop();
+    }
+
+    @Test
+    public void silentServerIsDetected() {
+        advance(ConnectionHeartbeat.PING_INTERVAL_MS);
+        assertEquals(1, link.pings);
+
+        // Without samples, the RTO is the initial one of RFC 6298
+        advance(ConnectionHeartbeat.MAX_MISSED_HEARTBEATS * RttEstimator.INITIAL_RTO_MS - 250);
+        assertNull(lostAfterMillis);
+        advance(500);
+        assertTrue(lostAfterMillis != null);
+    }
+
+    @Test
+    public void fastLinkIsLostAfterMinimumTimeout() {
+        RttEstimator fastLink = new RttEstimator();
+        for (int i = 0; i < 10; i++) {
+            fastLink.addSample(10);
+        }
+        heartbeat = new ConnectionHeartbeat(scheduler, fastLink,
+                silenceMillis -> lostAfterMillis = silenceMillis, () -> nowNanos);
+        heartbeat.start(link);
+
+        advance(ConnectionHeartbeat.PING_INTERVAL_MS);
+        advance(ConnectionHeartbeat.MIN_TIMEOUT_MS + 250);
+        assertTrue(lostAfterMillis != null);
+    }
+
+    @Test
+    public void respondingServerIsAlive() {
+        for (int i = 0; i < 20; i++) {
+            advance(ConnectionHeartbeat.PING_INTERVAL_MS);
+            heartbeat.onPong();
+        }
+        assertNull(lostAfterMillis);
+        assertEquals(20, link.pings);
+    }
+
+    @Test
+    public void neverLostBeforeMinimumTimeout() {
+        // A fast link has a small RTO, which alone would declare the link dead after 1.5 s
+        RttEstimator fastLink = new RttEstimator();
+        for (int i = 0; i < 10; i++) {
+            fastLink.addSample(10);
+        }
+        heartbeat = new ConnectionHeartbeat(scheduler, fastLink,
+                silenceMillis -> lostAfterMillis = silenceMillis, () -> nowNanos);
+        heartbeat.start(link);
+
+        advance(ConnectionHeartbeat.PING_INTERVAL_MS);
+        advance(ConnectionHeartbeat.MIN_TIMEOUT_MS - 250);
+        assertNull(lostAfterMillis);
+    }
+
+    @Test
+    public void slowUploadIsNotALostConnection() {
+        // A large file on a slow uplink keeps the send buffer full for a minute, the server
+        // stays silent all the time
+        link.buffered = true;
+        for (int i = 0; i < 240; i++) {
+            advance(250);
+        }
+        assertNull(lostAfterMillis);
+
+        // Silence only counts once the upload is done
+        link.buffered = false;
+        advance(ConnectionHeartbeat.MIN_TIMEOUT_MS - 250);
+        assertNull(lostAfterMillis);
+        advance(ConnectionHeartbeat.MIN_TIMEOUT_MS);
+        assertTrue(lostAfterMillis != null);
+    }
+
+    @Test
+    public void pingDuringUploadIsNoRttSample() {
+        RttEstimator estimator = new RttEstimator();
+        heartbeat = new ConnectionHeartbeat(scheduler, estimator,
+                silenceMillis -> lostAfterMillis = silenceMillis, () -> nowNanos);
+        heartbeat.start(link);
+
+        link.buffered = true;
+        advance(ConnectionHeartbeat.PING_INTERVAL_MS);
+        advance(5000);
+        heartbeat.onPong();
+        assertEquals(RttEstimator.INITIAL_RTO_MS, estimator.getRetransmissionTimeoutMillis());
+    }
+
+    /**
+     * Moves the clock and runs the check the scheduler would run.
+     */
+    private void advance(long millis) {
+        nowNanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        heartbeat.check();
+    }
+
+    private static class FakeLink implements ConnectionHeartbeat.Link {
+        boolean buffered;
+        int pings;
+
+        @Override
+        public boolean hasBufferedData() {
+            return buffered;
+        }
+
+        @Override
+        public void sendPing() {
+            pings++;
+        }
+    }
+}
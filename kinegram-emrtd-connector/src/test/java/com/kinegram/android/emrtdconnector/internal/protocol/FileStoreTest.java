@@ -0,0 +1,115 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class FileStoreTest {
+    private File directory;
+    private FileStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("file-store-test").toFile();
+        store = new FileStore(1024, directory);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+    }
+
+    @Test
+    public void smallFilesStayInMemory() throws IOException {
+        byte[] data = data(1000);
+        store.put("dg1", data);
+        assertFalse(store.isSpilled("dg1"));
+        assertArrayEquals(data, store.get("dg1"));
+        assertEquals(0, spilledFiles());
+    }
+
+    @Test
+    public void filesOverTheBudgetAreSpilledEncrypted() throws IOException {
+        // Not a multiple of the block size, so the last block is a partial one
+        byte[] data = data(40_000 + 7);
+        store.put("dg2", data);
+        assertTrue(store.isSpilled("dg2"));
+        assertEquals(1, spilledFiles());
+
+        byte[] onDisk = Files.readAllBytes(directory.listFiles()[0].toPath());
+        assertEquals(data.length, onDisk.length);
+        assertFalse(Arrays.equals(data, onDisk));
+
+        assertArrayEquals(data, store.get("dg2"));
+    }
+
+    @Test
+    public void spilledFilesReadBackInAnyChunkSize() throws IOException {
+        byte[] data = data(5000);
+        store.put("dg2", data);
+        for (int chunkSize : new int[]{1, 16, 1000, 4999, 5000, 100_000}) {
+            FileStore.Chunks chunks = store.open("dg2", chunkSize);
+            ByteBuffer all = ByteBuffer.allocate(data.length);
+            while (chunks.hasNext()) {
+                ByteBuffer chunk = chunks.next();
+                assertTrue(chunk.remaining() <= chunkSize);
+                all.put(chunk);
+            }
+            assertArrayEquals("Chunk size " + chunkSize, data, all.array());
+        }
+    }
+
+    @Test
+    public void closeDeletesSpilledFiles() throws IOException {
+        store.put("dg2", data(2000));
+        store.put("dg3", data(2000));
+        assertEquals(2, spilledFiles());
+
+        store.close();
+        assertEquals(0, spilledFiles());
+        assertNull(store.get("dg2"));
+    }
+
+    @Test
+    public void replacingAFileDeletesTheOldOne() throws IOException {
+        store.put("dg2", data(2000));
+        byte[] data = data(3000);
+        store.put("dg2", data);
+        assertEquals(1, spilledFiles());
+        assertArrayEquals(data, store.get("dg2"));
+    }
+
+    private int spilledFiles() {
+        File[] files = directory.listFiles();
+        return files == null ? 0 : files.length;
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,134 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class FrameSchedulerTest {
+    private final RecordingTransport transport = new RecordingTransport();
+    private final FrameScheduler scheduler = new FrameScheduler(transport);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void sendsByPriorityThenInOrder() throws InterruptedException {
+        scheduler.pause();
+        scheduler.submit(FrameScheduler.Priority.BULK, "dg2");
+        scheduler.submit(FrameScheduler.Priority.CONTROL, "dg1");
+        scheduler.submit(FrameScheduler.Priority.URGENT, "apdu");
+        scheduler.submit(FrameScheduler.Priority.CONTROL, "sod");
+        assertSent("apdu", "dg1", "sod", "dg2");
+    }
+
+    @Test
+    public void messageAfterQueuedWaitsForEarlierFiles() throws InterruptedException {
+        scheduler.pause();
+        scheduler.submit(FrameScheduler.Priority.CONTROL, chunks("dg14", 3), null);
+        scheduler.submitAfterQueued(FrameScheduler.Priority.URGENT,
+                FrameScheduler.single(t -> t.send("ca_handover")));
+        scheduler.submit(FrameScheduler.Priority.URGENT, "apdu");
+        assertSent("apdu", "dg14-0", "dg14-1", "dg14-2", "ca_handover");
+    }
+
+    @Test
+    public void messageAfterQueuedKeepsItsPriority() throws InterruptedException {
+        scheduler.pause();
+        scheduler.submitAfterQueued(FrameScheduler.Priority.URGENT,
+                FrameScheduler.single(t -> t.send("ca_handover")));
+        scheduler.submit(FrameScheduler.Priority.CONTROL, "dg1");
+        assertSent("ca_handover", "dg1");
+    }
+
+    @Test
+    public void holdsMessagesWhileDisconnected() throws InterruptedException {
+        transport.connected = false;
+        scheduler.submit(FrameScheduler.Priority.URGENT, "apdu-1");
+        scheduler.submit(FrameScheduler.Priority.URGENT, "apdu-2");
+        Thread.sleep(50);
+        transport.connected = true;
+        assertSent("apdu-1", "apdu-2");
+    }
+
+    private void assertSent(String... expected) throws InterruptedException {
+        transport.expect(expected.length);
+        scheduler.resume();
+        assertEquals(Arrays.asList(expected), transport.await());
+    }
+
+    private static FrameScheduler.Source chunks(String name, int count) {
+        return new FrameScheduler.Source() {
+            private int sent;
+
+            @Override
+            public boolean hasNext() {
+                return sent < count;
+            }
+
+            @Override
+            public boolean sendNext(FrameScheduler.Transport transport) {
+                if (!transport.send(name + "-" + sent)) {
+                    return false;
+                }
+                sent++;
+                return true;
+            }
+        };
+    }
+
+    private static class RecordingTransport implements FrameScheduler.Transport {
+        private final List<String> sent = new ArrayList<>();
+        private CountDownLatch latch = new CountDownLatch(0);
+        volatile boolean connected = true;
+
+        synchronized void expect(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        List<String> await() throws InterruptedException {
+            CountDownLatch latch;
+            synchronized (this) {
+                latch = this.latch;
+            }
+            latch.await(5, TimeUnit.SECONDS);
+            synchronized (this) {
+                return new ArrayList<>(sent);
+            }
+        }
+
+        @Override
+        public boolean send(ByteBuffer message) {
+            return send(new String(message.array()));
+        }
+
+        @Override
+        public synchronized boolean send(String message) {
+            if (!connected) {
+                return false;
+            }
+            sent.add(message);
+            latch.countDown();
+            return true;
+        }
+
+        @Override
+        public boolean sendFragmented(FileStore.Chunks fragments) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isBusy() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import net.sf.scuba.smartcards.CommandAPDU;
+import net.sf.scuba.smartcards.ResponseAPDU;
+
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The worked example of ICAO Doc 9303-11 (Appendix D.4) and the AES-CMAC test vectors of
+ * RFC 4493.
+ */
+public class SecureMessagingTest {
+    private static final byte[] KS_ENC = hex("979EC13B1CBFE9DCD01AB0FED307EAE5");
+    private static final byte[] KS_MAC = hex("F1CB1F1FB5ADF208806B89DC579DC1F8");
+    private static final long SSC = 0x887022120C06C226L;
+
+    @Test
+    public void wrapsAndUnwrapsSelect() throws GeneralSecurityException {
+        SecureMessaging sm = SecureMessaging.desede(KS_ENC, KS_MAC);
+
+        CommandAPDU wrapped = sm.wrap(new CommandAPDU(hex("00A4020C02011E")), SSC + 1, 256);
+        ResponseAPDU unwrapped = sm.unwrap(
+                new ResponseAPDU(hex("990290008E08FA855A5D4C50A8ED9000")), SSC + 2);
+
+        assertArrayEquals(hex("0CA4020C158709016375432908C044F68E08BF8B92D635FF24F800"),
+                wrapped.getBytes());
+        assertArrayEquals(hex("9000"), unwrapped.getBytes());
+    }
+
+    @Test
+    public void wrapsAndUnwrapsReadBinary() throws GeneralSecurityException {
+        SecureMessaging sm = SecureMessaging.desede(KS_ENC, KS_MAC);
+
+        CommandAPDU wrapped = sm.wrap(new CommandAPDU(hex("00B0000004")), SSC + 3, 256);
+        ResponseAPDU unwrapped = sm.unwrap(new ResponseAPDU(hex(
+                "8709019FF0EC34F9922651990290008E08AD55CC17140B2DED9000")), SSC + 4);
+
+        assertArrayEquals(hex("0CB000000D9701048E08ED6705417E96BA5500"), wrapped.getBytes());
+        assertArrayEquals(hex("60145F019000"), unwrapped.getBytes());
+    }
+
+    @Test
+    public void wrapsAndUnwrapsReadBinaryWithOffset() throws GeneralSecurityException {
+        SecureMessaging sm = SecureMessaging.desede(KS_ENC, KS_MAC);
+
+        CommandAPDU wrapped = sm.wrap(new CommandAPDU(hex("00B0000412")), SSC + 5, 256);
+        ResponseAPDU unwrapped = sm.unwrap(new ResponseAPDU(hex(
+                "871901FB9235F4E4037F2327DCC8964F1F9B8C30F42C8E2FFF224A99029000"
+                        + "8E08C8B2787EAEA07D749000")), SSC + 6);
+
+        assertArrayEquals(hex("0CB000040D9701128E082EA28A70F3C7B53500"), wrapped.getBytes());
+        assertArrayEquals(hex("04303130365F36063034303030305C0261759000"),
+                unwrapped.getBytes());
+    }
+
+    @Test
+    public void rejectsTamperedMac() throws GeneralSecurityException {
+        SecureMessaging sm = SecureMessaging.desede(KS_ENC, KS_MAC);
+
+        try {
+            sm.unwrap(new ResponseAPDU(hex("990290008E08FA855A5D4C50A8EE9000")), SSC + 2);
+            fail();
+        } catch (GeneralSecurityException expected) {
+            // The MAC is checked before anything is used
+        }
+    }
+
+    @Test
+    public void aesCmacMatchesRfc4493() throws GeneralSecurityException {
+        SecureMessaging.AesCmac cmac = new SecureMessaging.AesCmac(
+                new SecretKeySpec(hex("2b7e151628aed2a6abf7158809cf4f3c"), "AES"));
+
+        assertArrayEquals(hex("070a16b46b4d4144f79bdd9dd04a287c"),
+                cmac.compute(hex("6bc1bee22e409f96e93d7e117393172a")));
+        assertArrayEquals(hex("51f0bebf7e3b9d92fc49741779363cfe"),
+                cmac.compute(hex("6bc1bee22e409f96e93d7e117393172a"
+                        + "ae2d8a571e03ac9c9eb76fac45af8e51"
+                        + "30c81c46a35ce411e5fbc1191a0a52ef"
+                        + "f69f2445df4f9b17ad2b417be66c3710")));
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
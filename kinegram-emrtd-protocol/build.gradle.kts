@@ -0,0 +1,76 @@
+// The wire protocol between the connector and the DocVal server (messages, binary frames, CBOR,
+// dispatcher and protocol states) as plain Java, so it can be tested, load-tested and profiled on
+// a JVM and reused e.g. in a local server stand-in. The Android library depends on it and it is
+// published next to it, see kinegram-emrtd-connector/build.gradle.kts.
+plugins {
+    `java-library`
+    id("maven-publish")
+    id("signing")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+    withSourcesJar()
+    withJavadocJar()
+}
+
+dependencies {
+    // Part of the Android platform. JVM users add org.json to their runtime classpath.
+    compileOnly("org.json:json:20250517")
+    compileOnly("androidx.annotation:annotation:1.9.1")
+
+    testImplementation("junit:junit:4.13.2")
+    testImplementation("org.json:json:20250517")
+}
+
+publishing {
+    publications {
+        register<MavenPublication>("release") {
+            groupId = "com.kinegram.android"
+            artifactId = "emrtdconnector-protocol"
+
+            from(components["java"])
+
+            pom {
+                name.set("Kinegram eMRTD Connector SDK Protocol")
+                description.set("The wire protocol between the Kinegram eMRTD Connector and the Document Validation Server.")
+                url.set("https://kinegram.digital/mobile-chip-sdk/emrtd-connector/")
+                licenses {
+                    license {
+                        name.set("MIT License")
+                        url.set("https://opensource.org/licenses/mit-license.php")
+                    }
+                }
+                scm {
+                    connection.set("scm:git:https://github.com/OVD-Kinegram-AG/emrtd-connector-sdk-android.git")
+                    developerConnection.set("scm:git:git@github.com:OVD-Kinegram-AG/emrtd-connector-sdk-android.git")
+                    url.set("https://github.com/OVD-Kinegram-AG/emrtd-connector-sdk-android")
+                }
+                developers {
+                    developer {
+                        id.set("OVD Kinegram AG")
+                        name.set("OVD Kinegram AG")
+                        email.set("contact@kinegram.digital")
+                        url.set("https://kinegram.digital/")
+                        timezone.set("Europe/Zurich")
+                    }
+                }
+            }
+        }
+    }
+    repositories {
+        maven {
+            // The same repository as the Android library, so both end up in the distribution ZIP
+            name = "local"
+            url = uri("${project(":kinegram-emrtd-connector").buildDir}/repo")
+        }
+    }
+}
+
+signing {
+    val signingKey: String? by project
+    val signingPassword: String? by project
+    useInMemoryPgpKeys(signingKey, signingPassword)
+    sign(publishing.publications["release"])
+}
@@ -1,7 +1,10 @@
 package com.kinegram.android.emrtdconnector.internal.protocol;
 
+import com.kinegram.android.emrtdconnector.internal.protocol.message.Cbor;
+
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 /**
  * Binary protocol for file transfer and APDU messages over websocket.
@@ -19,6 +22,8 @@ import java.nio.charset.StandardCharsets;
 public class BinaryMessageProtocol {
     private static final byte MESSAGE_TYPE_FILE = 0x01;
     private static final byte MESSAGE_TYPE_APDU = 0x02;
+    private static final byte MESSAGE_TYPE_FILE_CHUNK = 0x03;
+    private static final byte MESSAGE_TYPE_CONTROL = 0x04;
 
     public interface Message {
     }
@@ -67,11 +72,7 @@ public class BinaryMessageProtocol {
                 throw new IllegalArgumentException("Not a file message. Type: " + messageType);
             }
 
-            byte nameLength = buffer.get();
-            if (nameLength < 0) {
-                throw new IllegalArgumentException("Invalid name length");
-            }
-
+            int nameLength = buffer.get() & 0xFF;
             if (buffer.remaining() < nameLength) {
                 throw new IllegalArgumentException("Insufficient data for name");
             }
@@ -172,6 +173,122 @@ public class BinaryMessageProtocol {
         }
     }
 
+    /**
+     * A part of a binary file. Large files are sent in chunks, so other messages can be sent in
+     * between. Only sent by the client, and only if the server enabled it in the ACCEPT message.
+     *
+     * <pre>
+     * +--------+-----------+----------+----------+----------+----------+
+     * | Type   | Name Len  | Name     | Offset   | Total    | Data     |
+     * | (1B)   | (1B)      | (var)    | (4B)     | (4B)     | (var)    |
+     * +--------+-----------+----------+----------+----------+----------+
+     * </pre>
+     *
+     * <ul>
+     *   <li><b>Type (1 byte):</b> Message type identifier (0x03 for file chunk messages)</li>
+     *   <li><b>Name Length (1 byte):</b> Length of the file name in bytes (0-255)</li>
+     *   <li><b>Name (variable):</b> UTF-8 encoded file name/identifier</li>
+     *   <li><b>Offset (4 bytes):</b> Position of the data in the file, big endian</li>
+     *   <li><b>Total (4 bytes):</b> Length of the complete file, big endian</li>
+     *   <li><b>Data (variable):</b> Raw file data bytes</li>
+     * </ul>
+     * <p>
+     * The chunks of a file are sent in order. The file is complete when offset plus data length
+     * equals the total length. If the session is resumed, incomplete files are sent again from
+     * offset 0.
+     */
+    public static class FileChunkMessage {
+        private FileChunkMessage() {
+        }
+
+        /**
+         * Encode a file chunk message.
+         *
+         * @param name   The file identifier (e.g., "sod", "dg1")
+         * @param offset Position of the chunk in the file
+         * @param total  Length of the complete file
+         * @param chunk  The data of the chunk
+         * @return Encoded message as ByteBuffer
+         */
+        public static ByteBuffer encode(String name, int offset, int total, ByteBuffer chunk) {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+            if (nameBytes.length > 255) {
+                throw new IllegalArgumentException("Name too long (max 255 bytes)");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(
+                    10 + nameBytes.length + chunk.remaining());
+            buffer.put(MESSAGE_TYPE_FILE_CHUNK);
+            buffer.put((byte) nameBytes.length);
+            buffer.put(nameBytes);
+            buffer.putInt(offset);
+            buffer.putInt(total);
+            buffer.put(chunk);
+            buffer.flip();
+
+            return buffer;
+        }
+    }
+
+    /**
+     * A control message (CA_HANDOVER, FINISH, ...) encoded as a CBOR map instead of JSON. Binary
+     * fields like keys and signatures are CBOR byte strings instead of base64. Only used if the
+     * server enabled it in the ACCEPT message, everything before that is JSON.
+     *
+     * <pre>
+     * +--------+----------+
+     * | Type   | CBOR     |
+     * | (1B)   | (var)    |
+     * +--------+----------+
+     * </pre>
+     *
+     * <ul>
+     *   <li><b>Type (1 byte):</b> Message type identifier (0x04 for control messages)</li>
+     *   <li><b>CBOR (variable):</b> A map with the same fields as the JSON message</li>
+     * </ul>
+     */
+    public static class ControlMessage implements Message {
+        private final Map<String, Object> fields;
+
+        public ControlMessage(Map<String, Object> fields) {
+            this.fields = fields;
+        }
+
+        public Map<String, Object> getFields() {
+            return fields;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static ControlMessage decode(ByteBuffer buffer) {
+            byte messageType = buffer.get();
+            if (messageType != MESSAGE_TYPE_CONTROL) {
+                throw new IllegalArgumentException("Not a control message. Type: " + messageType);
+            }
+
+            Object decoded = Cbor.decode(buffer);
+            if (!(decoded instanceof Map)) {
+                throw new IllegalArgumentException("Control message is not a CBOR map");
+            }
+            return new ControlMessage((Map<String, Object>) decoded);
+        }
+
+        /**
+         * Encode a control message.
+         *
+         * @param cbor The CBOR encoded message
+         * @return Encoded message as ByteBuffer
+         */
+        public static ByteBuffer encode(byte[] cbor) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 + cbor.length);
+            buffer.put(MESSAGE_TYPE_CONTROL);
+            buffer.put(cbor);
+            buffer.flip();
+
+            return buffer;
+        }
+    }
+
     /**
      * Decode a binary message.
      *
@@ -191,6 +308,8 @@ public class BinaryMessageProtocol {
                 return FileMessage.decode(buffer);
             case MESSAGE_TYPE_APDU:
                 return ApduMessage.decode(buffer);
+            case MESSAGE_TYPE_CONTROL:
+                return ControlMessage.decode(buffer);
             default:
                 throw new IllegalArgumentException("Unknown message type: " + messageType);
         }
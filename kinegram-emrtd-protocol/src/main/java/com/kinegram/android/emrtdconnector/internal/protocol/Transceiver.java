@@ -0,0 +1,19 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Sends a command APDU to the chip and returns its response, e.g. through an Android
+ * {@code IsoDep} or a simulated chip in tests and load tests.
+ */
+public interface Transceiver {
+    /**
+     * @param command The command APDU.
+     * @return The response APDU including the status word.
+     * @throws IOException If the chip could not be reached.
+     */
+    @NonNull
+    byte[] transceive(@NonNull byte[] command) throws IOException;
+}
@@ -1,23 +1,25 @@
 package com.kinegram.android.emrtdconnector.internal.protocol;
 
-import android.util.Log;
-
 import com.kinegram.android.emrtdconnector.internal.protocol.message.WebsocketAcceptMessage;
 import com.kinegram.android.emrtdconnector.internal.protocol.message.WebsocketChipAuthenticationHandbackMessage;
 import com.kinegram.android.emrtdconnector.internal.protocol.message.WebsocketMessage;
 import com.kinegram.android.emrtdconnector.internal.protocol.message.WebsocketResultMessage;
+import com.kinegram.android.emrtdconnector.internal.protocol.message.WebsocketResultPartMessage;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Consumes string and binary byte buffer messages from the websocket, parses them and then
  * dispatches them to the given handler.
  */
 public class WebsocketMessageDispatcher {
-    private static final String TAG = WebsocketMessageDispatcher.class.getSimpleName();
+    private static final Logger LOGGER =
+            Logger.getLogger(WebsocketMessageDispatcher.class.getName());
 
     private final WebsocketMessageHandler handler;
 
@@ -31,28 +33,12 @@ public class WebsocketMessageDispatcher {
     public void handleTextMessage(String message) {
         try {
             JSONObject obj = new JSONObject(message);
-            WebsocketMessage wsMsg = WebsocketMessage.fromJson(obj);
-            switch (wsMsg.type) {
-                case WebsocketMessage.TYPE_ACCEPT:
-                    handler.onAccept((WebsocketAcceptMessage) wsMsg);
-                    break;
-                case WebsocketMessage.TYPE_CA_HANDBACK:
-                    handler.onChipAuthenticationHandback((WebsocketChipAuthenticationHandbackMessage) wsMsg);
-                    break;
-                case WebsocketMessage.TYPE_RESULT:
-                    handler.onResult((WebsocketResultMessage) wsMsg);
-                    break;
-                case WebsocketMessage.TYPE_CLOSE:
-                    // NOOP - Only used in iOS
-                    break;
-                default:
-                    handler.onUnknownMessage(wsMsg, null);
-            }
+            dispatch(WebsocketMessage.fromJson(obj));
         } catch (JSONException e) {
-            Log.e(TAG, "Failed to parse JSON message: " + message, e);
+            LOGGER.log(Level.SEVERE, "Failed to parse JSON message: " + message, e);
             handler.onUnknownMessage(message, e);
         } catch (Exception e) {
-            Log.e(TAG, "Unexpected error handling text message", e);
+            LOGGER.log(Level.SEVERE, "Unexpected error handling text message", e);
             handler.onUnknownMessage(message, e);
         }
     }
@@ -67,15 +53,40 @@ public class WebsocketMessageDispatcher {
                 handler.onApduCommand((BinaryMessageProtocol.ApduMessage) msg);
             } else if (msg instanceof BinaryMessageProtocol.FileMessage) {
                 handler.onFileReceived((BinaryMessageProtocol.FileMessage) msg);
+            } else if (msg instanceof BinaryMessageProtocol.ControlMessage) {
+                dispatch(WebsocketMessage.fromCbor(
+                        ((BinaryMessageProtocol.ControlMessage) msg).getFields()));
             } else {
                 handler.onUnknownMessage(msg, null);
             }
         } catch (Exception e) {
-            Log.e(TAG, "Failed to parse binary message", e);
+            LOGGER.log(Level.SEVERE, "Failed to parse binary message", e);
             handler.onUnknownMessage(binary, e);
         }
     }
 
+    private void dispatch(WebsocketMessage wsMsg) {
+        switch (wsMsg.type) {
+            case WebsocketMessage.TYPE_ACCEPT:
+                handler.onAccept((WebsocketAcceptMessage) wsMsg);
+                break;
+            case WebsocketMessage.TYPE_CA_HANDBACK:
+                handler.onChipAuthenticationHandback((WebsocketChipAuthenticationHandbackMessage) wsMsg);
+                break;
+            case WebsocketMessage.TYPE_RESULT:
+                handler.onResult((WebsocketResultMessage) wsMsg);
+                break;
+            case WebsocketMessage.TYPE_RESULT_PART:
+                handler.onResultPart((WebsocketResultPartMessage) wsMsg);
+                break;
+            case WebsocketMessage.TYPE_CLOSE:
+                // NOOP - Only used in iOS
+                break;
+            default:
+                handler.onUnknownMessage(wsMsg, null);
+        }
+    }
+
     public interface WebsocketMessageHandler {
         void onAccept(WebsocketAcceptMessage msg);
 
@@ -83,6 +94,8 @@ public class WebsocketMessageDispatcher {
 
         void onResult(WebsocketResultMessage msg);
 
+        void onResultPart(WebsocketResultPartMessage msg);
+
         void onApduCommand(BinaryMessageProtocol.ApduMessage msg);
 
         void onFileReceived(BinaryMessageProtocol.FileMessage msg);
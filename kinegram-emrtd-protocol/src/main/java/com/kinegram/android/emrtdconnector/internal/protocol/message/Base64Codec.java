@@ -0,0 +1,49 @@
+package com.kinegram.android.emrtdconnector.internal.protocol.message;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Encodes the binary fields of JSON messages.
+ * <p>
+ * The messages do not depend on a platform Base64 implementation: {@code java.util.Base64} is
+ * used by default, platforms without it (Android before API level 26) install their own with
+ * {@link #setInstance(Base64Codec)} before the first message is encoded or decoded.
+ */
+public abstract class Base64Codec {
+    private static volatile Base64Codec instance;
+
+    /**
+     * @param codec The codec used by all messages.
+     */
+    public static void setInstance(@NonNull Base64Codec codec) {
+        instance = codec;
+    }
+
+    /**
+     * @return The codec used by all messages.
+     */
+    @NonNull
+    public static Base64Codec getInstance() {
+        Base64Codec codec = instance;
+        if (codec == null) {
+            codec = new JavaBase64Codec();
+            instance = codec;
+        }
+        return codec;
+    }
+
+    /**
+     * @param data The bytes to encode.
+     * @return The standard Base64 encoding, without line breaks.
+     */
+    @NonNull
+    public abstract String encode(@NonNull byte[] data);
+
+    /**
+     * @param data Standard Base64, line breaks are ignored.
+     * @return The decoded bytes.
+     * @throws IllegalArgumentException If the data is not valid Base64.
+     */
+    @NonNull
+    public abstract byte[] decode(@NonNull String data);
+}
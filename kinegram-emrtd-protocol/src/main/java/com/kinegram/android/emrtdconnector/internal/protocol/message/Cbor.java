@@ -0,0 +1,256 @@
+package com.kinegram.android.emrtdconnector.internal.protocol.message;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The subset of CBOR (RFC 8949) used for control messages: maps with text keys, arrays, text
+ * and byte strings, integers, booleans and null. Only definite lengths are supported.
+ * <p>
+ * Decoded values are {@link Map}, {@link List}, {@link String}, {@code byte[]}, {@link Long},
+ * {@link Boolean} or {@code null}.
+ */
+public final class Cbor {
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_SIMPLE = 7;
+    private static final int SIMPLE_FALSE = 20;
+    private static final int SIMPLE_TRUE = 21;
+    private static final int SIMPLE_NULL = 22;
+    private static final int MAX_DEPTH = 16;
+
+    private Cbor() {
+    }
+
+    /**
+     * Builds an encoded value. Maps and arrays are started with their number of entries,
+     * followed by the entries (for maps alternating key and value).
+     */
+    public static class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        public Writer map(int size) {
+            head(MAJOR_MAP, size);
+            return this;
+        }
+
+        public Writer array(int size) {
+            head(MAJOR_ARRAY, size);
+            return this;
+        }
+
+        public Writer text(@NonNull String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            head(MAJOR_TEXT, bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        public Writer bytes(@NonNull byte[] value) {
+            head(MAJOR_BYTES, value.length);
+            out.write(value, 0, value.length);
+            return this;
+        }
+
+        public Writer integer(long value) {
+            if (value >= 0) {
+                head(MAJOR_UNSIGNED, value);
+            } else {
+                head(MAJOR_NEGATIVE, -1 - value);
+            }
+            return this;
+        }
+
+        public Writer bool(boolean value) {
+            out.write(MAJOR_SIMPLE << 5 | (value ? SIMPLE_TRUE : SIMPLE_FALSE));
+            return this;
+        }
+
+        public Writer nil() {
+            out.write(MAJOR_SIMPLE << 5 | SIMPLE_NULL);
+            return this;
+        }
+
+        public byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        private void head(int major, long argument) {
+            int type = major << 5;
+            if (argument < 24) {
+                out.write(type | (int) argument);
+            } else if (argument <= 0xFF) {
+                out.write(type | 24);
+                out.write((int) argument);
+            } else if (argument <= 0xFFFF) {
+                out.write(type | 25);
+                writeBigEndian(argument, 2);
+            } else if (argument <= 0xFFFFFFFFL) {
+                out.write(type | 26);
+                writeBigEndian(argument, 4);
+            } else {
+                out.write(type | 27);
+                writeBigEndian(argument, 8);
+            }
+        }
+
+        private void writeBigEndian(long value, int length) {
+            for (int i = length - 1; i >= 0; i--) {
+                out.write((int) (value >>> (8 * i)) & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Decodes one value.
+     *
+     * @throws IllegalArgumentException If the data is malformed or uses unsupported features.
+     */
+    public static Object decode(@NonNull ByteBuffer buffer) {
+        return decode(buffer, 0);
+    }
+
+    private static Object decode(ByteBuffer buffer, int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("CBOR nested too deeply");
+        }
+        int initial = readByte(buffer);
+        int major = initial >>> 5;
+        int info = initial & 0x1F;
+        if (major == MAJOR_SIMPLE) {
+            switch (info) {
+                case SIMPLE_FALSE:
+                    return false;
+                case SIMPLE_TRUE:
+                    return true;
+                case SIMPLE_NULL:
+                    return null;
+                default:
+                    throw new IllegalArgumentException("Unsupported CBOR simple value: " + info);
+            }
+        }
+        long argument = readArgument(buffer, info);
+        switch (major) {
+            case MAJOR_UNSIGNED:
+                return argument;
+            case MAJOR_NEGATIVE:
+                return -1 - argument;
+            case MAJOR_BYTES:
+                return readBytes(buffer, argument);
+            case MAJOR_TEXT:
+                return new String(readBytes(buffer, argument), StandardCharsets.UTF_8);
+            case MAJOR_ARRAY: {
+                int size = checkedSize(buffer, argument);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(decode(buffer, depth + 1));
+                }
+                return list;
+            }
+            case MAJOR_MAP: {
+                int size = checkedSize(buffer, argument);
+                Map<String, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    Object key = decode(buffer, depth + 1);
+                    if (!(key instanceof String)) {
+                        throw new IllegalArgumentException("CBOR map key is not a string");
+                    }
+                    map.put((String) key, decode(buffer, depth + 1));
+                }
+                return map;
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported CBOR major type: " + major);
+        }
+    }
+
+    private static long readArgument(ByteBuffer buffer, int info) {
+        if (info < 24) {
+            return info;
+        }
+        switch (info) {
+            case 24:
+                return readByte(buffer);
+            case 25:
+                return readBigEndian(buffer, 2);
+            case 26:
+                return readBigEndian(buffer, 4);
+            case 27:
+                return readBigEndian(buffer, 8);
+            default:
+                throw new IllegalArgumentException("Unsupported CBOR length: " + info);
+        }
+    }
+
+    private static int readByte(ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) {
+            throw new IllegalArgumentException("CBOR data too short");
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    private static long readBigEndian(ByteBuffer buffer, int length) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | readByte(buffer);
+        }
+        return value;
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, long length) {
+        byte[] bytes = new byte[checkedSize(buffer, length)];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Every entry takes at least one byte, so no size can exceed the remaining data.
+     */
+    private static int checkedSize(ByteBuffer buffer, long size) {
+        if (size < 0 || size > buffer.remaining()) {
+            throw new IllegalArgumentException("CBOR length exceeds data");
+        }
+        return (int) size;
+    }
+
+    // Accessors for decoded maps
+
+    @NonNull
+    public static Map<String, Object> getMap(Map<String, Object> map, String key) {
+        return get(map, key, Map.class);
+    }
+
+    @NonNull
+    public static String getString(Map<String, Object> map, String key) {
+        return get(map, key, String.class);
+    }
+
+    @NonNull
+    public static byte[] getBytes(Map<String, Object> map, String key) {
+        return get(map, key, byte[].class);
+    }
+
+    public static long getLong(Map<String, Object> map, String key) {
+        return get(map, key, Long.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T get(Map<String, Object> map, String key, Class<?> type) {
+        Object value = map.get(key);
+        if (!type.isInstance(value)) {
+            throw new IllegalArgumentException("Missing or invalid CBOR field: " + key);
+        }
+        return (T) value;
+    }
+}
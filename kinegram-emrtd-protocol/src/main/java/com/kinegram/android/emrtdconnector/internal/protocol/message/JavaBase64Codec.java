@@ -0,0 +1,22 @@
+package com.kinegram.android.emrtdconnector.internal.protocol.message;
+
+import androidx.annotation.NonNull;
+
+import java.util.Base64;
+
+/**
+ * The default {@link Base64Codec}, only loaded if no other codec was set.
+ */
+class JavaBase64Codec extends Base64Codec {
+    @NonNull
+    @Override
+    public String encode(@NonNull byte[] data) {
+        return Base64.getEncoder().encodeToString(data);
+    }
+
+    @NonNull
+    @Override
+    public byte[] decode(@NonNull String data) {
+        return Base64.getMimeDecoder().decode(data);
+    }
+}
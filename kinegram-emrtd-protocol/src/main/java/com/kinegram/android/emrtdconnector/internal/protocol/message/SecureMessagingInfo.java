@@ -0,0 +1,75 @@
+package com.kinegram.android.emrtdconnector.internal.protocol.message;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+
+/**
+ * Information needed for secure messaging.
+ * <p>
+ * Converted from and to the wrapper of the reader by {@code SecureMessagingWrappers}.
+ */
+public class SecureMessagingInfo {
+    @NonNull
+    public final String algorithm;
+    @NonNull
+    public final byte[] encKey;
+    @NonNull
+    public final byte[] macKey;
+    public final long ssc;
+
+    /**
+     * @param algorithm The algorithm used, currently either AES or DESede.
+     * @param encKey    The session key for encryption.
+     * @param macKey    The session key for macs.
+     * @param ssc       The value of the send sequence counter.
+     */
+    public SecureMessagingInfo(
+            @NonNull String algorithm, @NonNull byte[] encKey, @NonNull byte[] macKey, long ssc) {
+        this.algorithm = algorithm;
+        this.encKey = encKey;
+        this.macKey = macKey;
+        this.ssc = ssc;
+    }
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("algorithm", algorithm);
+        json.put("encKey", Base64Codec.getInstance().encode(encKey));
+        json.put("macKey", Base64Codec.getInstance().encode(macKey));
+        json.put("ssc", ssc);
+        return json;
+    }
+
+    public static SecureMessagingInfo fromJson(JSONObject json) throws JSONException {
+        return new SecureMessagingInfo(
+                json.getString("algorithm"),
+                Base64Codec.getInstance().decode(json.getString("encKey")),
+                Base64Codec.getInstance().decode(json.getString("macKey")),
+                json.getLong("ssc")
+        );
+    }
+
+    /**
+     * Writes this info as a CBOR map, with the keys as raw bytes.
+     */
+    public void toCbor(Cbor.Writer writer) {
+        writer.map(4)
+                .text("algorithm").text(algorithm)
+                .text("encKey").bytes(encKey)
+                .text("macKey").bytes(macKey)
+                .text("ssc").integer(ssc);
+    }
+
+    public static SecureMessagingInfo fromCbor(Map<String, Object> map) {
+        return new SecureMessagingInfo(
+                Cbor.getString(map, "algorithm"),
+                Cbor.getBytes(map, "encKey"),
+                Cbor.getBytes(map, "macKey"),
+                Cbor.getLong(map, "ssc")
+        );
+    }
+}
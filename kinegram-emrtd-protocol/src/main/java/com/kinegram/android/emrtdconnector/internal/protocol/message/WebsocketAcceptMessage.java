@@ -0,0 +1,73 @@
+package com.kinegram.android.emrtdconnector.internal.protocol.message;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Message sent from server to client as a response to the START message.
+ */
+public class WebsocketAcceptMessage extends WebsocketMessage {
+    /**
+     * Challenge for the chip to solve, if the chip supports active authentication (AA) and not chip
+     * authentication (which is preferred over AA).
+     */
+    @NonNull
+    public final byte[] activeAuthenticationChallenge;
+
+    /**
+     * Names of the files the server already received. Only sent when a session is resumed.
+     */
+    @Nullable
+    public final List<String> receivedFiles;
+
+    /**
+     * Maximum size of a file chunk the server accepts, or 0 if files must be sent as one message.
+     */
+    public final int fileChunkSize;
+
+    /**
+     * When {@code true}, all following control messages are sent as CBOR in both directions.
+     */
+    public final boolean useCbor;
+
+    public WebsocketAcceptMessage(
+            @NonNull byte[] activeAuthenticationChallenge,
+            @Nullable List<String> receivedFiles,
+            int fileChunkSize,
+            boolean useCbor) {
+        super(TYPE_ACCEPT);
+        this.activeAuthenticationChallenge = activeAuthenticationChallenge;
+        this.receivedFiles = receivedFiles;
+        this.fileChunkSize = fileChunkSize;
+        this.useCbor = useCbor;
+    }
+
+    @Override
+    public JSONObject toJson() {
+        throw new UnsupportedOperationException("Not supported");
+    }
+
+    public static WebsocketAcceptMessage fromJson(JSONObject json) throws JSONException {
+        List<String> receivedFiles = null;
+        JSONArray receivedFilesJson = json.optJSONArray("receivedFiles");
+        if (receivedFilesJson != null) {
+            receivedFiles = new ArrayList<>();
+            for (int i = 0; i < receivedFilesJson.length(); i++) {
+                receivedFiles.add(receivedFilesJson.getString(i));
+            }
+        }
+        return new WebsocketAcceptMessage(
+                Base64Codec.getInstance().decode(json.getString("activeAuthenticationChallenge")),
+                receivedFiles,
+                json.optInt("fileChunkSize", 0),
+                "cbor".equals(json.optString("controlEncoding", "json"))
+        );
+    }
+}
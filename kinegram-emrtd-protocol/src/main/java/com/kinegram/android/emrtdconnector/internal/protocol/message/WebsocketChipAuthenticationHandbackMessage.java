@@ -2,11 +2,11 @@ package com.kinegram.android.emrtdconnector.internal.protocol.message;
 
 import androidx.annotation.NonNull;
 
-import com.kinegram.emrtd.CheckResult;
-
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Map;
+
 /**
  * Message sent from server to client when it finished Chip Authentication.
  */
@@ -14,12 +14,15 @@ public class WebsocketChipAuthenticationHandbackMessage extends WebsocketMessage
     @NonNull
     public final SecureMessagingInfo secureMessagingInfo;
 
+    /**
+     * Name of the {@code com.kinegram.emrtd.CheckResult} of the chip authentication.
+     */
     @NonNull
-    public CheckResult checkResult;
+    public final String checkResult;
 
     public WebsocketChipAuthenticationHandbackMessage(
             @NonNull SecureMessagingInfo secureMessagingInfo,
-            @NonNull CheckResult checkResult
+            @NonNull String checkResult
     ) {
         super(TYPE_CA_HANDBACK);
         this.secureMessagingInfo = secureMessagingInfo;
@@ -35,7 +38,14 @@ public class WebsocketChipAuthenticationHandbackMessage extends WebsocketMessage
             JSONObject json) throws JSONException {
         return new WebsocketChipAuthenticationHandbackMessage(
                 SecureMessagingInfo.fromJson(json.getJSONObject("secureMessagingInfo")),
-                CheckResult.valueOf(json.getString("checkResult"))
+                json.getString("checkResult")
+        );
+    }
+
+    public static WebsocketChipAuthenticationHandbackMessage fromCbor(Map<String, Object> map) {
+        return new WebsocketChipAuthenticationHandbackMessage(
+                SecureMessagingInfo.fromCbor(Cbor.getMap(map, "secureMessagingInfo")),
+                Cbor.getString(map, "checkResult")
         );
     }
 }
@@ -35,6 +35,19 @@ public class WebsocketChipAuthenticationHandoverMessage extends WebsocketMessage
         return json;
     }
 
+    @Override
+    public byte[] toCbor() {
+        Cbor.Writer writer = new Cbor.Writer()
+                .map(4)
+                .text("type").text(type)
+                .text("maxTransceiveLengthForSecureMessaging")
+                .integer(maxTransceiveLengthForSecureMessaging)
+                .text("maxBlockSize").integer(maxBlockSize)
+                .text("secureMessagingInfo");
+        secureMessagingInfo.toCbor(writer);
+        return writer.toByteArray();
+    }
+
     public static WebsocketAcceptMessage fromJson(JSONObject json) {
         throw new UnsupportedOperationException("Not supported");
     }
@@ -6,6 +6,8 @@ import androidx.annotation.NonNull;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Map;
+
 /**
  * Message sent from server to client before closing the session.
  * <p>
@@ -31,4 +33,9 @@ public class WebsocketCloseMessage extends WebsocketMessage {
     public static WebsocketCloseMessage fromJson(JSONObject json) throws JSONException {
         return new WebsocketCloseMessage(json.getInt("code"), json.getString("reason"));
     }
+
+    public static WebsocketCloseMessage fromCbor(Map<String, Object> map) {
+        return new WebsocketCloseMessage(
+                (int) Cbor.getLong(map, "code"), Cbor.getString(map, "reason"));
+    }
 }
@@ -1,7 +1,5 @@
 package com.kinegram.android.emrtdconnector.internal.protocol.message;
 
-import android.util.Base64;
-
 import androidx.annotation.Nullable;
 
 import org.json.JSONException;
@@ -22,22 +20,50 @@ public class WebsocketFinishMessage extends WebsocketMessage {
     @Nullable
     public final byte[] activeAuthenticationSignature;
 
+    /**
+     * When {@code true}, the server may send the result in parts: a RESULT message without the
+     * large fields first, followed by RESULT_PART messages.
+     */
+    public final boolean partialResult;
+
     public WebsocketFinishMessage(
             boolean sendResult,
-            @Nullable byte[] activeAuthenticationSignature) {
+            @Nullable byte[] activeAuthenticationSignature,
+            boolean partialResult) {
         super(TYPE_FINISH);
         this.sendResult = sendResult;
         this.activeAuthenticationSignature = activeAuthenticationSignature;
+        this.partialResult = partialResult;
     }
 
     @Override
     public JSONObject toJson() throws JSONException {
-        return new JSONObject()
+        JSONObject json = new JSONObject()
                 .put("type", type)
                 .put("sendResult", sendResult)
                 .put("activeAuthenticationSignature", activeAuthenticationSignature == null
                         ? null :
-                        Base64.encodeToString(activeAuthenticationSignature, Base64.NO_WRAP));
+                        Base64Codec.getInstance().encode(activeAuthenticationSignature));
+        if (partialResult) {
+            json.put("partialResult", true);
+        }
+        return json;
+    }
+
+    @Override
+    public byte[] toCbor() {
+        Cbor.Writer writer = new Cbor.Writer()
+                .map(4)
+                .text("type").text(type)
+                .text("sendResult").bool(sendResult)
+                .text("partialResult").bool(partialResult)
+                .text("activeAuthenticationSignature");
+        if (activeAuthenticationSignature == null) {
+            writer.nil();
+        } else {
+            writer.bytes(activeAuthenticationSignature);
+        }
+        return writer.toByteArray();
     }
 
     public static WebsocketFinishMessage fromJson(JSONObject json) throws JSONException {
@@ -3,6 +3,8 @@ package com.kinegram.android.emrtdconnector.internal.protocol.message;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Map;
+
 public abstract class WebsocketMessage {
     public static final String TYPE_START = "START";
     public static final String TYPE_ACCEPT = "ACCEPT";
@@ -10,6 +12,7 @@ public abstract class WebsocketMessage {
     public static final String TYPE_CA_HANDBACK = "CA_HANDBACK";
     public static final String TYPE_FINISH = "FINISH";
     public static final String TYPE_RESULT = "RESULT";
+    public static final String TYPE_RESULT_PART = "RESULT_PART";
     public static final String TYPE_CLOSE = "CLOSE";
     public static final String TYPE_MONITORING = "MONITORING";
 
@@ -21,6 +24,13 @@ public abstract class WebsocketMessage {
 
     public abstract JSONObject toJson() throws JSONException;
 
+    /**
+     * Encodes this message as a CBOR map, for sessions that negotiated binary control messages.
+     */
+    public byte[] toCbor() {
+        throw new UnsupportedOperationException("Not supported");
+    }
+
     public static WebsocketMessage fromJson(JSONObject json) throws JSONException {
         String type = json.getString("type");
 
@@ -39,10 +49,31 @@ public abstract class WebsocketMessage {
                 return WebsocketCloseMessage.fromJson(json);
             case TYPE_RESULT:
                 return WebsocketResultMessage.fromJson(json);
+            case TYPE_RESULT_PART:
+                return WebsocketResultPartMessage.fromJson(json);
             case TYPE_MONITORING:
                 return WebsocketMonitoringMessage.fromJson(json);
             default:
                 return new WebsocketUnknownMessage(type, json);
         }
     }
+
+    /**
+     * Decodes a message received as CBOR. Only the messages the server sends after the session
+     * was accepted are supported.
+     *
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static WebsocketMessage fromCbor(Map<String, Object> map) {
+        String type = Cbor.getString(map, "type");
+
+        switch (type) {
+            case TYPE_CA_HANDBACK:
+                return WebsocketChipAuthenticationHandbackMessage.fromCbor(map);
+            case TYPE_CLOSE:
+                return WebsocketCloseMessage.fromCbor(map);
+            default:
+                return new WebsocketUnknownMessage(type, null);
+        }
+    }
 }
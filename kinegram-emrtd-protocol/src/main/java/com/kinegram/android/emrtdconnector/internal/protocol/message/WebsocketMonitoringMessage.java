@@ -25,6 +25,15 @@ public class WebsocketMonitoringMessage extends WebsocketMessage {
         return json;
     }
 
+    @Override
+    public byte[] toCbor() {
+        return new Cbor.Writer()
+                .map(2)
+                .text("type").text(type)
+                .text("message").text(message)
+                .toByteArray();
+    }
+
     public static WebsocketMonitoringMessage fromJson(JSONObject json) throws JSONException {
         return new WebsocketMonitoringMessage(json.getString("message"));
     }
@@ -0,0 +1,37 @@
+package com.kinegram.android.emrtdconnector.internal.protocol.message;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Message sent from server to the client if requested.
+ */
+public class WebsocketResultMessage extends WebsocketMessage {
+    /**
+     * The passport that is also sent to the result server, to add the following RESULT_PART
+     * messages to if it is partial.
+     */
+    public final JSONObject passportJson;
+
+    /**
+     * When {@code true}, the large fields of the passport follow in RESULT_PART messages.
+     */
+    public final boolean partial;
+
+    public WebsocketResultMessage(JSONObject passportJson, boolean partial) {
+        super(TYPE_RESULT);
+        this.passportJson = passportJson;
+        this.partial = partial;
+    }
+
+    @Override
+    public JSONObject toJson() {
+        throw new UnsupportedOperationException("Not supported");
+    }
+
+    public static WebsocketResultMessage fromJson(JSONObject json) throws JSONException {
+        return new WebsocketResultMessage(
+                json.getJSONObject("passport"),
+                json.optBoolean("partial", false));
+    }
+}
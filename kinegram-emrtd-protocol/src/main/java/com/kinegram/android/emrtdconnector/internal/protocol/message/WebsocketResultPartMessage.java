@@ -0,0 +1,41 @@
+package com.kinegram.android.emrtdconnector.internal.protocol.message;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Message sent from server to client after a partial RESULT message, with the fields of the
+ * passport that were left out (e.g. the face photo). Fields that are objects, like
+ * {@code filesBinary}, can be split over several parts.
+ */
+public class WebsocketResultPartMessage extends WebsocketMessage {
+    /**
+     * Fields of the passport to add to the partial result.
+     */
+    @NonNull
+    public final JSONObject fields;
+
+    /**
+     * When {@code true}, the result is complete with this part.
+     */
+    public final boolean last;
+
+    public WebsocketResultPartMessage(@NonNull JSONObject fields, boolean last) {
+        super(TYPE_RESULT_PART);
+        this.fields = fields;
+        this.last = last;
+    }
+
+    @Override
+    public JSONObject toJson() {
+        throw new UnsupportedOperationException("Not supported");
+    }
+
+    public static WebsocketResultPartMessage fromJson(JSONObject json) throws JSONException {
+        return new WebsocketResultPartMessage(
+                json.getJSONObject("fields"),
+                json.optBoolean("last", false));
+    }
+}
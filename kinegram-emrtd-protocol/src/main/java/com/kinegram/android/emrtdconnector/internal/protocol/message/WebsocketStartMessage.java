@@ -17,19 +17,40 @@ public class WebsocketStartMessage extends WebsocketMessage {
     public final String platform;
     public final boolean nfcAdapterSupportsExtendedLength;
     public final boolean enableDiagnostics;
+    /**
+     * When {@code true}, the client reconnected and wants to continue the session with the same
+     * validation id instead of starting a new one.
+     */
+    public final boolean resume;
+    /**
+     * When {@code true}, the client can send files in chunks
+     * ({@code BinaryMessageProtocol.FileChunkMessage}).
+     */
+    public final boolean supportsFileChunks;
+    /**
+     * When {@code true}, the client can send and receive control messages as CBOR
+     * ({@code BinaryMessageProtocol.ControlMessage}).
+     */
+    public final boolean supportsCbor;
 
     public WebsocketStartMessage(
             @NonNull String validationId,
             @NonNull String clientId,
             @NonNull String platform,
             boolean nfcAdapterSupportsExtendedLength,
-            boolean enableDiagnostics) {
+            boolean enableDiagnostics,
+            boolean resume,
+            boolean supportsFileChunks,
+            boolean supportsCbor) {
         super(TYPE_START);
         this.validationId = validationId;
         this.clientId = clientId;
         this.platform = platform;
         this.nfcAdapterSupportsExtendedLength = nfcAdapterSupportsExtendedLength;
         this.enableDiagnostics = enableDiagnostics;
+        this.resume = resume;
+        this.supportsFileChunks = supportsFileChunks;
+        this.supportsCbor = supportsCbor;
     }
 
     @Override
@@ -41,6 +62,15 @@ public class WebsocketStartMessage extends WebsocketMessage {
         json.put("platform", platform);
         json.put("nfcAdapterSupportsExtendedLength", nfcAdapterSupportsExtendedLength);
         json.put("enableDiagnostics", enableDiagnostics);
+        if (resume) {
+            json.put("resume", true);
+        }
+        if (supportsFileChunks) {
+            json.put("supportsFileChunks", true);
+        }
+        if (supportsCbor) {
+            json.put("supportsCbor", true);
+        }
         return json;
     }
 
@@ -50,7 +80,10 @@ public class WebsocketStartMessage extends WebsocketMessage {
                 json.getString("clientId"),
                 json.getString("platform"),
                 json.getBoolean("nfcAdapterSupportsExtendedLength"),
-                json.getBoolean("enableDiagnostics")
+                json.getBoolean("enableDiagnostics"),
+                json.optBoolean("resume", false),
+                json.optBoolean("supportsFileChunks", false),
+                json.optBoolean("supportsCbor", false)
         );
     }
 }
@@ -0,0 +1,120 @@
+package com.kinegram.android.emrtdconnector.internal.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.kinegram.android.emrtdconnector.internal.protocol.message.Cbor;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class BinaryMessageProtocolTest {
+    @Test
+    public void fileMessageRoundTrip() {
+        byte[] data = new byte[70_000];
+        Arrays.fill(data, (byte) 0x5A);
+        BinaryMessageProtocol.FileMessage message = decode(
+                BinaryMessageProtocol.FileMessage.encode("dg2", data),
+                BinaryMessageProtocol.FileMessage.class);
+        assertEquals("dg2", message.getName());
+        assertArrayEquals(data, message.getData());
+    }
+
+    @Test
+    public void fileMessageRoundTripWithLongName() {
+        char[] name = new char[255];
+        Arrays.fill(name, 'n');
+        BinaryMessageProtocol.FileMessage message = decode(
+                BinaryMessageProtocol.FileMessage.encode(new String(name), new byte[0]),
+                BinaryMessageProtocol.FileMessage.class);
+        assertEquals(new String(name), message.getName());
+        assertEquals(0, message.getData().length);
+    }
+
+    @Test
+    public void fileMessageRejectsTooLongName() {
+        char[] name = new char[256];
+        Arrays.fill(name, 'n');
+        try {
+            BinaryMessageProtocol.FileMessage.encode(new String(name), new byte[1]);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // The length has to fit into one byte
+        }
+    }
+
+    @Test
+    public void apduMessageRoundTrip() {
+        byte[] apdu = {0x00, (byte) 0xA4, 0x04, 0x0C, 0x07, (byte) 0xA0, 0x00, 0x00, 0x02, 0x47,
+                0x10, 0x01};
+        BinaryMessageProtocol.ApduMessage message = decode(
+                BinaryMessageProtocol.ApduMessage.encode(apdu),
+                BinaryMessageProtocol.ApduMessage.class);
+        assertArrayEquals(apdu, message.getData());
+    }
+
+    @Test
+    public void controlMessageRoundTrip() {
+        byte[] cbor = new Cbor.Writer()
+                .map(2)
+                .text("type").text("FINISH")
+                .text("sendResult").bool(true)
+                .toByteArray();
+        BinaryMessageProtocol.ControlMessage message = decode(
+                BinaryMessageProtocol.ControlMessage.encode(cbor),
+                BinaryMessageProtocol.ControlMessage.class);
+        assertEquals("FINISH", Cbor.getString(message.getFields(), "type"));
+        assertEquals(true, message.getFields().get("sendResult"));
+    }
+
+    @Test
+    public void fileChunkMessageLayout() {
+        ByteBuffer chunk = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5}, 1, 3);
+        ByteBuffer encoded = BinaryMessageProtocol.FileChunkMessage.encode(
+                "dg2", 4096, 20_000, chunk);
+
+        assertEquals(0x03, encoded.get());
+        byte[] name = new byte[encoded.get() & 0xFF];
+        encoded.get(name);
+        assertEquals("dg2", new String(name, StandardCharsets.UTF_8));
+        assertEquals(4096, encoded.getInt());
+        assertEquals(20_000, encoded.getInt());
+        byte[] data = new byte[encoded.remaining()];
+        encoded.get(data);
+        assertArrayEquals(new byte[]{2, 3, 4}, data);
+    }
+
+    @Test
+    public void rejectsMalformedMessages() {
+        assertRejected(new byte[0]);
+        // Unknown type
+        assertRejected(new byte[]{0x7F});
+        // File message without the name length
+        assertRejected(new byte[]{0x01});
+        // File message with a name longer than the message
+        assertRejected(new byte[]{0x01, 0x05, 'd', 'g'});
+        // Control message that is not a map
+        assertRejected(new byte[]{0x04, 0x01});
+    }
+
+    private static <T extends BinaryMessageProtocol.Message> T decode(
+            ByteBuffer encoded, Class<T> type) {
+        BinaryMessageProtocol.Message message = BinaryMessageProtocol.decode(encoded);
+        assertTrue(type.isInstance(message));
+        return type.cast(message);
+    }
+
+    private static void assertRejected(byte[] data) {
+        try {
+            BinaryMessageProtocol.decode(ByteBuffer.wrap(data));
+            fail("Decoded " + Arrays.toString(data));
+        } catch (IllegalArgumentException expected) {
+            // Malformed
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.kinegram.android.emrtdconnector.internal.protocol.message;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class CborTest {
+    @Test
+    public void integersRoundTripAtEveryLength() {
+        long[] values = {
+                0, 23, 24, 255, 256, 65535, 65536, 0xFFFFFFFFL, 0x100000000L, Long.MAX_VALUE,
+                -1, -24, -25, -256, -257, -65537, Long.MIN_VALUE,
+        };
+        for (long value : values) {
+            assertEquals(value, decode(new Cbor.Writer().integer(value)));
+        }
+    }
+
+    @Test
+    public void integersUseTheShortestHead() {
+        assertArrayEquals(bytes(0x17), new Cbor.Writer().integer(23).toByteArray());
+        assertArrayEquals(bytes(0x18, 0x18), new Cbor.Writer().integer(24).toByteArray());
+        assertArrayEquals(bytes(0x19, 0x01, 0x00), new Cbor.Writer().integer(256).toByteArray());
+        assertArrayEquals(bytes(0x20), new Cbor.Writer().integer(-1).toByteArray());
+        assertArrayEquals(bytes(0x38, 0x18), new Cbor.Writer().integer(-25).toByteArray());
+    }
+
+    @Test
+    public void stringsRoundTrip() {
+        assertEquals("", decode(new Cbor.Writer().text("")));
+        assertEquals("Gr\u00fcezi \u2713", decode(new Cbor.Writer().text("Gr\u00fcezi \u2713")));
+
+        byte[] data = new byte[300];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        assertArrayEquals(data, (byte[]) decode(new Cbor.Writer().bytes(data)));
+        assertArrayEquals(new byte[0], (byte[]) decode(new Cbor.Writer().bytes(new byte[0])));
+    }
+
+    @Test
+    public void simpleValuesRoundTrip() {
+        assertEquals(true, decode(new Cbor.Writer().bool(true)));
+        assertEquals(false, decode(new Cbor.Writer().bool(false)));
+        assertNull(decode(new Cbor.Writer().nil()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void nestedValuesRoundTrip() {
+        byte[] encoded = new Cbor.Writer()
+                .map(4)
+                .text("type").text("CA_HANDOVER")
+                .text("keys").array(2).bytes(bytes(1, 2)).bytes(bytes(3))
+                .text("info").map(2).text("oid").text("0.4.0.127.0.7.2.2.3.2.4")
+                .text("keyId").nil()
+                .text("size").integer(1024)
+                .toByteArray();
+
+        Map<String, Object> map = (Map<String, Object>) Cbor.decode(ByteBuffer.wrap(encoded));
+        assertEquals(Arrays.asList("type", "keys", "info", "size"),
+                Arrays.asList(map.keySet().toArray()));
+        assertEquals("CA_HANDOVER", Cbor.getString(map, "type"));
+        List<Object> keys = (List<Object>) map.get("keys");
+        assertArrayEquals(bytes(1, 2), (byte[]) keys.get(0));
+        assertArrayEquals(bytes(3), (byte[]) keys.get(1));
+        Map<String, Object> info = Cbor.getMap(map, "info");
+        assertEquals("0.4.0.127.0.7.2.2.3.2.4", Cbor.getString(info, "oid"));
+        assertTrue(info.containsKey("keyId"));
+        assertNull(info.get("keyId"));
+        assertEquals(1024, Cbor.getLong(map, "size"));
+    }
+
+    @Test
+    public void decodesTheExampleOfTheRfc() {
+        // RFC 8949, Appendix A: {"a": 1, "b": [2, 3]}
+        Object decoded = Cbor.decode(ByteBuffer.wrap(
+                bytes(0xA2, 0x61, 0x61, 0x01, 0x61, 0x62, 0x82, 0x02, 0x03)));
+        assertEquals(1L, ((Map<?, ?>) decoded).get("a"));
+        assertEquals(Arrays.asList(2L, 3L), ((Map<?, ?>) decoded).get("b"));
+    }
+
+    @Test
+    public void decodeLeavesTheBufferAfterTheValue() {
+        byte[] encoded = new Cbor.Writer().integer(1000).text("next").toByteArray();
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        assertEquals(1000L, Cbor.decode(buffer));
+        assertEquals("next", Cbor.decode(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void rejectsMalformedData() {
+        assertRejected(bytes());
+        // Text of 5 bytes with only 2 present
+        assertRejected(bytes(0x65, 0x61, 0x62));
+        // Array claiming more entries than there are bytes
+        assertRejected(bytes(0x9A, 0x7F, 0xFF, 0xFF, 0xFF));
+        // Map with an integer key
+        assertRejected(bytes(0xA1, 0x01, 0x02));
+        // Indefinite length
+        assertRejected(bytes(0x5F));
+        // Float
+        assertRejected(bytes(0xF9, 0x3C, 0x00));
+    }
+
+    @Test
+    public void rejectsDeepNesting() {
+        Cbor.Writer writer = new Cbor.Writer();
+        for (int i = 0; i < 100; i++) {
+            writer.array(1);
+        }
+        writer.nil();
+        assertRejected(writer.toByteArray());
+    }
+
+    @Test
+    public void accessorsRejectMissingAndWrongFields() {
+        Map<?, ?> decoded = (Map<?, ?>) decode(new Cbor.Writer().map(1).text("a").integer(1));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map = (Map<String, Object>) decoded;
+        try {
+            Cbor.getString(map, "a");
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // Not a string
+        }
+        try {
+            Cbor.getLong(map, "b");
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // Missing
+        }
+    }
+
+    private static Object decode(Cbor.Writer writer) {
+        ByteBuffer buffer = ByteBuffer.wrap(writer.toByteArray());
+        Object decoded = Cbor.decode(buffer);
+        assertFalse(buffer.hasRemaining());
+        return decoded;
+    }
+
+    private static void assertRejected(byte[] data) {
+        try {
+            Cbor.decode(ByteBuffer.wrap(data));
+            fail("Decoded " + Arrays.toString(data));
+        } catch (IllegalArgumentException expected) {
+            // Malformed or unsupported
+        }
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
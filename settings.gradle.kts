@@ -26,4 +26,4 @@ dependencyResolutionManagement {
 }
 
 rootProject.name = "Kinegram eMRTD Connector SDK Android"
-include(":kinegram-emrtd-connector", ":app")
+include(":kinegram-emrtd-connector", ":kinegram-emrtd-protocol", ":app")